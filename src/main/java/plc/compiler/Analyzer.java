@@ -5,25 +5,112 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
 
 /**
  * See the specification for information about what the different visit
  * methods should do.
+ *
+ * By default each visit returns a new, typed copy of the node. An analyzer
+ * created with {@link #annotating(Scope)} performs the same checks but
+ * returns the visited nodes themselves, setting the type of each expression
+ * in place, so analyzing already parsed input allocates almost nothing.
+ * Declared type and function names are left as written, so the {@link
+ * Generator} still needs the copied tree. An expression created by {@link
+ * AstFactory#hashConsing()} may be shared by places where it has different
+ * types, and is a key of the factory's table, so it is never annotated: it is
+ * copied as by the copying analyzer, as is every node above it, and a node is
+ * only returned itself if none of its children were copied.
+ *
+ * An analyzer created with {@link #parallel(Scope, ForkJoinPool)} also
+ * analyzes the statements of a source, and analyzes long lists of statements
+ * in chunks on the pool. The scope a statement is analyzed in only depends on
+ * the declarations before it, whose types are written in the declarations
+ * themselves, so a quick pass over the declarations gives the scope at the
+ * start of each chunk as a {@link Scope#fork()} without analyzing anything.
+ * Chunks then have no dependencies on each other, and nested blocks are split
+ * the same way. The chunks are joined in order, so the result and which
+ * exception is thrown are the same as analyzing the statements in order.
+ *
+ * Types and functions are resolved through a {@link Stdlib.Overlay}, so a
+ * compilation can register its own on top of the shared ones without
+ * affecting compilations running alongside it. A call is typed by the return
+ * type of its function, and records whether the function is pure for the
+ * {@link Hoister}.
  */
 public final class Analyzer implements Ast.Visitor<Ast> {
 
+    private static final Pattern STRING = Pattern.compile("[A-Za-z0-9_!?/+-/* ]*");
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 16;
+
     public Scope scope;
+    private final boolean annotating;
+    private final ForkJoinPool pool;
+    private final Stdlib.Overlay stdlib;
 
     public Analyzer(Scope scope) {
+        this(scope, Stdlib.overlay());
+    }
+
+    public Analyzer(Scope scope, Stdlib.Overlay stdlib) {
+        this(scope, false, null, stdlib);
+    }
+
+    private Analyzer(Scope scope, boolean annotating, ForkJoinPool pool, Stdlib.Overlay stdlib) {
         this.scope = scope;
+        this.annotating = annotating;
+        this.pool = pool;
+        this.stdlib = stdlib;
+    }
+
+    /**
+     * Returns an analyzer which types the tree in place instead of copying it.
+     */
+    public static Analyzer annotating(Scope scope) {
+        return new Analyzer(scope, true, null, Stdlib.overlay());
+    }
+
+    /**
+     * Returns an analyzer which analyzes the statements of a source, in
+     * parallel on the pool where there are enough of them.
+     */
+    public static Analyzer parallel(Scope scope, ForkJoinPool pool) {
+        return parallel(scope, Stdlib.overlay(), pool);
+    }
+
+    public static Analyzer parallel(Scope scope, Stdlib.Overlay stdlib, ForkJoinPool pool) {
+        return new Analyzer(scope, false, pool, stdlib);
+    }
+
+    /**
+     * Sets the type of an expression when annotating, returning the
+     * expression in place of a typed copy.
+     */
+    private static <T extends Ast.Expression> T annotate(T ast, Stdlib.Type type) {
+        ast.type = type;
+        return ast;
+    }
+
+    /**
+     * Returns true if the expression is to be annotated in place rather than
+     * copied, given whether its children were visited in place.
+     */
+    private boolean inPlace(Ast.Expression ast, boolean children) {
+        return annotating && children && !ast.canonical;
     }
 
     @Override
     public Ast visit(Ast.Source ast) throws AnalysisException {
         if(ast.getStatements().isEmpty()){
             throw new AnalysisException("empty!");
+        }else if(pool != null){
+            List<Ast.Statement> statements = visitAll(ast.getStatements());
+            return statements == null ? ast : new Ast.Source(statements);
         }else{
-            return new Ast.Source(ast.getStatements());
+            return annotating ? ast : new Ast.Source(ast.getStatements());
         }
     }
 
@@ -36,8 +123,9 @@ public final class Analyzer implements Ast.Visitor<Ast> {
 
     @Override
     public Ast.Statement.Expression visit(Ast.Statement.Expression ast) throws AnalysisException {
-        if (visit(ast.getExpression()) instanceof Ast.Expression.Function) {
-            return new Ast.Statement.Expression(visit(ast.getExpression()));
+        Ast.Expression expression = visit(ast.getExpression());
+        if (expression instanceof Ast.Expression.Function) {
+            return annotating && expression == ast.getExpression() ? ast : new Ast.Statement.Expression(expression);
         }else {
             throw new AnalysisException("not function");
         }
@@ -45,25 +133,35 @@ public final class Analyzer implements Ast.Visitor<Ast> {
 
     @Override
     public Ast.Statement.Declaration visit(Ast.Statement.Declaration ast) throws AnalysisException {
-        scope.define(ast.getName(), Stdlib.getType((ast.getType())));
+        scope.define(ast.getName(), stdlib.getType((ast.getType())));
         if(scope.lookup(ast.getName()) == null) {
             throw new AnalysisException("already defined");
         }
-        else if(Stdlib.getType(ast.getType()) == Stdlib.Type.VOID){
+        else if(stdlib.getType(ast.getType()) == Stdlib.Type.VOID){
             throw new AnalysisException("VOID is not allowed");
         }
+        else if(annotating) {
+            if(ast.getValue().isPresent()) {
+                Ast.Expression value = visit(ast.getValue().get());
+                if (value != ast.getValue().get()) {
+                    return new Ast.Statement.Declaration(ast.getName(), ast.getType(), Optional.of(value), ast.getDepth(), ast.getSlot());
+                }
+            }
+            return ast;
+        }
         else if(!ast.getValue().isPresent()) {
-            return new Ast.Statement.Declaration(ast.getName(), Stdlib.getType(ast.getType()).getJvmName(), Optional.empty());
+            return new Ast.Statement.Declaration(ast.getName(), stdlib.getType(ast.getType()).getJvmName(), Optional.empty(), ast.getDepth(), ast.getSlot());
         }
         else {
-            return new Ast.Statement.Declaration(ast.getName(), Stdlib.getType(ast.getType()).getJvmName(), Optional.of(visit(ast.getValue().get())));
+            return new Ast.Statement.Declaration(ast.getName(), stdlib.getType(ast.getType()).getJvmName(), Optional.of(visit(ast.getValue().get())), ast.getDepth(), ast.getSlot());
         }
     }
 
     @Override
     public Ast.Statement.Assignment visit(Ast.Statement.Assignment ast) throws AnalysisException {
         if(ast.getExpression().getType() == scope.lookup(ast.getName())){
-            return new Ast.Statement.Assignment(ast.getName(), visit(ast.getExpression()));
+            Ast.Expression expression = visit(ast.getExpression());
+            return annotating && expression == ast.getExpression() ? ast : new Ast.Statement.Assignment(ast.getName(), expression, ast.getDepth(), ast.getSlot());
         }
         throw new AnalysisException("not same");
     }
@@ -71,22 +169,19 @@ public final class Analyzer implements Ast.Visitor<Ast> {
     @Override
     public Ast.Statement.If visit(Ast.Statement.If ast) throws AnalysisException {
 
-        List<Ast.Statement> thenS = new ArrayList<>();
-        for(int i=0;i<ast.getThenStatements().size();i++){
-            thenS.add(visit(ast.getThenStatements().get(i)));
-        }
+        List<Ast.Statement> thenS = visitAll(ast.getThenStatements());
+        List<Ast.Statement> elseS = visitAll(ast.getElseStatements());
 
-        List<Ast.Statement> elseS = new ArrayList<>();
-        for(int i=0;i<ast.getElseStatements().size();i++) {
-            elseS.add(visit(ast.getElseStatements().get(i)));
-        }
-
-        if(visit(ast.getCondition()).getType() != Stdlib.Type.BOOLEAN) {
+        Ast.Expression condition = visit(ast.getCondition());
+        if(condition.getType() != Stdlib.Type.BOOLEAN) {
             throw new AnalysisException("not bool");
         }else if(ast.getThenStatements().isEmpty()){
             throw new AnalysisException("then empty");
+        }else if(annotating && condition == ast.getCondition() && thenS == null && elseS == null) {
+            return ast;
         }else {
-            return new Ast.Statement.If(visit(ast.getCondition()), thenS, elseS);
+            return new Ast.Statement.If(condition, thenS != null ? thenS : ast.getThenStatements(),
+                    elseS != null ? elseS : ast.getElseStatements());
         }
 
     }
@@ -94,18 +189,105 @@ public final class Analyzer implements Ast.Visitor<Ast> {
     @Override
     public Ast.Statement.While visit(Ast.Statement.While ast) throws AnalysisException {
 
-        if (visit(ast.getCondition()).getType() != Stdlib.Type.BOOLEAN) {
+        Ast.Expression condition = visit(ast.getCondition());
+        if (condition.getType() != Stdlib.Type.BOOLEAN) {
             throw new AnalysisException("not bool");
         }else {
-            List<Ast.Statement> getS = new ArrayList<>();
-            for(int i=0;i<ast.getStatements().size();i++) {
-                getS.add(i,visit(ast.getStatements().get(i)));
+            List<Ast.Statement> getS = visitAll(ast.getStatements());
+            if (annotating && condition == ast.getCondition() && getS == null) {
+                return ast;
             }
-            return new Ast.Statement.While(visit(ast.getCondition()), getS);
+            return new Ast.Statement.While(condition, getS != null ? getS : ast.getStatements());
         }
 
     }
 
+    /**
+     * Visits the statements in order, returning their copies, or null when
+     * annotating if every statement was annotated in place.
+     */
+    private List<Ast.Statement> visitAll(List<Ast.Statement> statements) throws AnalysisException {
+        if(pool != null && statements.size() >= 2 * MIN_CHUNK_SIZE) {
+            return visitChunks(statements);
+        }
+        return visitEach(statements);
+    }
+
+    private List<Ast.Statement> visitEach(List<Ast.Statement> statements) throws AnalysisException {
+        List<Ast.Statement> visited = annotating ? null : new ArrayList<>(statements.size());
+        for(int i=0;i<statements.size();i++) {
+            Ast.Statement statement = visit(statements.get(i));
+            if(visited == null && statement != statements.get(i)) {
+                visited = new ArrayList<>(statements.subList(0, i));
+            }
+            if(visited != null) {
+                visited.add(statement);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Analyzes chunks of the statements concurrently, each in a fork of the
+     * scope holding the declarations before the chunk. Declaring stops at the
+     * first chunk which fails to declare, as analysis fails within it too.
+     */
+    private List<Ast.Statement> visitChunks(List<Ast.Statement> statements) throws AnalysisException {
+        int chunks = Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, statements.size() / MIN_CHUNK_SIZE);
+        List<ForkJoinTask<List<Ast.Statement>>> tasks = new ArrayList<>();
+        List<List<Ast.Statement>> sublists = new ArrayList<>();
+        RuntimeException failure = null;
+        for (int i = 0; i < chunks && failure == null; i++) {
+            List<Ast.Statement> chunk = statements.subList(
+                    (int) ((long) statements.size() * i / chunks),
+                    (int) ((long) statements.size() * (i + 1) / chunks));
+            sublists.add(chunk);
+            Analyzer analyzer = new Analyzer(scope.fork(), annotating, pool, stdlib);
+            tasks.add(pool.submit(() -> analyzer.visitEach(chunk)));
+            try {
+                declare(chunk);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        List<Ast.Statement> visited = annotating ? null : new ArrayList<>(statements.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            List<Ast.Statement> chunk = tasks.get(i).join();
+            if (visited == null && chunk != null) {
+                visited = new ArrayList<>(statements.size());
+                for (int j = 0; j < i; j++) {
+                    visited.addAll(sublists.get(j));
+                }
+            }
+            if (visited != null) {
+                visited.addAll(chunk != null ? chunk : sublists.get(i));
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return visited;
+    }
+
+    /**
+     * Defines the variables declared by the statements, including in nested
+     * blocks, as analyzing them would.
+     */
+    private void declare(List<Ast.Statement> statements) throws AnalysisException {
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            if (statement instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) statement;
+                scope.define(declaration.getName(), stdlib.getType(declaration.getType()));
+            } else if (statement instanceof Ast.Statement.If) {
+                declare(((Ast.Statement.If) statement).getThenStatements());
+                declare(((Ast.Statement.If) statement).getElseStatements());
+            } else if (statement instanceof Ast.Statement.While) {
+                declare(((Ast.Statement.While) statement).getStatements());
+            }
+        }
+    }
+
     /**
      * Statically validates that visiting an expression returns an expression.
      */
@@ -113,27 +295,46 @@ public final class Analyzer implements Ast.Visitor<Ast> {
         return (Ast.Expression) visit((Ast) ast);
     }
 
+    /**
+     * Numbers are {@link Long} and {@link Double} values as parsed, or {@link
+     * BigInteger} and {@link BigDecimal} values for literals too large for
+     * them. Ranges are checked against primitive bounds without allocating.
+     */
     @Override
     public Ast.Expression.Literal visit(Ast.Expression.Literal ast) throws AnalysisException {
 
         if (ast.getValue() instanceof Boolean) {
-            return new Ast.Expression.Literal(Stdlib.Type.BOOLEAN, ast.getValue());
+            return inPlace(ast, true) ? annotate(ast, Stdlib.Type.BOOLEAN) : new Ast.Expression.Literal(Stdlib.Type.BOOLEAN, ast.getValue());
+        } else if (ast.getValue() instanceof Long) {
+
+            long value = (Long) ast.getValue();
+            if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new AnalysisException("out of range");
+            }
+            return inPlace(ast, true) ? annotate(ast, Stdlib.Type.INTEGER) : new Ast.Expression.Literal(Stdlib.Type.INTEGER, (int) value);
+
         } else if (ast.getValue() instanceof BigInteger) {
 
-            if(((BigInteger)ast.getValue()).compareTo(new BigInteger(String.valueOf(Integer.MIN_VALUE)))<0 || ((BigInteger)ast.getValue()).compareTo(new BigInteger(String.valueOf(Integer.MAX_VALUE)))>0) {
+            if(((BigInteger) ast.getValue()).bitLength() > 31) {
                 throw new AnalysisException("out of range");
             }
-            return new Ast.Expression.Literal(Stdlib.Type.INTEGER, ((BigInteger) ast.getValue()).intValue());
+            return inPlace(ast, true) ? annotate(ast, Stdlib.Type.INTEGER) : new Ast.Expression.Literal(Stdlib.Type.INTEGER, ((BigInteger) ast.getValue()).intValue());
 
+        }else if (ast.getValue() instanceof Double){
+            double temp = (Double) ast.getValue();
+            if(temp == Double.NEGATIVE_INFINITY || temp == Double.POSITIVE_INFINITY){
+                throw new AnalysisException("double out of range");
+            }
+            return inPlace(ast, true) ? annotate(ast, Stdlib.Type.DECIMAL) : new Ast.Expression.Literal(Stdlib.Type.DECIMAL, temp);
         }else if (ast.getValue() instanceof BigDecimal){
             double temp = ((BigDecimal) ast.getValue()).doubleValue();
             if(temp == Double.NEGATIVE_INFINITY || temp == Double.POSITIVE_INFINITY){
                 throw new AnalysisException("double out of range");
             }
-            return new Ast.Expression.Literal(Stdlib.Type.DECIMAL, temp);
+            return inPlace(ast, true) ? annotate(ast, Stdlib.Type.DECIMAL) : new Ast.Expression.Literal(Stdlib.Type.DECIMAL, temp);
         }else if (ast.getValue() instanceof String){
-            if((ast.getValue().toString().matches("[A-Za-z0-9_!?/+-/* ]*"))){
-                return new Ast.Expression.Literal(Stdlib.Type.STRING, ast.getValue().toString());
+            if(STRING.matcher((String) ast.getValue()).matches()){
+                return inPlace(ast, true) ? annotate(ast, Stdlib.Type.STRING) : new Ast.Expression.Literal(Stdlib.Type.STRING, ast.getValue().toString());
             }
         }
 
@@ -142,74 +343,74 @@ public final class Analyzer implements Ast.Visitor<Ast> {
 
     @Override
     public Ast.Expression.Group visit(Ast.Expression.Group ast) throws AnalysisException {
-        return new Ast.Expression.Group(visit(ast.getExpression()));
+        Ast.Expression expression = visit(ast.getExpression());
+        return inPlace(ast, expression == ast.getExpression()) ? ast : new Ast.Expression.Group(expression);
     }
 
+    /**
+     * Each operand is visited exactly once; the right operand is only visited
+     * once the left operand is known to be valid for the operator. The result
+     * type is read from the {@link Stdlib} tables. Equality only checks its
+     * left operand, so the type of the right operand is not needed.
+     */
     @Override
     public Ast.Expression.Binary visit(Ast.Expression.Binary ast) throws AnalysisException {
 
-        if(ast.getOperator().equals("==") || ast.getOperator().equals("!=")){
-
-            if(visit(ast.getLeft()).getType() != Stdlib.Type.VOID && visit(ast.getLeft()).getType() != Stdlib.Type.VOID){
-                return new Ast.Expression.Binary(Stdlib.Type.BOOLEAN,ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-            }else{
-                throw new AnalysisException("void included");
-            }
-
-        }else if(ast.getOperator().equals("+")){
-
-            if(visit(ast.getLeft()).getType() != Stdlib.Type.VOID && visit(ast.getRight()).getType() != Stdlib.Type.VOID){
-
-                if(visit(ast.getLeft()).getType() == Stdlib.Type.STRING || visit(ast.getRight()).getType() == Stdlib.Type.STRING ){
-                    return new Ast.Expression.Binary(Stdlib.Type.STRING, ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-                }else if(visit(ast.getLeft()).getType() == Stdlib.Type.INTEGER && visit(ast.getRight()).getType() == Stdlib.Type.INTEGER){
-                    return new Ast.Expression.Binary(Stdlib.Type.INTEGER, ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-                }else{
-                    return new Ast.Expression.Binary(Stdlib.Type.DECIMAL, ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-                }
-
-            }
-
-            throw new AnalysisException("void included");
-
-        }else if(ast.getOperator().equals("-") || ast.getOperator().equals("*") || ast.getOperator().equals("/")){
-
-            if(visit(ast.getLeft()).getType() == Stdlib.Type.INTEGER && visit(ast.getRight()).getType() == Stdlib.Type.INTEGER ){
-                return new Ast.Expression.Binary(Stdlib.Type.INTEGER, ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-            }else if(visit(ast.getLeft()).getType() == Stdlib.Type.DECIMAL && visit(ast.getRight()).getType() == Stdlib.Type.INTEGER){
-                return new Ast.Expression.Binary(Stdlib.Type.DECIMAL,ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-            }else if(visit(ast.getLeft()).getType() == Stdlib.Type.INTEGER && visit(ast.getRight()).getType() == Stdlib.Type.DECIMAL){
-                return new Ast.Expression.Binary(Stdlib.Type.DECIMAL, ast.getOperator(), visit(ast.getLeft()), visit(ast.getRight()));
-            }else{
-                throw new AnalysisException("not int or decimal");
-            }
-
+        String operator = ast.getOperator();
+        Stdlib.Operator group = Stdlib.Operator.of(operator);
+        if(group == null){
+            throw new AnalysisException("uh oh wheres the operator chief");
         }
+        String message = group == Stdlib.Operator.ARITHMETIC ? "not int or decimal" : "void included";
 
-        throw new AnalysisException("uh oh wheres the operator chief");
+        Ast.Expression left = visit(ast.getLeft());
+        if(!Stdlib.isOperand(group, left.getType())){
+            throw new AnalysisException(message);
+        }
+        Ast.Expression right = visit(ast.getRight());
+        Stdlib.Type type = group == Stdlib.Operator.EQUALITY ? Stdlib.Type.BOOLEAN : Stdlib.getResult(group, left.getType(), right.getType());
+        if(type == null){
+            throw new AnalysisException(message);
+        }
+        return inPlace(ast, left == ast.getLeft() && right == ast.getRight())
+                ? annotate(ast, type) : new Ast.Expression.Binary(type, operator, left, right);
     }
 
     @Override
     public Ast.Expression.Variable visit(Ast.Expression.Variable ast) throws AnalysisException {
 
-        if(scope.lookup(ast.getName()) == null){
+        Stdlib.Type type = scope.lookup(ast.getName());
+        if(type == null){
             throw new AnalysisException("var not def");
         }
 
-        return new Ast.Expression.Variable(scope.lookup(ast.getName()), ast.getName());
+        return inPlace(ast, true) ? annotate(ast, type) : new Ast.Expression.Variable(type, ast.getName(), ast.getDepth(), ast.getSlot());
     }
 
     @Override
     public Ast.Expression.Function visit(Ast.Expression.Function ast) throws AnalysisException {
 
-        List<Ast.Expression> args = new ArrayList<>();
+        List<Ast.Expression> arguments = ast.getArguments();
+        Stdlib.Function function = stdlib.getFunction(ast.getName(), arguments.size());
+        List<Stdlib.Type> parameters = function.getParameterTypes();
+        List<Ast.Expression> args = annotating ? null : new ArrayList<>(arguments.size());
 
-        for (int i = 0; i < ast.getArguments().size(); i++) {
-            checkAssignable(visit(ast.getArguments().get(i)).getType(), Stdlib.getFunction(ast.getName(), ast.getArguments().size()).getParameterTypes().get(i));
-            args.add(visit(ast.getArguments().get(i)));
+        for (int i = 0; i < arguments.size(); i++) {
+            Ast.Expression argument = visit(arguments.get(i));
+            checkAssignable(argument.getType(), parameters.get(i));
+            if (args == null && argument != arguments.get(i)) {
+                args = new ArrayList<>(arguments.subList(0, i));
+            }
+            if (args != null) {
+                args.add(argument);
+            }
         }
 
-        return new Ast.Expression.Function(Stdlib.Type.VOID, Stdlib.getFunction(ast.getName(), ast.getArguments().size()).getJvmName(), args);
+        if (inPlace(ast, args == null) && ast.isPure() == function.isPure()) {
+            return annotate(ast, function.getReturnType());
+        }
+        return new Ast.Expression.Function(function.getReturnType(), annotating ? ast.getName() : function.getJvmName(),
+                args != null ? args : new ArrayList<>(arguments), function.isPure());
 
     }
 
@@ -218,10 +419,11 @@ public final class Analyzer implements Ast.Visitor<Ast> {
      *  - The types are equal, as according to Object#equals
      *  - The first type is an INTEGER and the target type is DECIMAL
      *  - The first type is not VOID and the target type is ANY
+     * This is precomputed for each pair of types by {@link Stdlib#isAssignable(Stdlib.Type, Stdlib.Type)}.
      */
     public static void checkAssignable(Stdlib.Type type, Stdlib.Type target) throws AnalysisException {
 
-        if (!type.equals(target) && !(type.equals(Stdlib.Type.INTEGER) && target.equals(Stdlib.Type.DECIMAL)) && !(!type.equals(Stdlib.Type.VOID) && target.equals(Stdlib.Type.ANY))){
+        if (!Stdlib.isAssignable(type, target)){
             throw new AnalysisException("not assignable");
         }
 
@@ -10,6 +10,30 @@ import java.util.Optional;
  */
 public class Ast {
 
+    private int hash;
+
+    /**
+     * Returns a structural hash consistent with {@code equals}. It is computed
+     * from the (cached) hashes of the children the first time it is needed
+     * and then cached, as nodes are immutable once constructed. The type of an
+     * expression is left out, as it may be annotated afterwards. Every {@code
+     * equals} compares the hashes first, so unequal subtrees are usually told
+     * apart without walking them.
+     */
+    @Override
+    public final int hashCode() {
+        int hash = this.hash;
+        if (hash == 0) {
+            hash = computeHash();
+            this.hash = hash;
+        }
+        return hash;
+    }
+
+    int computeHash() {
+        return super.hashCode();
+    }
+
     public static final class Source extends Ast {
 
         private final List<Statement> statements;
@@ -24,7 +48,12 @@ public class Ast {
 
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Source && statements.equals(((Source) obj).statements);
+            return obj == this || obj instanceof Source && hashCode() == obj.hashCode() && statements.equals(((Source) obj).statements);
+        }
+
+        @Override
+        int computeHash() {
+            return statements.hashCode();
         }
 
         @Override
@@ -52,7 +81,12 @@ public class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Statement.Expression && expression.equals(((Statement.Expression) obj).expression);
+                return obj == this || obj instanceof Statement.Expression && hashCode() == obj.hashCode() && expression.equals(((Statement.Expression) obj).expression);
+            }
+
+            @Override
+            int computeHash() {
+                return expression.hashCode();
             }
 
             @Override
@@ -69,11 +103,19 @@ public class Ast {
             private final String name;
             private final String type;
             private final Optional<Ast.Expression> value;
+            private final int depth;
+            private final int slot;
 
             public Declaration(String name, String type, Optional<Ast.Expression> value) {
+                this(name, type, value, -1, -1);
+            }
+
+            public Declaration(String name, String type, Optional<Ast.Expression> value, int depth, int slot) {
                 this.name = name;
                 this.type = type;
                 this.value = value;
+                this.depth = depth;
+                this.slot = slot;
             }
 
             public String getName() {
@@ -88,12 +130,35 @@ public class Ast {
                 return value;
             }
 
+            /**
+             * Returns the depth of the block declaring the variable, as
+             * assigned by the {@link Resolver}, or -1 if not resolved.
+             */
+            public int getDepth() {
+                return depth;
+            }
+
+            /**
+             * Returns the slot of the variable within its block, or -1 if not
+             * resolved.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Declaration &&
+                return obj == this || obj instanceof Declaration && hashCode() == obj.hashCode() &&
                         name.equals(((Declaration) obj).name) &&
                         type.equals(((Declaration) obj).type) &&
-                        value.equals(((Declaration) obj).value);
+                        value.equals(((Declaration) obj).value) &&
+                        depth == ((Declaration) obj).depth &&
+                        slot == ((Declaration) obj).slot;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(name, type, value, depth, slot);
             }
 
             @Override
@@ -102,6 +167,8 @@ public class Ast {
                         "name='" + name + '\'' +
                         ", type='" + type + '\'' +
                         ", value=" + value +
+                        ", depth=" + depth +
+                        ", slot=" + slot +
                         '}';
             }
 
@@ -111,10 +178,18 @@ public class Ast {
 
             private final String name;
             private final Ast.Expression expression;
+            private final int depth;
+            private final int slot;
 
             public Assignment(String name, Ast.Expression expression) {
+                this(name, expression, -1, -1);
+            }
+
+            public Assignment(String name, Ast.Expression expression, int depth, int slot) {
                 this.name = name;
                 this.expression = expression;
+                this.depth = depth;
+                this.slot = slot;
             }
 
             public String getName() {
@@ -125,11 +200,33 @@ public class Ast {
                 return expression;
             }
 
+            /**
+             * Returns the depth of the block declaring the assigned variable,
+             * or -1 if not resolved.
+             */
+            public int getDepth() {
+                return depth;
+            }
+
+            /**
+             * Returns the slot of the assigned variable, or -1 if not resolved.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Assignment &&
+                return obj == this || obj instanceof Assignment && hashCode() == obj.hashCode() &&
                         name.equals(((Assignment) obj).name) &&
-                        expression.equals(((Assignment) obj).expression);
+                        expression.equals(((Assignment) obj).expression) &&
+                        depth == ((Assignment) obj).depth &&
+                        slot == ((Assignment) obj).slot;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(name, expression, depth, slot);
             }
 
             @Override
@@ -137,6 +234,8 @@ public class Ast {
                 return "Assignment{" +
                         "name='" + name + '\'' +
                         ", expression=" + expression +
+                        ", depth=" + depth +
+                        ", slot=" + slot +
                         '}';
             }
 
@@ -168,12 +267,17 @@ public class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof If &&
+                return obj == this || obj instanceof If && hashCode() == obj.hashCode() &&
                         condition.equals(((If) obj).condition) &&
                         thenStatements.equals(((If) obj).thenStatements) &&
                         elseStatements.equals(((If) obj).elseStatements);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(condition, thenStatements, elseStatements);
+            }
+
             @Override
             public String toString() {
                 return "If{" +
@@ -205,11 +309,16 @@ public class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof While &&
+                return obj == this || obj instanceof While && hashCode() == obj.hashCode() &&
                         condition.equals(((While) obj).condition) &&
                         statements.equals(((While) obj).statements);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(condition, statements);
+            }
+
             @Override
             public String toString() {
                 return "While{" +
@@ -224,7 +333,18 @@ public class Ast {
 
     public static abstract class Expression extends Ast {
 
-        protected final Stdlib.Type type;
+        /**
+         * Set when the expression is constructed by the analyzer, or later by
+         * {@link Analyzer#annotating(Scope)}, and otherwise null.
+         */
+        protected Stdlib.Type type;
+
+        /**
+         * Set on the canonical instances of {@link AstFactory#hashConsing()},
+         * which may be shared by several places in a tree and must not be
+         * modified.
+         */
+        boolean canonical;
 
         private Expression(Stdlib.Type type) {
             this.type = type;
@@ -256,11 +376,16 @@ public class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Literal &&
+                return obj == this || obj instanceof Literal && hashCode() == obj.hashCode() &&
                         value.equals(((Literal) obj).value) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(value);
+            }
+
             @Override
             public String toString() {
                 return "Literal{" +
@@ -290,11 +415,16 @@ public class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Group &&
+                return obj == this || obj instanceof Group && hashCode() == obj.hashCode() &&
                         expression.equals(((Group) obj).expression) &&
                         Objects.equals(type, ((Group) obj).type);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(expression);
+            }
+
             @Override
             public String toString() {
                 return "Group{" +
@@ -336,13 +466,18 @@ public class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Binary &&
+                return obj == this || obj instanceof Binary && hashCode() == obj.hashCode() &&
                         operator.equals(((Binary) obj).operator) &&
                         left.equals(((Binary) obj).left) &&
                         right.equals(((Binary) obj).right) &&
                         Objects.equals(type, ((Binary) obj).type);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(operator, left, right);
+            }
+
             @Override
             public String toString() {
                 return "Binary{" +
@@ -358,31 +493,64 @@ public class Ast {
         public static final class Variable extends Expression {
 
             private final String name;
+            private final int depth;
+            private final int slot;
 
             public Variable(String name) {
                 this(null, name);
             }
 
             public Variable(Stdlib.Type type, String name) {
+                this(type, name, -1, -1);
+            }
+
+            public Variable(Stdlib.Type type, String name, int depth, int slot) {
                 super(type);
                 this.name = name;
+                this.depth = depth;
+                this.slot = slot;
             }
 
             public String getName() {
                 return name;
             }
 
+            /**
+             * Returns the depth of the block declaring the variable, or -1 if
+             * not resolved.
+             */
+            public int getDepth() {
+                return depth;
+            }
+
+            /**
+             * Returns the slot of the variable within its block, or -1 if not
+             * resolved.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Variable &&
+                return obj == this || obj instanceof Variable && hashCode() == obj.hashCode() &&
                         name.equals(((Variable) obj).name) &&
+                        depth == ((Variable) obj).depth &&
+                        slot == ((Variable) obj).slot &&
                         Objects.equals(type, ((Variable) obj).type);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(name, depth, slot);
+            }
+
             @Override
             public String toString() {
                 return "Variable{" +
                         "name='" + name + '\'' +
+                        ", depth=" + depth +
+                        ", slot=" + slot +
                         ", type=" + type +
                         '}';
             }
@@ -393,15 +561,21 @@ public class Ast {
 
             private final String name;
             private final List<Expression> arguments;
+            private final boolean pure;
 
             public Function(String name, List<Expression> arguments) {
                 this(null, name, arguments);
             }
 
             public Function(Stdlib.Type type, String name, List<Expression> arguments) {
+                this(type, name, arguments, false);
+            }
+
+            public Function(Stdlib.Type type, String name, List<Expression> arguments, boolean pure) {
                 super(type);
                 this.name = name;
                 this.arguments = arguments;
+                this.pure = pure;
             }
 
             public String getName() {
@@ -412,19 +586,35 @@ public class Ast {
                 return arguments;
             }
 
+            /**
+             * Returns true if the call was analyzed as a call to a {@link
+             * Stdlib.Function#isPure()} function, and false if it is not or
+             * has not been analyzed.
+             */
+            public boolean isPure() {
+                return pure;
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Function &&
+                return obj == this || obj instanceof Function && hashCode() == obj.hashCode() &&
                         name.equals(((Function) obj).name) &&
                         arguments.equals(((Function) obj).arguments) &&
+                        pure == ((Function) obj).pure &&
                         Objects.equals(type, ((Function) obj).type);
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(name, arguments, pure);
+            }
+
             @Override
             public String toString() {
                 return "Function{" +
                         "name='" + name + '\'' +
                         ", arguments=" + arguments +
+                        ", pure=" + pure +
                         ", type=" + type +
                         '}';
             }
@@ -0,0 +1,108 @@
+package plc.compiler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Creates the {@link Ast} nodes built by the {@link Parser}. The default
+ * factory simply constructs a new node each time.
+ *
+ * The factory returned by {@link #hashConsing()} instead returns a canonical
+ * instance for each distinct expression, so repeated literals, variables and
+ * subexpressions such as {@code x * x} are only allocated once and shared.
+ * Since the children of an expression are already canonical, equal
+ * expressions built by the same factory are the same instance and compare in
+ * constant time, and the structural hash of each one is computed once as it
+ * is created. Statements are never shared, since passes such as the {@link
+ * Resolver} give equal statements at different places different
+ * coordinates, so each statement is a distinct instance at a single place in
+ * the tree. A hash-consing factory holds every expression it has created, so
+ * use one per compilation; it is not thread-safe.
+ */
+public class AstFactory {
+
+    public static final AstFactory DEFAULT = new AstFactory();
+
+    AstFactory() {}
+
+    /**
+     * Returns a new factory which shares equal subtrees.
+     */
+    public static AstFactory hashConsing() {
+        return new HashConsing();
+    }
+
+    public Ast.Source source(List<Ast.Statement> statements) {
+        return create(new Ast.Source(statements));
+    }
+
+    public Ast.Statement.Expression expressionStatement(Ast.Expression expression) {
+        return create(new Ast.Statement.Expression(expression));
+    }
+
+    public Ast.Statement.Declaration declaration(String name, String type, Optional<Ast.Expression> value) {
+        return create(new Ast.Statement.Declaration(name, type, value));
+    }
+
+    public Ast.Statement.Assignment assignment(String name, Ast.Expression expression) {
+        return create(new Ast.Statement.Assignment(name, expression));
+    }
+
+    public Ast.Statement.If ifStatement(Ast.Expression condition, List<Ast.Statement> thenStatements, List<Ast.Statement> elseStatements) {
+        return create(new Ast.Statement.If(condition, thenStatements, elseStatements));
+    }
+
+    public Ast.Statement.While whileStatement(Ast.Expression condition, List<Ast.Statement> statements) {
+        return create(new Ast.Statement.While(condition, statements));
+    }
+
+    public Ast.Expression.Literal literal(Object value) {
+        return create(new Ast.Expression.Literal(value));
+    }
+
+    public Ast.Expression.Group group(Ast.Expression expression) {
+        return create(new Ast.Expression.Group(expression));
+    }
+
+    public Ast.Expression.Binary binary(String operator, Ast.Expression left, Ast.Expression right) {
+        return create(new Ast.Expression.Binary(operator, left, right));
+    }
+
+    public Ast.Expression.Variable variable(String name) {
+        return create(new Ast.Expression.Variable(name));
+    }
+
+    public Ast.Expression.Function function(String name, List<Ast.Expression> arguments) {
+        return create(new Ast.Expression.Function(name, arguments));
+    }
+
+    /**
+     * Returns the node to use in place of the newly constructed node.
+     */
+    <T extends Ast> T create(T ast) {
+        return ast;
+    }
+
+    private static final class HashConsing extends AstFactory {
+
+        private final Map<Ast, Ast> nodes = new HashMap<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        <T extends Ast> T create(T ast) {
+            if (!(ast instanceof Ast.Expression)) {
+                return ast;
+            }
+            Ast canonical = nodes.putIfAbsent(ast, ast);
+            if (canonical == null) {
+                ((Ast.Expression) ast).canonical = true;
+                return ast;
+            }
+            return (T) canonical;
+        }
+
+    }
+
+}
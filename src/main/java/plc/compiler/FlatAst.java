@@ -0,0 +1,524 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A compact encoding of an {@link Ast} as parallel arrays, in the same way
+ * {@link TokenBuffer} stores tokens. Each node is an integer id with a kind,
+ * type, value and a range of child ids, instead of an object holding lists,
+ * optionals and strings.
+ *
+ * <ul>
+ *     <li>Names, operators and declared types are stored as ids of the
+ *     {@link #getSymbols()} table of the encoding.</li>
+ *     <li>Literal values and expression types are stored once each in a
+ *     constant and type table, and referenced by index.</li>
+ *     <li>The children of a node are a contiguous range of the edge array.
+ *     For an if statement the condition is followed by the then statements
+ *     and then the else statements; the number of then statements is kept
+ *     as the value of the node.</li>
+ * </ul>
+ *
+ * Nodes are stored children first, so the root is the last node. The
+ * accessors below act as a cursor over the nodes, and {@link #accept(int,
+ * Ast.Visitor)} runs an existing visitor over any subtree by decoding only
+ * that subtree, for example one statement at a time. The coordinates assigned
+ * by the {@link Resolver} are not encoded.
+ *
+ * A tree is either encoded from an {@link Ast} by {@link #encode(Ast)}, or
+ * parsed straight into the arrays through the {@link #builder()} factory
+ * without building the {@link Ast} at all. Encoding and decoding use explicit
+ * stacks, so they handle trees nested as deeply as {@link
+ * Parser#iterative(List)} parses.
+ */
+public final class FlatAst {
+
+    public enum Kind {
+        SOURCE, EXPRESSION_STATEMENT, DECLARATION, ASSIGNMENT, IF, WHILE,
+        LITERAL, GROUP, BINARY, VARIABLE, FUNCTION
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private int[] types = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int[] firsts = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private int[] edges = new int[INITIAL_CAPACITY];
+    private int edgeCount = 0;
+
+    private final Symbols symbols = Symbols.compilation();
+    private final ArrayList<Object> constants = new ArrayList<>();
+    private final List<Stdlib.Type> typeTable = new ArrayList<>();
+
+    /**
+     * Only used while encoding, holding the ids of children which have been
+     * encoded but not yet attached to their parent.
+     */
+    private int[] pending = new int[INITIAL_CAPACITY];
+    private int pendingCount = 0;
+    private Map<Object, Integer> constantIndices = new HashMap<>();
+    private Map<Stdlib.Type, Integer> typeIndices = new IdentityHashMap<>();
+
+    private FlatAst() {}
+
+    /**
+     * Encodes the tree, which may be a whole source or any single node.
+     */
+    public static FlatAst encode(Ast ast) {
+        FlatAst flat = new FlatAst();
+        flat.add(ast);
+        flat.trim();
+        return flat;
+    }
+
+    /**
+     * Drops the encoding state and shrinks the arrays to their contents.
+     */
+    private void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        types = Arrays.copyOf(types, size);
+        values = Arrays.copyOf(values, size);
+        firsts = Arrays.copyOf(firsts, size);
+        counts = Arrays.copyOf(counts, size);
+        edges = Arrays.copyOf(edges, edgeCount);
+        constants.trimToSize();
+        pending = null;
+        constantIndices = null;
+        typeIndices = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRoot() {
+        return size - 1;
+    }
+
+    /**
+     * Returns the table of the symbol ids of names, operators and declared
+     * types.
+     */
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kinds[check(node)]];
+    }
+
+    /**
+     * Returns the type of an expression node, or {@code null} if it has not
+     * been analyzed or the node is a statement.
+     */
+    public Stdlib.Type getType(int node) {
+        int type = types[check(node)];
+        return type < 0 ? null : typeTable.get(type);
+    }
+
+    /**
+     * Returns the symbol id of the name of a declaration, assignment,
+     * variable or function node.
+     */
+    public int getSymbol(int node) {
+        return values[check(node)];
+    }
+
+    public String getName(int node) {
+        return symbols.name(getSymbol(node));
+    }
+
+    public String getOperator(int node) {
+        return symbols.name(values[check(node)]);
+    }
+
+    /**
+     * Returns the type name of a declaration node, which is kept in place of
+     * an expression type.
+     */
+    public String getDeclaredType(int node) {
+        return symbols.name(types[check(node)]);
+    }
+
+    public Object getValue(int node) {
+        return constants.get(values[check(node)]);
+    }
+
+    public int getChildCount(int node) {
+        return counts[check(node)];
+    }
+
+    public int getChild(int node, int index) {
+        if (index < 0 || index >= counts[check(node)]) {
+            throw new IndexOutOfBoundsException("Child " + index + " out of bounds for " + counts[node] + " children.");
+        }
+        return edges[firsts[node] + index];
+    }
+
+    /**
+     * Returns the number of then statements of an if node, which follow the
+     * condition as children.
+     */
+    public int getThenCount(int node) {
+        return values[check(node)];
+    }
+
+    /**
+     * Decodes the subtree rooted at the node back into {@link Ast} objects.
+     * Like encoding, decoding uses an explicit stack rather than recursion.
+     */
+    public Ast get(int node) {
+        check(node);
+        int[] stack = new int[16];
+        boolean[] expanded = new boolean[16];
+        int depth = 0;
+        stack[depth++] = node;
+        List<Ast> decoded = new ArrayList<>();
+        while (depth > 0) {
+            int current = stack[--depth];
+            if (expanded[depth]) {
+                List<Ast> children = decoded.subList(decoded.size() - counts[current], decoded.size());
+                Ast ast = decode(current, children);
+                children.clear();
+                decoded.add(ast);
+                continue;
+            }
+            if (depth + 1 + counts[current] > stack.length) {
+                int capacity = Math.max(2 * stack.length, depth + 1 + counts[current]);
+                stack = Arrays.copyOf(stack, capacity);
+                expanded = Arrays.copyOf(expanded, capacity);
+            }
+            expanded[depth] = true;
+            stack[depth++] = current;
+            for (int i = counts[current] - 1; i >= 0; i--) {
+                expanded[depth] = false;
+                stack[depth++] = edges[firsts[current] + i];
+            }
+        }
+        return decoded.get(0);
+    }
+
+    /**
+     * Visits the subtree rooted at the node, which is decoded for the visit.
+     */
+    public <T> T accept(int node, Ast.Visitor<T> visitor) {
+        return visitor.visit(get(node));
+    }
+
+    /**
+     * Returns a factory which encodes each node as the {@link Parser}
+     * creates it, for parsing straight into a flat tree. See {@link
+     * Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Parses the tokens, without recursion, straight into a flat tree.
+     */
+    public static FlatAst parse(List<Token> tokens) throws ParseException {
+        Builder builder = builder();
+        Parser.iterative(tokens, builder).parseSource();
+        return builder.build();
+    }
+
+    /**
+     * Returns the node of the kind with its decoded children.
+     */
+    @SuppressWarnings("unchecked")
+    private Ast decode(int node, List<Ast> children) {
+        switch (getKind(node)) {
+            case SOURCE:
+                return new Ast.Source(new ArrayList<>((List<Ast.Statement>) (List<?>) children));
+            case EXPRESSION_STATEMENT:
+                return new Ast.Statement.Expression((Ast.Expression) children.get(0));
+            case DECLARATION:
+                return new Ast.Statement.Declaration(getName(node), getDeclaredType(node),
+                        children.isEmpty() ? Optional.empty() : Optional.of((Ast.Expression) children.get(0)));
+            case ASSIGNMENT:
+                return new Ast.Statement.Assignment(getName(node), (Ast.Expression) children.get(0));
+            case IF:
+                return new Ast.Statement.If((Ast.Expression) children.get(0),
+                        new ArrayList<>((List<Ast.Statement>) (List<?>) children.subList(1, 1 + values[node])),
+                        new ArrayList<>((List<Ast.Statement>) (List<?>) children.subList(1 + values[node], children.size())));
+            case WHILE:
+                return new Ast.Statement.While((Ast.Expression) children.get(0),
+                        new ArrayList<>((List<Ast.Statement>) (List<?>) children.subList(1, children.size())));
+            case LITERAL:
+                return new Ast.Expression.Literal(getType(node), getValue(node));
+            case GROUP:
+                return new Ast.Expression.Group(getType(node), (Ast.Expression) children.get(0));
+            case BINARY:
+                return new Ast.Expression.Binary(getType(node), getOperator(node),
+                        (Ast.Expression) children.get(0), (Ast.Expression) children.get(1));
+            case VARIABLE:
+                return new Ast.Expression.Variable(getType(node), getName(node));
+            case FUNCTION:
+                return new Ast.Expression.Function(getType(node), getName(node),
+                        new ArrayList<>((List<Ast.Expression>) (List<?>) children));
+            default:
+                throw new AssertionError(getKind(node));
+        }
+    }
+
+    /**
+     * Encodes the tree after its children, in post-order with an explicit
+     * stack so that deeply nested trees do not overflow the call stack. Each
+     * node is pushed once to push its children, and again beneath them to
+     * be encoded once they have been.
+     */
+    private void add(Ast root) {
+        Ast[] stack = new Ast[16];
+        boolean[] expanded = new boolean[16];
+        int depth = 0;
+        stack[depth++] = root;
+        while (depth > 0) {
+            Ast ast = stack[--depth];
+            stack[depth] = null;
+            if (expanded[depth]) {
+                node(ast);
+                continue;
+            }
+            List<Ast> children = children(ast);
+            if (depth + 1 + children.size() > stack.length) {
+                int capacity = Math.max(2 * stack.length, depth + 1 + children.size());
+                stack = Arrays.copyOf(stack, capacity);
+                expanded = Arrays.copyOf(expanded, capacity);
+            }
+            expanded[depth] = true;
+            stack[depth++] = ast;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                expanded[depth] = false;
+                stack[depth++] = children.get(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the children of the node in the order they are encoded.
+     */
+    private static List<Ast> children(Ast ast) {
+        List<Ast> children = new ArrayList<>();
+        if (ast instanceof Ast.Source) {
+            children.addAll(((Ast.Source) ast).getStatements());
+        } else if (ast instanceof Ast.Statement.Expression) {
+            children.add(((Ast.Statement.Expression) ast).getExpression());
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            ((Ast.Statement.Declaration) ast).getValue().ifPresent(children::add);
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            children.add(((Ast.Statement.Assignment) ast).getExpression());
+        } else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            children.add(statement.getCondition());
+            children.addAll(statement.getThenStatements());
+            children.addAll(statement.getElseStatements());
+        } else if (ast instanceof Ast.Statement.While) {
+            Ast.Statement.While statement = (Ast.Statement.While) ast;
+            children.add(statement.getCondition());
+            children.addAll(statement.getStatements());
+        } else if (ast instanceof Ast.Expression.Group) {
+            children.add(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Binary) {
+            children.add(((Ast.Expression.Binary) ast).getLeft());
+            children.add(((Ast.Expression.Binary) ast).getRight());
+        } else if (ast instanceof Ast.Expression.Function) {
+            children.addAll(((Ast.Expression.Function) ast).getArguments());
+        }
+        return children;
+    }
+
+    /**
+     * Encodes the node, whose children must be the last pending nodes,
+     * returning its id.
+     */
+    private int node(Ast ast) {
+        if (ast instanceof Ast.Source) {
+            return node(Kind.SOURCE, -1, 0, ((Ast.Source) ast).getStatements().size());
+        } else if (ast instanceof Ast.Statement.Expression) {
+            return node(Kind.EXPRESSION_STATEMENT, -1, 0, 1);
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+            return node(Kind.DECLARATION, symbols.intern(declaration.getType()), symbols.intern(declaration.getName()),
+                    declaration.getValue().isPresent() ? 1 : 0);
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            return node(Kind.ASSIGNMENT, -1, symbols.intern(((Ast.Statement.Assignment) ast).getName()), 1);
+        } else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            return node(Kind.IF, -1, statement.getThenStatements().size(),
+                    1 + statement.getThenStatements().size() + statement.getElseStatements().size());
+        } else if (ast instanceof Ast.Statement.While) {
+            return node(Kind.WHILE, -1, 0, 1 + ((Ast.Statement.While) ast).getStatements().size());
+        } else if (ast instanceof Ast.Expression.Literal) {
+            Ast.Expression.Literal literal = (Ast.Expression.Literal) ast;
+            return node(Kind.LITERAL, type(literal), constant(literal.getValue()), 0);
+        } else if (ast instanceof Ast.Expression.Group) {
+            return node(Kind.GROUP, type((Ast.Expression) ast), 0, 1);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            return node(Kind.BINARY, type(binary), symbols.intern(binary.getOperator()), 2);
+        } else if (ast instanceof Ast.Expression.Variable) {
+            Ast.Expression.Variable variable = (Ast.Expression.Variable) ast;
+            return node(Kind.VARIABLE, type(variable), symbols.intern(variable.getName()), 0);
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            return node(Kind.FUNCTION, type(function), symbols.intern(function.getName()), function.getArguments().size());
+        }
+        throw new AssertionError(ast.getClass());
+    }
+
+    /**
+     * Appends a node whose children are the last given number of pending
+     * nodes, and leaves the new node pending for its parent.
+     */
+    private int node(Kind kind, int type, int value, int count) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, 2 * size);
+            types = Arrays.copyOf(types, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+            firsts = Arrays.copyOf(firsts, 2 * size);
+            counts = Arrays.copyOf(counts, 2 * size);
+        }
+        if (edgeCount + count > edges.length) {
+            edges = Arrays.copyOf(edges, Math.max(2 * edges.length, edgeCount + count));
+        }
+        pendingCount -= count;
+        System.arraycopy(pending, pendingCount, edges, edgeCount, count);
+        kinds[size] = (byte) kind.ordinal();
+        types[size] = type;
+        values[size] = value;
+        firsts[size] = edgeCount;
+        counts[size] = count;
+        edgeCount += count;
+        pend(size);
+        return size++;
+    }
+
+    private void pend(int node) {
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, 2 * pendingCount);
+        }
+        pending[pendingCount++] = node;
+    }
+
+    private int type(Ast.Expression expression) {
+        Stdlib.Type type = expression.type;
+        if (type == null) {
+            return -1;
+        }
+        Integer index = typeIndices.get(type);
+        if (index == null) {
+            index = typeTable.size();
+            typeTable.add(type);
+            typeIndices.put(type, index);
+        }
+        return index;
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        return index;
+    }
+
+    private int check(int node) {
+        if (node < 0 || node >= size) {
+            throw new IndexOutOfBoundsException("Node " + node + " out of bounds for size " + size + ".");
+        }
+        return node;
+    }
+
+    /**
+     * An {@link AstFactory} which encodes each node as it is created, so the
+     * {@link Parser} emits straight into a flat tree without building the
+     * {@link Ast} first. The children of a node are always created before it,
+     * which is the order nodes are stored in, and the last node created is
+     * the root.
+     *
+     * The nodes returned to the parser are stand-ins which keep the fields of
+     * the node but not its children, mapped to the id they were encoded as
+     * until they are passed to their parent. Only the nodes not yet attached
+     * to a parent are held, so the tree is never built. A builder is used for
+     * a single parse and is not thread-safe.
+     */
+    public static final class Builder extends AstFactory {
+
+        private static final Ast.Expression HOLE = new Ast.Expression.Variable("");
+
+        private final FlatAst flat = new FlatAst();
+        private final Map<Ast, Integer> ids = new IdentityHashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Returns the flat tree of the nodes created so far, whose root is
+         * the last one. The builder may not be used afterwards.
+         */
+        public FlatAst build() {
+            ids.clear();
+            flat.trim();
+            return flat;
+        }
+
+        @Override
+        <T extends Ast> T create(T ast) {
+            for (Ast child : children(ast)) {
+                Integer id = ids.remove(child);
+                if (id == null) {
+                    throw new IllegalArgumentException("The node " + child + " was not created by this builder, or already has a parent.");
+                }
+                flat.pend(id);
+            }
+            int id = flat.node(ast);
+            flat.pendingCount--;
+            T standIn = standIn(ast);
+            ids.put(standIn, id);
+            return standIn;
+        }
+
+        /**
+         * Returns a node like the given one, with holes for its children.
+         */
+        @SuppressWarnings("unchecked")
+        private static <T extends Ast> T standIn(T ast) {
+            if (ast instanceof Ast.Statement.Expression) {
+                return (T) new Ast.Statement.Expression(HOLE);
+            } else if (ast instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+                return (T) new Ast.Statement.Declaration(declaration.getName(), declaration.getType(),
+                        declaration.getValue().map(value -> HOLE));
+            } else if (ast instanceof Ast.Statement.Assignment) {
+                return (T) new Ast.Statement.Assignment(((Ast.Statement.Assignment) ast).getName(), HOLE);
+            } else if (ast instanceof Ast.Statement.If) {
+                return (T) new Ast.Statement.If(HOLE, Collections.emptyList(), Collections.emptyList());
+            } else if (ast instanceof Ast.Statement.While) {
+                return (T) new Ast.Statement.While(HOLE, Collections.emptyList());
+            } else if (ast instanceof Ast.Expression.Group) {
+                return (T) new Ast.Expression.Group(HOLE);
+            } else if (ast instanceof Ast.Expression.Binary) {
+                return (T) new Ast.Expression.Binary(((Ast.Expression.Binary) ast).getOperator(), HOLE, HOLE);
+            } else if (ast instanceof Ast.Expression.Function) {
+                return (T) new Ast.Expression.Function(((Ast.Expression.Function) ast).getName(), Collections.emptyList());
+            }
+            return ast;
+        }
+
+    }
+
+}
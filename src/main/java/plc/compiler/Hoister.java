@@ -0,0 +1,616 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Hoists repeated computations of the typed tree copied by the {@link
+ * Analyzer} into compiler generated temporaries, returning nodes which do not
+ * change as is. Temporaries are declared as {@code $0}, {@code $1} and so on,
+ * which the {@link Lexer} never produces as identifiers, so they cannot clash
+ * with variables of the program.
+ *
+ * Common subexpressions are found in straight-line regions, the runs of
+ * expression, declaration and assignment statements between ifs and whiles,
+ * whose blocks are regions of their own. A binary expression or a call to a
+ * {@link Ast.Expression.Function#isPure()} function with a value, built only
+ * from such expressions, groups, variables and literals, is pure, and
+ * occurrences of an equal expression compute the same value until one of its
+ * variables is assigned, with the occurrences in the value of that assignment
+ * still included. Where a pure expression occurs more than once in such a
+ * range, it is declared in a temporary just before the statement of its
+ * first occurrence, and every occurrence is replaced by the temporary. An
+ * expression dividing integers may throw, so it is only shared if its first
+ * occurrence is evaluated before any call of its statement, whose side
+ * effects must happen before it throws. The largest expressions are hoisted
+ * first, so a repeated part of a hoisted expression is only hoisted if it
+ * also occurs elsewhere.
+ *
+ * Loop invariants are hoisted out of each while, innermost first, before
+ * common subexpressions are eliminated. An expression of the condition or
+ * body is invariant if it is pure and none of its variables are assigned or
+ * declared anywhere in the body. The largest invariant expressions reading a
+ * variable are declared in temporaries just before the while, and replaced
+ * by them throughout the loop. Integer division throws on a zero divisor, so
+ * expressions dividing integers are only hoisted from the condition, which
+ * always runs before the rest of the loop, where they are evaluated before
+ * any call, and not from a body which may never run.
+ *
+ * Calls are never hoisted out of loops, since a loop which never runs must
+ * not call anything, so only common calls in straight-line regions are
+ * shared.
+ */
+public final class Hoister implements Ast.Visitor<Ast> {
+
+    private static final int VARIANT = 1;
+    private static final int READS = 2;
+    private static final int THROWS = 4;
+
+    private int temporaries = 0;
+
+    @Override
+    public Ast.Source visit(Ast.Source ast) {
+        List<Ast.Statement> statements = visitAll(hoistAll(ast.getStatements()));
+        return statements == ast.getStatements() ? ast : new Ast.Source(statements);
+    }
+
+    @Override
+    public Ast.Statement.Expression visit(Ast.Statement.Expression ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Statement.Declaration visit(Ast.Statement.Declaration ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Statement.Assignment visit(Ast.Statement.Assignment ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Statement.If visit(Ast.Statement.If ast) {
+        List<Ast.Statement> thenStatements = visitAll(ast.getThenStatements());
+        List<Ast.Statement> elseStatements = visitAll(ast.getElseStatements());
+        if (thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.If(ast.getCondition(), thenStatements, elseStatements);
+    }
+
+    @Override
+    public Ast.Statement.While visit(Ast.Statement.While ast) {
+        List<Ast.Statement> statements = visitAll(ast.getStatements());
+        return statements == ast.getStatements() ? ast : new Ast.Statement.While(ast.getCondition(), statements);
+    }
+
+    @Override
+    public Ast.Expression.Literal visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression.Group visit(Ast.Expression.Group ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression.Binary visit(Ast.Expression.Binary ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression.Variable visit(Ast.Expression.Variable ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression.Function visit(Ast.Expression.Function ast) {
+        return ast;
+    }
+
+    /**
+     * Visits the blocks of the statements and eliminates common
+     * subexpressions in each straight-line region, returning the same list
+     * if nothing changed.
+     */
+    private List<Ast.Statement> visitAll(List<Ast.Statement> statements) {
+        List<Ast.Statement> visited = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = (Ast.Statement) visit(statements.get(i));
+            if (statement != statements.get(i) && visited == statements) {
+                visited = new ArrayList<>(statements);
+            }
+            if (visited != statements) {
+                visited.set(i, statement);
+            }
+        }
+        List<Ast.Statement> hoisted = null;
+        int start = 0;
+        for (int i = 0; i <= visited.size(); i++) {
+            if (i == visited.size() || visited.get(i) instanceof Ast.Statement.If || visited.get(i) instanceof Ast.Statement.While) {
+                List<Ast.Statement> region = eliminate(visited.subList(start, i));
+                if (region != null && hoisted == null) {
+                    hoisted = new ArrayList<>(visited.subList(0, start));
+                }
+                if (hoisted != null) {
+                    hoisted.addAll(region != null ? region : visited.subList(start, i));
+                    if (i < visited.size()) {
+                        hoisted.add(visited.get(i));
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        return hoisted != null ? hoisted : visited;
+    }
+
+    /**
+     * Hoists the invariants of each while in the statements in front of it,
+     * innermost first, returning the same list if there are none.
+     */
+    private List<Ast.Statement> hoistAll(List<Ast.Statement> statements) {
+        List<Ast.Statement> hoisted = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            List<Ast.Statement> preheader = null;
+            if (statement instanceof Ast.Statement.If) {
+                Ast.Statement.If ast = (Ast.Statement.If) statement;
+                List<Ast.Statement> thenStatements = hoistAll(ast.getThenStatements());
+                List<Ast.Statement> elseStatements = hoistAll(ast.getElseStatements());
+                if (thenStatements != ast.getThenStatements() || elseStatements != ast.getElseStatements()) {
+                    statement = new Ast.Statement.If(ast.getCondition(), thenStatements, elseStatements);
+                }
+            } else if (statement instanceof Ast.Statement.While) {
+                Ast.Statement.While ast = (Ast.Statement.While) statement;
+                List<Ast.Statement> body = hoistAll(ast.getStatements());
+                preheader = new ArrayList<>();
+                statement = hoist(body == ast.getStatements() ? ast : new Ast.Statement.While(ast.getCondition(), body), preheader);
+            }
+            boolean hoisting = preheader != null && !preheader.isEmpty();
+            if ((statement != statements.get(i) || hoisting) && hoisted == statements) {
+                hoisted = new ArrayList<>(statements.subList(0, i));
+            }
+            if (hoisted != statements) {
+                if (hoisting) {
+                    hoisted.addAll(preheader);
+                }
+                hoisted.add(statement);
+            }
+        }
+        return hoisted;
+    }
+
+    /**
+     * Returns the loop with its invariant expressions replaced by
+     * temporaries, adding their declarations to the preheader in the order
+     * they are first evaluated.
+     */
+    private Ast.Statement.While hoist(Ast.Statement.While ast, List<Ast.Statement> preheader) {
+        Set<String> assigned = new HashSet<>();
+        assigned(ast.getStatements(), assigned);
+        Map<Ast.Expression, Ast.Expression.Variable> invariants = new LinkedHashMap<>();
+        Ast.Expression condition = hoist(ast.getCondition(), true, assigned, invariants);
+        List<Ast.Statement> statements = hoist(ast.getStatements(), assigned, invariants);
+        for (Map.Entry<Ast.Expression, Ast.Expression.Variable> entry : invariants.entrySet()) {
+            preheader.add(new Ast.Statement.Declaration(entry.getValue().getName(),
+                    entry.getKey().getType().getJvmName(), Optional.of(entry.getKey())));
+        }
+        if (condition == ast.getCondition() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.While(condition, statements);
+    }
+
+    private List<Ast.Statement> hoist(List<Ast.Statement> statements, Set<String> assigned, Map<Ast.Expression, Ast.Expression.Variable> invariants) {
+        List<Ast.Statement> hoisted = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = hoist(statements.get(i), assigned, invariants);
+            if (statement != statements.get(i) && hoisted == statements) {
+                hoisted = new ArrayList<>(statements.subList(0, i));
+            }
+            if (hoisted != statements && statement != null) {
+                hoisted.add(statement);
+            }
+        }
+        return hoisted;
+    }
+
+    /**
+     * Returns the statement with its invariants replaced, or null if it is
+     * the declaration of an invariant temporary, such as of an inner loop,
+     * which is moved in front of the loop as it is. Its variable is then
+     * invariant as well.
+     */
+    private Ast.Statement hoist(Ast.Statement ast, Set<String> assigned, Map<Ast.Expression, Ast.Expression.Variable> invariants) {
+        if (ast instanceof Ast.Statement.Declaration && isTemporary((Ast.Statement.Declaration) ast)) {
+            Ast.Expression value = ((Ast.Statement.Declaration) ast).getValue().get();
+            if (value instanceof Ast.Expression.Binary && classify(value, assigned) == READS && !invariants.containsKey(value)) {
+                String name = ((Ast.Statement.Declaration) ast).getName();
+                invariants.put(value, new Ast.Expression.Variable(value.getType(), name));
+                assigned.remove(name);
+                return null;
+            }
+        }
+        if (ast instanceof Ast.Statement.Expression) {
+            Ast.Expression expression = hoist(((Ast.Statement.Expression) ast).getExpression(), false, assigned, invariants);
+            return expression == ((Ast.Statement.Expression) ast).getExpression() ? ast : new Ast.Statement.Expression(expression);
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+            if (!declaration.getValue().isPresent()) {
+                return ast;
+            }
+            Ast.Expression expression = hoist(declaration.getValue().get(), false, assigned, invariants);
+            return expression == declaration.getValue().get() ? ast : new Ast.Statement.Declaration(declaration.getName(),
+                    declaration.getType(), Optional.of(expression), declaration.getDepth(), declaration.getSlot());
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) ast;
+            Ast.Expression expression = hoist(assignment.getExpression(), false, assigned, invariants);
+            return expression == assignment.getExpression() ? ast : new Ast.Statement.Assignment(assignment.getName(),
+                    expression, assignment.getDepth(), assignment.getSlot());
+        } else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            Ast.Expression condition = hoist(statement.getCondition(), false, assigned, invariants);
+            List<Ast.Statement> thenStatements = hoist(statement.getThenStatements(), assigned, invariants);
+            List<Ast.Statement> elseStatements = hoist(statement.getElseStatements(), assigned, invariants);
+            if (condition == statement.getCondition() && thenStatements == statement.getThenStatements() && elseStatements == statement.getElseStatements()) {
+                return ast;
+            }
+            return new Ast.Statement.If(condition, thenStatements, elseStatements);
+        } else {
+            Ast.Statement.While statement = (Ast.Statement.While) ast;
+            Ast.Expression condition = hoist(statement.getCondition(), false, assigned, invariants);
+            List<Ast.Statement> statements = hoist(statement.getStatements(), assigned, invariants);
+            if (condition == statement.getCondition() && statements == statement.getStatements()) {
+                return ast;
+            }
+            return new Ast.Statement.While(condition, statements);
+        }
+    }
+
+    /**
+     * Replaces the largest invariant binary expressions reading a variable
+     * with temporaries. The condition of the loop is evaluated before
+     * anything else on every iteration, including the first, so its
+     * invariants may be evaluated once before the loop in the same order even
+     * if they may throw, as long as the condition evaluates them before any
+     * call, whose side effects must happen before they throw. The rest of the
+     * loop may not run at all, so only invariants which cannot throw are
+     * hoisted from it, unless the condition already evaluates them.
+     */
+    private Ast.Expression hoist(Ast.Expression ast, boolean condition, Set<String> assigned, Map<Ast.Expression, Ast.Expression.Variable> invariants) {
+        if (ast instanceof Ast.Expression.Binary) {
+            int flags = classify(ast, assigned);
+            if ((flags & (VARIANT | READS)) == READS) {
+                Ast.Expression.Variable temporary = invariants.get(ast);
+                if (temporary == null && (condition || (flags & THROWS) == 0)) {
+                    temporary = new Ast.Expression.Variable(ast.getType(), "$" + temporaries++);
+                    invariants.put(ast, temporary);
+                }
+                if (temporary != null) {
+                    return temporary;
+                }
+            }
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            Ast.Expression left = hoist(binary.getLeft(), condition, assigned, invariants);
+            Ast.Expression right = hoist(binary.getRight(), condition && !calls(binary.getLeft()), assigned, invariants);
+            return left == binary.getLeft() && right == binary.getRight() ? ast
+                    : new Ast.Expression.Binary(ast.type, binary.getOperator(), left, right);
+        } else if (ast instanceof Ast.Expression.Group) {
+            Ast.Expression expression = hoist(((Ast.Expression.Group) ast).getExpression(), condition, assigned, invariants);
+            return expression instanceof Ast.Expression.Variable && expression != ((Ast.Expression.Group) ast).getExpression() ? expression
+                    : expression == ((Ast.Expression.Group) ast).getExpression() ? ast : new Ast.Expression.Group(ast.type, expression);
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            List<Ast.Expression> arguments = new ArrayList<>(function.getArguments().size());
+            boolean changed = false;
+            for (Ast.Expression argument : function.getArguments()) {
+                Ast.Expression hoisted = hoist(argument, condition, assigned, invariants);
+                changed |= hoisted != argument;
+                arguments.add(hoisted);
+                condition &= !calls(argument);
+            }
+            return changed ? new Ast.Expression.Function(ast.type, function.getName(), arguments, function.isPure()) : ast;
+        }
+        return ast;
+    }
+
+    /**
+     * Returns whether the expression is {@link #VARIANT} in the loop,
+     * {@link #READS} a variable, and {@link #THROWS} on some operands.
+     */
+    private static int classify(Ast.Expression ast, Set<String> assigned) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return 0;
+        } else if (ast instanceof Ast.Expression.Variable) {
+            return assigned.contains(((Ast.Expression.Variable) ast).getName()) ? VARIANT | READS : READS;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return classify(((Ast.Expression.Group) ast).getExpression(), assigned);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            int flags = classify(binary.getLeft(), assigned) | classify(binary.getRight(), assigned);
+            if (ast.type == null) {
+                flags |= VARIANT;
+            } else if (ast.type == Stdlib.Type.INTEGER && binary.getOperator().equals("/")) {
+                flags |= THROWS;
+            }
+            return flags;
+        } else if (ast instanceof Ast.Expression.Function) {
+            int flags = VARIANT;
+            for (Ast.Expression argument : ((Ast.Expression.Function) ast).getArguments()) {
+                flags |= classify(argument, assigned) & THROWS;
+            }
+            return flags;
+        }
+        return VARIANT;
+    }
+
+    /**
+     * Returns true if evaluating the expression calls a function.
+     */
+    private static boolean calls(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Group) {
+            return calls(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Binary) {
+            return calls(((Ast.Expression.Binary) ast).getLeft()) || calls(((Ast.Expression.Binary) ast).getRight());
+        }
+        return ast instanceof Ast.Expression.Function;
+    }
+
+    /**
+     * Adds the names assigned or declared anywhere in the statements,
+     * including nested blocks.
+     */
+    private static void assigned(List<Ast.Statement> statements, Set<String> names) {
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.Assignment) {
+                names.add(((Ast.Statement.Assignment) statement).getName());
+            } else if (statement instanceof Ast.Statement.Declaration) {
+                names.add(((Ast.Statement.Declaration) statement).getName());
+            } else if (statement instanceof Ast.Statement.If) {
+                assigned(((Ast.Statement.If) statement).getThenStatements(), names);
+                assigned(((Ast.Statement.If) statement).getElseStatements(), names);
+            } else if (statement instanceof Ast.Statement.While) {
+                assigned(((Ast.Statement.While) statement).getStatements(), names);
+            }
+        }
+    }
+
+    /**
+     * Returns the statements of a straight-line region with common
+     * subexpressions hoisted, or null if there are none. Each round hoists
+     * the largest expression occurring more than once within a range, until
+     * no expression does. If the range already declares a temporary for the
+     * expression, such as for a loop invariant, that declaration is moved to
+     * the first occurrence instead of copying it into another temporary.
+     */
+    private List<Ast.Statement> eliminate(List<Ast.Statement> region) {
+        List<Ast.Statement> statements = null;
+        for (Range range = largest(region); range != null; range = largest(statements)) {
+            if (statements == null) {
+                statements = new ArrayList<>(region);
+            }
+            int last = range.last;
+            String name = null;
+            for (int i = range.first; i <= last && name == null; i++) {
+                if (statements.get(i) instanceof Ast.Statement.Declaration && isTemporary((Ast.Statement.Declaration) statements.get(i))
+                        && ((Ast.Statement.Declaration) statements.get(i)).getValue().get().equals(range.expression)) {
+                    name = ((Ast.Statement.Declaration) statements.remove(i)).getName();
+                    last--;
+                }
+            }
+            Ast.Expression.Variable temporary = new Ast.Expression.Variable(range.expression.getType(), name != null ? name : "$" + temporaries++);
+            for (int i = range.first; i <= last; i++) {
+                statements.set(i, replace(statements.get(i), range.expression, temporary));
+            }
+            statements.add(range.first, new Ast.Statement.Declaration(temporary.getName(),
+                    range.expression.getType().getJvmName(), Optional.of(range.expression)));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns true if the declaration is of a temporary, which is never
+     * assigned and so may be declared earlier.
+     */
+    private static boolean isTemporary(Ast.Statement.Declaration ast) {
+        return ast.getName().startsWith("$") && ast.getValue().isPresent();
+    }
+
+    /**
+     * Returns the range of the largest pure expression occurring more than
+     * once before one of its variables is assigned, or null if there is none.
+     */
+    private static Range largest(List<Ast.Statement> statements) {
+        Map<Ast.Expression, Range> live = new LinkedHashMap<>();
+        Range largest = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            String assigned = null;
+            if (statement instanceof Ast.Statement.Expression) {
+                count(((Ast.Statement.Expression) statement).getExpression(), i, true, live);
+            } else if (statement instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) statement;
+                if (declaration.getValue().isPresent()) {
+                    count(declaration.getValue().get(), i, true, live);
+                }
+                assigned = declaration.getName();
+            } else if (statement instanceof Ast.Statement.Assignment) {
+                count(((Ast.Statement.Assignment) statement).getExpression(), i, true, live);
+                assigned = ((Ast.Statement.Assignment) statement).getName();
+            }
+            if (assigned != null) {
+                for (Iterator<Range> iterator = live.values().iterator(); iterator.hasNext(); ) {
+                    Range range = iterator.next();
+                    if (reads(range.expression, assigned)) {
+                        largest = Range.larger(largest, range);
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        for (Range range : live.values()) {
+            largest = Range.larger(largest, range);
+        }
+        return largest;
+    }
+
+    /**
+     * Counts the pure binary expressions and calls in the expression,
+     * returning its size, or -1 if it is not pure. The expression is
+     * evaluated before any call of the statement if it is ordered.
+     */
+    private static int count(Ast.Expression ast, int statement, boolean ordered, Map<Ast.Expression, Range> live) {
+        if (ast instanceof Ast.Expression.Literal || ast instanceof Ast.Expression.Variable) {
+            return 1;
+        } else if (ast instanceof Ast.Expression.Group) {
+            int size = count(((Ast.Expression.Group) ast).getExpression(), statement, ordered, live);
+            return size < 0 ? -1 : size + 1;
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            int left = count(binary.getLeft(), statement, ordered, live);
+            int right = count(binary.getRight(), statement, ordered && !calls(binary.getLeft()), live);
+            if (left < 0 || right < 0 || ast.type == null) {
+                return -1;
+            }
+            return occurs(ast, left + right + 1, statement, ordered, live);
+        } else {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            boolean pure = function.isPure() && ast.type != null && ast.type != Stdlib.Type.VOID;
+            int size = 1;
+            for (Ast.Expression argument : function.getArguments()) {
+                int argumentSize = count(argument, statement, ordered, live);
+                pure &= argumentSize >= 0;
+                size += argumentSize;
+                ordered &= !calls(argument);
+            }
+            return pure ? occurs(ast, size, statement, ordered, live) : -1;
+        }
+    }
+
+    /**
+     * Counts an occurrence of the pure expression, returning its size. It may
+     * only be shared if it cannot throw, or its first occurrence is evaluated
+     * before any call of its statement.
+     */
+    private static int occurs(Ast.Expression ast, int size, int statement, boolean ordered, Map<Ast.Expression, Range> live) {
+        Range range = live.computeIfAbsent(ast, expression -> new Range(expression, size, statement,
+                ordered || (classify(expression, Collections.emptySet()) & THROWS) == 0));
+        range.count++;
+        range.last = statement;
+        return size;
+    }
+
+    /**
+     * Returns true if the pure expression reads the variable.
+     */
+    private static boolean reads(Ast.Expression ast, String name) {
+        if (ast instanceof Ast.Expression.Variable) {
+            return ((Ast.Expression.Variable) ast).getName().equals(name);
+        } else if (ast instanceof Ast.Expression.Group) {
+            return reads(((Ast.Expression.Group) ast).getExpression(), name);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            return reads(((Ast.Expression.Binary) ast).getLeft(), name) || reads(((Ast.Expression.Binary) ast).getRight(), name);
+        } else if (ast instanceof Ast.Expression.Function) {
+            for (Ast.Expression argument : ((Ast.Expression.Function) ast).getArguments()) {
+                if (reads(argument, name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Ast.Statement replace(Ast.Statement ast, Ast.Expression target, Ast.Expression.Variable temporary) {
+        if (ast instanceof Ast.Statement.Expression) {
+            Ast.Expression expression = replace(((Ast.Statement.Expression) ast).getExpression(), target, temporary);
+            return expression == ((Ast.Statement.Expression) ast).getExpression() ? ast : new Ast.Statement.Expression(expression);
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+            if (!declaration.getValue().isPresent()) {
+                return ast;
+            }
+            Ast.Expression expression = replace(declaration.getValue().get(), target, temporary);
+            return expression == declaration.getValue().get() ? ast : new Ast.Statement.Declaration(declaration.getName(),
+                    declaration.getType(), Optional.of(expression), declaration.getDepth(), declaration.getSlot());
+        } else {
+            Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) ast;
+            Ast.Expression expression = replace(assignment.getExpression(), target, temporary);
+            return expression == assignment.getExpression() ? ast : new Ast.Statement.Assignment(assignment.getName(),
+                    expression, assignment.getDepth(), assignment.getSlot());
+        }
+    }
+
+    /**
+     * Replaces occurrences of the target with the temporary. A group left
+     * around only the temporary is replaced as well.
+     */
+    private static Ast.Expression replace(Ast.Expression ast, Ast.Expression target, Ast.Expression.Variable temporary) {
+        if (ast.equals(target)) {
+            return temporary;
+        } else if (ast instanceof Ast.Expression.Group) {
+            Ast.Expression expression = replace(((Ast.Expression.Group) ast).getExpression(), target, temporary);
+            return expression == temporary ? temporary
+                    : expression == ((Ast.Expression.Group) ast).getExpression() ? ast : new Ast.Expression.Group(ast.type, expression);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            Ast.Expression left = replace(binary.getLeft(), target, temporary);
+            Ast.Expression right = replace(binary.getRight(), target, temporary);
+            return left == binary.getLeft() && right == binary.getRight() ? ast
+                    : new Ast.Expression.Binary(ast.type, binary.getOperator(), left, right);
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            List<Ast.Expression> arguments = new ArrayList<>(function.getArguments().size());
+            boolean changed = false;
+            for (Ast.Expression argument : function.getArguments()) {
+                Ast.Expression replaced = replace(argument, target, temporary);
+                changed |= replaced != argument;
+                arguments.add(replaced);
+            }
+            return changed ? new Ast.Expression.Function(ast.type, function.getName(), arguments, function.isPure()) : ast;
+        }
+        return ast;
+    }
+
+    /**
+     * The statements from the first to the last occurrence of an expression
+     * before one of its variables is assigned.
+     */
+    private static final class Range {
+
+        private final Ast.Expression expression;
+        private final int size;
+        private final int first;
+        private final boolean shared;
+        private int last;
+        private int count = 0;
+
+        private Range(Ast.Expression expression, int size, int first, boolean shared) {
+            this.expression = expression;
+            this.size = size;
+            this.first = first;
+            this.shared = shared;
+        }
+
+        /**
+         * Returns the larger of the ranges which occur more than once and may
+         * be shared, or null if neither does.
+         */
+        private static Range larger(Range largest, Range range) {
+            if (range.count < 2 || !range.shared) {
+                return largest;
+            }
+            return largest == null || range.size > largest.size ? range : largest;
+        }
+
+    }
+
+}
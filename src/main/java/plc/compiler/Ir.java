@@ -0,0 +1,479 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A control-flow graph of basic blocks of three-address instructions over
+ * typed virtual registers, lowered from an analyzed {@link Ast.Source} by
+ * {@link Lowerer} and raised back to a tree for the {@link Generator} by
+ * {@link Raiser}.
+ *
+ * Each register is either a variable of the program, named as declared, or a
+ * temporary holding an intermediate value. Operands are always registers,
+ * with literals loaded into temporaries by {@link Instruction.Constant}.
+ * Every block ends in a single {@link Terminator}, and the graph has a single
+ * {@link Terminator.Return}. Blocks are numbered in the order they are laid
+ * out, which puts every block after its predecessors except along the back
+ * edges of loops, so forward dataflow analyses can visit blocks in order.
+ *
+ * {@link #toString()} pretty-prints the graph a block at a time, such as
+ *
+ * <pre>
+ * b0:
+ *     i:int = const 0
+ *     jump b1
+ * b1:
+ *     %1:int = const 10
+ *     %2:boolean = i != %1
+ *     branch %2, b2, b3
+ * </pre>
+ */
+public final class Ir {
+
+    private final List<Block> blocks;
+    private final List<Register> registers;
+
+    /**
+     * Creates the graph of the blocks in layout order, starting with the
+     * entry, numbering them and linking their predecessors.
+     */
+    Ir(List<Block> blocks, List<Register> registers) {
+        this.blocks = Collections.unmodifiableList(new ArrayList<>(blocks));
+        this.registers = Collections.unmodifiableList(new ArrayList<>(registers));
+        for (int i = 0; i < blocks.size(); i++) {
+            blocks.get(i).id = i;
+        }
+        for (Block block : blocks) {
+            for (Block successor : block.getSuccessors()) {
+                successor.predecessors.add(block);
+            }
+        }
+    }
+
+    public Block getEntry() {
+        return blocks.get(0);
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public List<Register> getRegisters() {
+        return registers;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Block block : blocks) {
+            builder.append(block).append(':').append(System.lineSeparator());
+            for (Instruction instruction : block.instructions) {
+                builder.append("    ").append(instruction).append(System.lineSeparator());
+            }
+            builder.append("    ").append(block.terminator).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A virtual register. Variables are named, and declared registers with
+     * the same name are different variables, such as those of sibling blocks.
+     */
+    public static final class Register {
+
+        private final int id;
+        private final Stdlib.Type type;
+        private final String name;
+
+        Register(int id, Stdlib.Type type, String name) {
+            this.id = id;
+            this.type = type;
+            this.name = name;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Stdlib.Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the name of the variable, or null for a temporary.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public boolean isTemporary() {
+            return name == null;
+        }
+
+        @Override
+        public String toString() {
+            return name != null ? name : "%" + id;
+        }
+
+    }
+
+    public static final class Block {
+
+        private final List<Instruction> instructions = new ArrayList<>();
+        private final List<Block> predecessors = new ArrayList<>();
+        private Terminator terminator;
+        private int id = -1;
+
+        public int getId() {
+            return id;
+        }
+
+        public List<Instruction> getInstructions() {
+            return Collections.unmodifiableList(instructions);
+        }
+
+        public Terminator getTerminator() {
+            return terminator;
+        }
+
+        public List<Block> getSuccessors() {
+            return terminator.getSuccessors();
+        }
+
+        public List<Block> getPredecessors() {
+            return Collections.unmodifiableList(predecessors);
+        }
+
+        void add(Instruction instruction) {
+            instructions.add(instruction);
+        }
+
+        /**
+         * Returns the last instruction, or null if there are none.
+         */
+        Instruction last() {
+            return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+        }
+
+        void replaceLast(Instruction instruction) {
+            instructions.set(instructions.size() - 1, instruction);
+        }
+
+        void terminate(Terminator terminator) {
+            this.terminator = terminator;
+        }
+
+        @Override
+        public String toString() {
+            return "b" + id;
+        }
+
+    }
+
+    public abstract static class Instruction {
+
+        private Instruction() {}
+
+        public abstract List<Register> getOperands();
+
+        /**
+         * An instruction assigning a value to its target register.
+         */
+        public abstract static class Definition extends Instruction {
+
+            private final Register target;
+
+            private Definition(Register target) {
+                this.target = target;
+            }
+
+            /**
+             * Returns the register assigned, which is only null for a
+             * {@link Call} of a VOID function.
+             */
+            public Register getTarget() {
+                return target;
+            }
+
+            /**
+             * Returns the same instruction assigning to another register.
+             */
+            public abstract Definition withTarget(Register target);
+
+            String target() {
+                return target == null ? "" : target + ":" + target.getType().getJvmName() + " = ";
+            }
+
+        }
+
+        public static final class Constant extends Definition {
+
+            private final Object value;
+
+            public Constant(Register target, Object value) {
+                super(target);
+                this.value = value;
+            }
+
+            public Object getValue() {
+                return value;
+            }
+
+            @Override
+            public List<Register> getOperands() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public Constant withTarget(Register target) {
+                return new Constant(target, value);
+            }
+
+            @Override
+            public String toString() {
+                return target() + "const " + (value instanceof String ? "\"" + value + "\"" : value);
+            }
+
+        }
+
+        public static final class Copy extends Definition {
+
+            private final Register source;
+
+            public Copy(Register target, Register source) {
+                super(target);
+                this.source = source;
+            }
+
+            public Register getSource() {
+                return source;
+            }
+
+            @Override
+            public List<Register> getOperands() {
+                return Collections.singletonList(source);
+            }
+
+            @Override
+            public Copy withTarget(Register target) {
+                return new Copy(target, source);
+            }
+
+            @Override
+            public String toString() {
+                return target() + source;
+            }
+
+        }
+
+        public static final class Binary extends Definition {
+
+            private final String operator;
+            private final Register left;
+            private final Register right;
+
+            public Binary(Register target, String operator, Register left, Register right) {
+                super(target);
+                this.operator = operator;
+                this.left = left;
+                this.right = right;
+            }
+
+            public String getOperator() {
+                return operator;
+            }
+
+            public Register getLeft() {
+                return left;
+            }
+
+            public Register getRight() {
+                return right;
+            }
+
+            @Override
+            public List<Register> getOperands() {
+                return Arrays.asList(left, right);
+            }
+
+            @Override
+            public Binary withTarget(Register target) {
+                return new Binary(target, operator, left, right);
+            }
+
+            @Override
+            public String toString() {
+                return target() + left + " " + operator + " " + right;
+            }
+
+        }
+
+        /**
+         * A call named by the JVM name of the function, assigning its result
+         * to the target, or called only for its side effects if the target
+         * is null, as for VOID functions.
+         */
+        public static final class Call extends Definition {
+
+            private final String function;
+            private final List<Register> arguments;
+
+            public Call(String function, List<Register> arguments) {
+                this(null, function, arguments);
+            }
+
+            public Call(Register target, String function, List<Register> arguments) {
+                super(target);
+                this.function = function;
+                this.arguments = arguments;
+            }
+
+            public String getFunction() {
+                return function;
+            }
+
+            public List<Register> getArguments() {
+                return arguments;
+            }
+
+            @Override
+            public List<Register> getOperands() {
+                return arguments;
+            }
+
+            @Override
+            public Call withTarget(Register target) {
+                return new Call(target, function, arguments);
+            }
+
+            @Override
+            public String toString() {
+                StringBuilder builder = new StringBuilder(target()).append("call ").append(function).append('(');
+                for (int i = 0; i < arguments.size(); i++) {
+                    builder.append(i == 0 ? "" : ", ").append(arguments.get(i));
+                }
+                return builder.append(')').toString();
+            }
+
+        }
+
+        /**
+         * Declares a variable without a value. It has no effect on the
+         * values of registers, but marks where the variable is in scope.
+         */
+        public static final class Declare extends Instruction {
+
+            private final Register variable;
+
+            public Declare(Register variable) {
+                this.variable = variable;
+            }
+
+            public Register getVariable() {
+                return variable;
+            }
+
+            @Override
+            public List<Register> getOperands() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public String toString() {
+                return "declare " + variable + ":" + variable.getType().getJvmName();
+            }
+
+        }
+
+    }
+
+    public abstract static class Terminator {
+
+        private Terminator() {}
+
+        public abstract List<Block> getSuccessors();
+
+        public static final class Jump extends Terminator {
+
+            private final Block target;
+
+            public Jump(Block target) {
+                this.target = target;
+            }
+
+            public Block getTarget() {
+                return target;
+            }
+
+            @Override
+            public List<Block> getSuccessors() {
+                return Collections.singletonList(target);
+            }
+
+            @Override
+            public String toString() {
+                return "jump " + target;
+            }
+
+        }
+
+        /**
+         * Branches to the first block if the boolean condition is true, and
+         * to the second otherwise.
+         */
+        public static final class Branch extends Terminator {
+
+            private final Register condition;
+            private final Block then;
+            private final Block otherwise;
+
+            public Branch(Register condition, Block then, Block otherwise) {
+                this.condition = condition;
+                this.then = then;
+                this.otherwise = otherwise;
+            }
+
+            public Register getCondition() {
+                return condition;
+            }
+
+            public Block getThen() {
+                return then;
+            }
+
+            public Block getOtherwise() {
+                return otherwise;
+            }
+
+            @Override
+            public List<Block> getSuccessors() {
+                return Arrays.asList(then, otherwise);
+            }
+
+            @Override
+            public String toString() {
+                return "branch " + condition + ", " + then + ", " + otherwise;
+            }
+
+        }
+
+        public static final class Return extends Terminator {
+
+            @Override
+            public List<Block> getSuccessors() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public String toString() {
+                return "return";
+            }
+
+        }
+
+    }
+
+}
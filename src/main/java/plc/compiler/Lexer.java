@@ -1,37 +1,255 @@
 package plc.compiler;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.PatternSyntaxException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
- * The lexer works through three main functions:
+ * The lexer works through four main parts:
  *
  *  - {@link #lex()}, which repeatedly calls lexToken() and skips whitespace
  *  - {@link #lexToken()}, which lexes the next token
+ *  - {@link #scanToken()}, which consumes the next token and returns its type
  *  - {@link CharStream}, which manages the state of the lexer and literals
  *
+ * The lexing methods only consume characters and return the type of the
+ * token, leaving the literal in the CharStream. This lets {@link
+ * #buffer(CharSequence)} record tokens into a {@link TokenBuffer} without
+ * creating any {@link Token} objects.
+ *
+ * Large inputs can be lexed in parallel with {@link #buffer(CharSequence,
+ * ForkJoinPool)}, which splits the input into chunks at whitespace outside of
+ * strings. No token spans such whitespace, so each chunk lexes to exactly the
+ * tokens sequential lexing produces for that range.
+ *
+ * After an edit, {@link #relex(TokenBuffer, int, int, String)} only lexes the
+ * tokens around the edit and reuses the previous tokens on both sides of it.
+ *
+ * Inputs too large to hold in memory can be lexed lazily with {@link
+ * #stream(Reader)}, which returns a {@link TokenSource} that reads through a
+ * fixed size buffer as tokens are requested. Files can be memory-mapped with
+ * {@link #stream(Path)}, in which case token indices may exceed the range of
+ * an {@code int} and are read with {@link Token#getLongIndex()}.
+ *
  * If the lexer fails to parse something (such as an unterminated string) you
  * should throw a {@link ParseException}.
  *
- * The {@link #peek(String...)} and {@link #match(String...)} functions are
- * helpers you need to use, they will make the implementation a lot easier.
+ * Characters are classified through the precomputed {@link #CLASSES} table
+ * rather than regex, so the {@link #peek(int, int)} and {@link #match(int)}
+ * helpers are a single array lookup and never allocate.
  */
 public final class Lexer {
 
+    static final int WHITESPACE = 1;
+    static final int DIGIT = 2;
+    static final int IDENTIFIER_START = 4;
+    static final int IDENTIFIER_PART = 8;
+
+    /**
+     * Character class bitmasks for the ASCII range, indexed by character.
+     * Anything outside of this range has no class and is lexed as an
+     * operator.
+     */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c : new char[] {' ', '\n', '\r', '\t'}) {
+            CLASSES[c] = WHITESPACE;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT | IDENTIFIER_PART;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CLASSES[c] = IDENTIFIER_START | IDENTIFIER_PART;
+            CLASSES[c + ('a' - 'A')] = IDENTIFIER_START | IDENTIFIER_PART;
+        }
+        CLASSES['_'] = IDENTIFIER_START | IDENTIFIER_PART;
+    }
+
+    /**
+     * The smallest chunk worth lexing as a separate task.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+
     final CharStream chars;
 
-    Lexer(String input) {
-        chars = new CharStream(input);
+    Lexer(CharSequence input) {
+        chars = new CharStream(input, 0, input.length());
+    }
+
+    Lexer(CharSequence input, int start, int end) {
+        chars = new CharStream(input, start, end);
+    }
+
+    Lexer(Reader reader) {
+        chars = new CharStream(reader);
     }
 
     /**
-     * Lexes the input and returns the list of tokens.
+     * Lexes the input and returns a mutable list of the tokens. Use {@link
+     * #buffer(CharSequence)} to lex without creating {@link Token} objects.
      */
     public static List<Token> lex(String input) throws ParseException {
         return new Lexer(input).lex();
     }
 
+    /**
+     * Lexes the input into a {@link TokenBuffer}.
+     */
+    public static TokenBuffer buffer(CharSequence input) throws ParseException {
+        return buffer(input, 0, input.length(), Symbols.compilation());
+    }
+
+    /**
+     * Lexes the input into a {@link TokenBuffer} by splitting it into chunks
+     * which are lexed concurrently on the pool. The result is identical to
+     * {@link #buffer(CharSequence)}, including which exception is thrown since
+     * the chunks are joined in order.
+     */
+    public static TokenBuffer buffer(CharSequence input, ForkJoinPool pool) throws ParseException {
+        int chunks = Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, input.length() / MIN_CHUNK_SIZE + 1);
+        int[] boundaries = split(input, chunks);
+        Symbols symbols = Symbols.compilation();
+        List<ForkJoinTask<TokenBuffer>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+            int start = boundaries[i];
+            int end = boundaries[i + 1];
+            tasks.add(pool.submit(() -> buffer(input, start, end, symbols)));
+        }
+        TokenBuffer buffer = new TokenBuffer(input, symbols);
+        for (ForkJoinTask<TokenBuffer> task : tasks) {
+            buffer.addAll(task.join());
+        }
+        return buffer;
+    }
+
+    /**
+     * Lexes the characters of the input from start (inclusive) to end
+     * (exclusive), recording tokens with their index in the whole input and
+     * interning identifiers in the table.
+     */
+    static TokenBuffer buffer(CharSequence input, int start, int end, Symbols symbols) throws ParseException {
+        Lexer lexer = new Lexer(input, start, end);
+        TokenBuffer buffer = new TokenBuffer(input, symbols);
+        while (lexer.hasToken()) {
+            Token.Type type = lexer.scanToken();
+            buffer.add(type, (int) (lexer.chars.index - lexer.chars.length), lexer.chars.length);
+            lexer.chars.skip();
+        }
+        return buffer;
+    }
+
+    /**
+     * Lexes the source after replacing {@code removed} characters at {@code
+     * offset} with the inserted text, reusing the tokens of the previous
+     * buffer wherever the edit cannot have changed them. The result is
+     * identical to lexing the edited source from scratch.
+     *
+     * Lexing resumes at the end of the last token which did not look at any
+     * edited character (the lexer looks at most two characters past the
+     * start of the next token, e.g. {@code 1.5}), which is found by binary
+     * search. It stops as soon as a new token starts after the edit at the
+     * same place an old token started, since the lexer is stateless between
+     * tokens and the rest of the source is unchanged.
+     *
+     * The edited source is a {@link Rope} and the result shares the tokens
+     * before and after the relexed ones with the previous buffer (see {@link
+     * TokenBuffer}), so neither the source nor the unchanged tokens are
+     * copied and the cost depends on the size of the edit rather than of the
+     * source.
+     */
+    public static TokenBuffer relex(TokenBuffer previous, int offset, int removed, String inserted) throws ParseException {
+        Rope edited = Rope.of(previous.getSource()).edit(offset, removed, inserted);
+        int shift = inserted.length() - removed;
+        int editEnd = offset + inserted.length();
+
+        int low = 0;
+        int high = previous.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (previous.getStart(middle) + previous.getLength(middle) + 2 <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int first = low;
+        int start = first == 0 ? 0 : previous.getStart(first - 1) + previous.getLength(first - 1);
+
+        TokenBuffer buffer = new TokenBuffer(edited, previous.getSymbols());
+        Lexer lexer = new Lexer(edited, start, edited.length());
+        int old = first;
+        while (lexer.hasToken()) {
+            int index = (int) lexer.chars.index;
+            if (index >= editEnd) {
+                while (old < previous.size() && previous.getStart(old) < index - shift) {
+                    old++;
+                }
+                if (old < previous.size() && previous.getStart(old) == index - shift) {
+                    return TokenBuffer.splice(edited, previous, first, buffer, old, shift);
+                }
+            }
+            Token.Type type = lexer.scanToken();
+            buffer.add(type, index, lexer.chars.length);
+            lexer.chars.skip();
+        }
+        return TokenBuffer.splice(edited, previous, first, buffer, previous.size(), shift);
+    }
+
+    /**
+     * Returns the boundaries of (at most) the given number of chunks of
+     * roughly equal size, starting with 0 and ending with the length of the
+     * input. Each inner boundary is whitespace outside of a string, which is
+     * tracked by the parity of the quotes seen so far since strings have no
+     * escapes.
+     */
+    static int[] split(CharSequence input, int chunks) {
+        int[] boundaries = new int[chunks + 1];
+        int count = 1;
+        int position = 0;
+        boolean string = false;
+        for (int i = 1; i < chunks; i++) {
+            int target = (int) ((long) input.length() * i / chunks);
+            for (; position < target; position++) {
+                if (input.charAt(position) == '"') {
+                    string = !string;
+                }
+            }
+            for (; position < input.length(); position++) {
+                char c = input.charAt(position);
+                if (c == '"') {
+                    string = !string;
+                } else if (!string && is(c, WHITESPACE)) {
+                    break;
+                }
+            }
+            if (position >= input.length()) {
+                break;
+            } else if (position > boundaries[count - 1]) {
+                boundaries[count++] = position;
+            }
+        }
+        boundaries[count++] = input.length();
+        return Arrays.copyOf(boundaries, count);
+    }
+
     /**
      * Repeatedly lexes the next token using {@link #lexToken()} until the end
      * of the input is reached, returning the list of tokens lexed. This should
@@ -39,31 +257,75 @@ public final class Lexer {
      */
     List<Token> lex() throws ParseException {
         List<Token> tList = new ArrayList<>();
-        while (chars.has(0)) {
-            if (!match("[ \n\r\t]")) {
-                tList.add(lexToken());
-            } else {
-                chars.skip();
-            }
+        while (hasToken()) {
+            tList.add(lexToken());
         }
         return tList;
     }
 
+    /**
+     * Lazily lexes the input of the reader, which is read through a fixed size
+     * buffer and is not closed by the lexer.
+     */
+    public static TokenSource stream(Reader reader) {
+        return new Lexer(reader).tokens();
+    }
+
+    /**
+     * Lazily lexes the UTF-8 encoded input of the channel.
+     */
+    public static TokenSource stream(ReadableByteChannel channel) {
+        return stream(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    /**
+     * Lazily lexes a UTF-8 encoded file by memory-mapping it, so the file is
+     * never copied onto the heap as a whole. Token indices are character
+     * offsets as for the other inputs, so the same file lexes to the same
+     * tokens through {@link #stream(ReadableByteChannel)}.
+     */
+    public static TokenSource stream(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return stream(new MappedChannel(channel));
+        }
+    }
+
+    /**
+     * Returns a {@link TokenSource} lexing the remaining input lazily.
+     */
+    TokenSource tokens() {
+        return new TokenSource(this);
+    }
+
+    /**
+     * Skips any whitespace, returning true if there is another token to lex.
+     */
+    boolean hasToken() {
+        while (match(WHITESPACE)) {
+            chars.skip();
+        }
+        return chars.has(0);
+    }
+
     Token lexToken() throws ParseException {
-        if (peek("[=]") && peekPlus("[=]")) {
-            return lexOperator();
-        }else  if(peek("[!]") && peekPlus("[=]")) {
+        return chars.emit(scanToken());
+    }
+
+    Token.Type scanToken() throws ParseException {
+        if (!chars.has(0) || peek(0, WHITESPACE)) {
+            throw new ParseException("invalid operand", chars.index);
+        }
+        char c = chars.get(0);
+        if ((c == '=' || c == '!') && peek(1, '=')) {
             return lexOperator();
-        } else if (peek("[0-9]")) {
+        } else if (is(c, DIGIT)) {
             return lexNumber();
-        } else if (peek("[A-Za-z_]") ) {
+        } else if (is(c, IDENTIFIER_START)) {
             return lexIdentifier();
-        }else if (peek("\"")){
+        } else if (c == '"') {
             return lexString();
-        }else if(peek("[^ \n\r\t]" ) || peek("[=]") || peek("[.]")){ //fix this so just "=" is picked up correclty
+        } else {
             return lexOperator();
-        }else{
-            throw new ParseException("invalid operand", chars.index);
         }
     }
 
@@ -71,44 +333,33 @@ public final class Lexer {
      * Lexes an IDENTIFIER token. Unlike the previous project, fewer characters
      * are allowed in identifiers.
      */
-    Token lexIdentifier() throws ParseException {
-        match("[A-Za-z_]");
-        while (match("[A-Za-z0-9_]"));
-        return chars.emit(Token.Type.IDENTIFIER);
+    Token.Type lexIdentifier() throws ParseException {
+        match(IDENTIFIER_START);
+        while (match(IDENTIFIER_PART));
+        return Token.Type.IDENTIFIER;
     }
 
     /**
-     * Lexes an INTEGER or DECIMAL token. Unlike the previous project, we now
-     * have integers and decimals instead of just numbers, and leading zeros are
-     * not allowed (throw an exception if found). Since both start in the same
-     * way, we handle this through a single method and change the token type of
-     * the emitted token.
+     * Lexes an INTEGER or DECIMAL token. Since both start in the same way, we
+     * handle this through a single method and change the token type of the
+     * emitted token. A decimal point is only consumed if it is followed by a
+     * digit, and only the first one is part of the number.
      */
-    Token lexNumber() throws ParseException {
-        if(match("[+-]","[0-9]")) ;
-        else if (match("[0-9]")) ;
-
+    Token.Type lexNumber() throws ParseException {
+        match(DIGIT);
         boolean isDec = false;
-
-        while(peek("[.]") || peek("[0-9]")){
-            if(!isDec && peek("[.]") && peekPlus("[0-9]")){
-                match("[.]");
-                match("[0-9]");
+        while (peek(0, DIGIT) || peek(0, '.')) {
+            if (!peek(0, '.')) {
+                chars.advance();
+            } else if (!isDec && peek(1, DIGIT)) {
+                chars.advance();
+                chars.advance();
                 isDec = true;
-            }else if(isDec && peek("[.]")){
-                return chars.emit(Token.Type.DECIMAL);
-            }else if(!isDec && peek("[.]") && !peek("[0-9]")){
-                return chars.emit(Token.Type.INTEGER);
-            }else{
-                match("[0-9]");
+            } else {
+                break;
             }
         }
-        if(isDec){
-            return chars.emit(Token.Type.DECIMAL);
-        }else{
-            return chars.emit(Token.Type.INTEGER);
-
-        }
+        return isDec ? Token.Type.DECIMAL : Token.Type.INTEGER;
     }
 
     /**
@@ -116,17 +367,17 @@ public final class Lexer {
      * characters allowed in strings and escape characters are not supported. If
      * the character is invalid a {@link ParseException} should be thrown.
      */
-    Token lexString() throws ParseException {
-        if(!peek("\"")){
+    Token.Type lexString() throws ParseException {
+        if (!match('"')) {
             throw new ParseException("not an acceptable input", chars.index);
         }
-        match("\"");
-        while (match("[^\"]*"));
-        if (!match("\"")) {
+        while (chars.has(0) && chars.get(0) != '"') {
+            chars.advance();
+        }
+        if (!match('"')) {
             throw new ParseException("no terminating end quote", chars.index);
         }
-        return chars.emit(Token.Type.STRING);
-
+        return Token.Type.STRING;
     }
 
     /**
@@ -136,72 +387,181 @@ public final class Lexer {
      * <em>single</em> OPERATOR. As before, this is a 'fallback' for any other
      * unknown characters.
      */
-    Token lexOperator() throws ParseException {
-        if (peek("[=]") && peekPlus("[=]")){
-            match("[=]");
-            match("[=]");
-        }else if (peek("[!]") && peekPlus("[=]")){
-            match("[!]");
-            match("[=]");
-        }else{
-            match("[^ \\n\\r\\t]");
+    Token.Type lexOperator() throws ParseException {
+        if ((peek(0, '=') || peek(0, '!')) && peek(1, '=')) {
+            chars.advance();
+            chars.advance();
+        } else if (chars.has(0) && !peek(0, WHITESPACE)) {
+            chars.advance();
         }
-        return chars.emit(Token.Type.OPERATOR);
+        return Token.Type.OPERATOR;
     }
 
     /**
-     * Returns true if the next sequence of characters match the given patterns,
-     * which should be a regex. For example, {@code peek("a", "b", "c")} would
-     * return true for the sequence {@code 'a', 'b', 'c'}
+     * Returns true if the character belongs to any of the given classes.
      */
-    boolean peek(String... patterns) {
-        for (int i = 0; i < patterns.length; i++) {
-            if (!chars.has(i) || !String.valueOf(chars.get(i)).matches(patterns[i])) {
-                return false;
-            }
+    static boolean is(char c, int classes) {
+        return c < CLASSES.length && (CLASSES[c] & classes) != 0;
+    }
+
+    /**
+     * Returns true if the character at the given offset belongs to any of the
+     * given classes, for example {@code peek(1, DIGIT)}.
+     */
+    boolean peek(int offset, int classes) {
+        return chars.has(offset) && is(chars.get(offset), classes);
+    }
+
+    /**
+     * Returns true if the character at the given offset is exactly {@code c}.
+     */
+    boolean peek(int offset, char c) {
+        return chars.has(offset) && chars.get(offset) == c;
+    }
+
+    /**
+     * Returns true in the same way as peek, but also advances the CharStream
+     * too if the character matched.
+     */
+    boolean match(int classes) {
+        boolean peek = peek(0, classes);
+        if (peek) {
+            chars.advance();
         }
-        return true;
+        return peek;
+    }
+
+    boolean match(char c) {
+        boolean peek = peek(0, c);
+        if (peek) {
+            chars.advance();
+        }
+        return peek;
     }
 
-    boolean peekPlus(String... patterns) {
-        chars.index++;
-        for (int i = 0; i < patterns.length; i++) {
-            if (!chars.has(i) || !String.valueOf(chars.get(i)).matches(patterns[i])) {
-                chars.index--;
-                return false;
+    /**
+     * An iterator over the tokens of a lexer, lexing each token only when it
+     * is requested. A {@link ParseException} is thrown from {@link #next()} if
+     * the token is invalid.
+     */
+    public static final class TokenSource implements Iterator<Token> {
+
+        private final Lexer lexer;
+
+        private TokenSource(Lexer lexer) {
+            this.lexer = lexer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return lexer.hasToken();
+        }
+
+        @Override
+        public Token next() throws ParseException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
+            return lexer.lexToken();
         }
-        chars.index--;
-        return true;
+
     }
 
     /**
-     * Returns true in the same way as peek, but also advances the CharStream too
-     * if the characters matched.
+     * Reads the bytes of a memory-mapped file. Files are mapped in segments
+     * since a single mapping is limited to {@link Integer#MAX_VALUE} bytes;
+     * the mappings stay valid after the file channel is closed.
      */
-    boolean match(String... patterns) {
-        boolean peek = peek(patterns);
-        if (peek) {
-            for (int i = 0; i < patterns.length; i++) {
-                chars.advance();
+    private static final class MappedChannel implements ReadableByteChannel {
+
+        private static final long SEGMENT_SIZE = 1L << 30;
+
+        private final MappedByteBuffer[] segments;
+        private int segment = 0;
+
+        private MappedChannel(FileChannel channel) throws IOException {
+            long size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
             }
         }
-        return peek;
+
+        @Override
+        public int read(ByteBuffer destination) {
+            int read = 0;
+            while (destination.hasRemaining() && segment < segments.length) {
+                MappedByteBuffer bytes = segments[segment];
+                if (!bytes.hasRemaining()) {
+                    segments[segment++] = null;
+                    continue;
+                }
+                int count = Math.min(destination.remaining(), bytes.remaining());
+                ByteBuffer slice = bytes.duplicate();
+                slice.limit(slice.position() + count);
+                destination.put(slice);
+                bytes.position(bytes.position() + count);
+                read += count;
+            }
+            return read == 0 && segment == segments.length ? -1 : read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+
     }
 
     /**
      * This is basically a sequence of characters. The index is used to maintain
      * where in the input string the lexer currently is, and the builder
      * accumulates characters into the literal value for the next token.
+     *
+     * The input may be any {@link CharSequence}, which is read in place. When
+     * reading from a {@link Reader} only a window of the input is kept in
+     * the buffer. Characters before the start of the current literal are
+     * discarded as the buffer is refilled, so the buffer only grows past its
+     * initial size for a single literal longer than it.
      */
-     public static final class CharStream {
+    public static final class CharStream {
 
-        final String input;
-        int index = 0;
+        private static final int BUFFER_SIZE = 8192;
+
+        final CharSequence input;
+        private final long end;
+        private final Reader reader;
+        private char[] buffer;
+        private CharBuffer view;
+        private long offset = 0;
+        private int limit = 0;
+        private boolean eof = false;
+        long index = 0;
         int length = 0;
 
-        CharStream(String input) {
+        /**
+         * The table identifiers are interned in by {@link #emit(Token.Type)},
+         * created when the first one is emitted.
+         */
+        private Symbols symbols;
+
+        CharStream(CharSequence input, int start, int end) {
             this.input = input;
+            this.end = end;
+            this.reader = null;
+            this.index = start;
+        }
+
+        CharStream(Reader reader) {
+            this.input = null;
+            this.end = Long.MAX_VALUE;
+            this.reader = reader;
+            this.buffer = new char[BUFFER_SIZE];
+            this.view = CharBuffer.wrap(buffer);
         }
 
         /**
@@ -209,7 +569,10 @@ public final class Lexer {
          * the length of the input.
          */
         public boolean has(int offset) {
-            return index + offset < input.length();
+            if (input != null) {
+                return index + offset < end;
+            }
+            return index + offset < this.offset + limit || fill(index + offset);
         }
 
         /**
@@ -217,7 +580,41 @@ public final class Lexer {
          * character does not exist.
          */
         public char get(int offset) {
-            return input.charAt(index + offset); //throws if out of bounds
+            if (input != null) {
+                return input.charAt((int) (index + offset)); //throws if out of bounds
+            }
+            return buffer[(int) (index + offset - this.offset)];
+        }
+
+        /**
+         * Reads from the reader until the character at the given input index
+         * is buffered, returning false if the input ends first.
+         */
+        private boolean fill(long target) {
+            long start = index - length;
+            if (start > offset) {
+                int discarded = (int) (start - offset);
+                System.arraycopy(buffer, discarded, buffer, 0, limit - discarded);
+                limit -= discarded;
+                offset = start;
+            }
+            try {
+                while (!eof && target >= offset + limit) {
+                    if (limit == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                        view = CharBuffer.wrap(buffer);
+                    }
+                    int read = reader.read(buffer, limit, buffer.length - limit);
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        limit += read;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return target < offset + limit;
         }
 
         /**
@@ -239,12 +636,27 @@ public final class Lexer {
 
         /**
          * Returns a token of the given type with the built literal. The index
-         * of the token should be the starting index.
+         * of the token should be the starting index. Identifiers are interned
+         * in a table for this stream, so each distinct identifier has a single
+         * literal shared by all of its tokens.
          */
         public Token emit(Token.Type type) {
-            int start = index - length;
+            long start = index - length;
+            String literal;
+            if (type == Token.Type.IDENTIFIER) {
+                if (symbols == null) {
+                    symbols = Symbols.compilation();
+                }
+                literal = symbols.name(input != null
+                        ? symbols.intern(input, (int) start, (int) index)
+                        : symbols.intern(view, (int) (start - offset), (int) (start - offset) + length));
+            } else if (input != null) {
+                literal = input.subSequence((int) start, (int) index).toString();
+            } else {
+                literal = new String(buffer, (int) (start - offset), length);
+            }
             skip(); //we've saved the starting point already
-            return new Token(type, input.substring(start, index), start);
+            return new Token(type, literal, start);
         }
 
     }
@@ -0,0 +1,234 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers an analyzed {@link Ast.Source} into the {@link Ir} control-flow
+ * graph, evaluating every expression into a temporary register in the order
+ * the generated Java would evaluate it.
+ *
+ * An If branches to blocks for its branches, which jump to a block joining
+ * them. A While jumps to a header block evaluating its condition, which
+ * branches to the body or past the loop, and the body jumps back to the
+ * header. A declared or assigned value computed into a temporary by the last
+ * instruction is computed straight into the variable instead of copied.
+ *
+ * A lowerer holds the graph being built, so a new one is used per program.
+ */
+public final class Lowerer implements Ast.Visitor<Ir.Register> {
+
+    private static final Stdlib.Type[] TYPES = {
+            Stdlib.Type.BOOLEAN, Stdlib.Type.INTEGER, Stdlib.Type.DECIMAL, Stdlib.Type.STRING, Stdlib.Type.ANY
+    };
+
+    private final List<Ir.Block> blocks = new ArrayList<>();
+    private final List<Ir.Register> registers = new ArrayList<>();
+    private Map<String, Ir.Register> variables = new HashMap<>();
+    private Ir.Block block;
+
+    public Ir lower(Ast.Source ast) throws AnalysisException {
+        visit(ast);
+        return new Ir(blocks, registers);
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Source ast) throws AnalysisException {
+        start(new Ir.Block());
+        visitBlock(ast.getStatements());
+        block.terminate(new Ir.Terminator.Return());
+        return null;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Statement.Expression ast) throws AnalysisException {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Statement.Declaration ast) throws AnalysisException {
+        Ir.Register variable;
+        if (ast.getValue().isPresent()) {
+            Ir.Register value = value(ast.getValue().get());
+            Stdlib.Type type = type(ast.getType(), value.getType());
+            boolean computed = computes(value, type);
+            variable = register(type, ast.getName());
+            define(variable, value, computed);
+        } else {
+            variable = register(type(ast.getType(), null), ast.getName());
+            block.add(new Ir.Instruction.Declare(variable));
+        }
+        variables.put(ast.getName(), variable);
+        return null;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Statement.Assignment ast) throws AnalysisException {
+        Ir.Register value = value(ast.getExpression());
+        Ir.Register variable = lookup(ast.getName());
+        define(variable, value, computes(value, variable.getType()));
+        return null;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Statement.If ast) throws AnalysisException {
+        Ir.Register condition = value(ast.getCondition());
+        Ir.Block then = new Ir.Block();
+        Ir.Block otherwise = ast.getElseStatements().isEmpty() ? null : new Ir.Block();
+        Ir.Block join = new Ir.Block();
+        block.terminate(new Ir.Terminator.Branch(condition, then, otherwise != null ? otherwise : join));
+        start(then);
+        visitBlock(ast.getThenStatements());
+        block.terminate(new Ir.Terminator.Jump(join));
+        if (otherwise != null) {
+            start(otherwise);
+            visitBlock(ast.getElseStatements());
+            block.terminate(new Ir.Terminator.Jump(join));
+        }
+        start(join);
+        return null;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Statement.While ast) throws AnalysisException {
+        Ir.Block header = new Ir.Block();
+        block.terminate(new Ir.Terminator.Jump(header));
+        start(header);
+        Ir.Register condition = value(ast.getCondition());
+        Ir.Block body = new Ir.Block();
+        Ir.Block exit = new Ir.Block();
+        block.terminate(new Ir.Terminator.Branch(condition, body, exit));
+        start(body);
+        visitBlock(ast.getStatements());
+        block.terminate(new Ir.Terminator.Jump(header));
+        start(exit);
+        return null;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Expression.Literal ast) throws AnalysisException {
+        Ir.Register temporary = register(ast.getType(), null);
+        block.add(new Ir.Instruction.Constant(temporary, ast.getValue()));
+        return temporary;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Expression.Group ast) throws AnalysisException {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Expression.Binary ast) throws AnalysisException {
+        Ir.Register left = value(ast.getLeft());
+        Ir.Register right = value(ast.getRight());
+        Ir.Register temporary = register(ast.getType(), null);
+        block.add(new Ir.Instruction.Binary(temporary, ast.getOperator(), left, right));
+        return temporary;
+    }
+
+    @Override
+    public Ir.Register visit(Ast.Expression.Variable ast) throws AnalysisException {
+        return lookup(ast.getName());
+    }
+
+    /**
+     * Lowers the call into a temporary holding its result, or without one
+     * if it is a call to a VOID function, which has no value.
+     */
+    @Override
+    public Ir.Register visit(Ast.Expression.Function ast) throws AnalysisException {
+        List<Ir.Register> arguments = new ArrayList<>();
+        for (Ast.Expression argument : ast.getArguments()) {
+            arguments.add(value(argument));
+        }
+        Ir.Register temporary = ast.getType() == Stdlib.Type.VOID ? null : register(ast.getType(), null);
+        block.add(new Ir.Instruction.Call(temporary, ast.getName(), arguments));
+        return temporary;
+    }
+
+    /**
+     * Lowers the statements in their own scope, so that their declarations
+     * are not visible after the block.
+     */
+    private void visitBlock(List<Ast.Statement> statements) {
+        Map<String, Ir.Register> enclosing = variables;
+        variables = new HashMap<>(enclosing);
+        for (Ast.Statement statement : statements) {
+            visit(statement);
+        }
+        variables = enclosing;
+    }
+
+    private Ir.Register value(Ast.Expression expression) throws AnalysisException {
+        Ir.Register register = visit(expression);
+        if (register == null) {
+            throw new AnalysisException("The expression " + expression + " has no value.");
+        }
+        return register;
+    }
+
+    /**
+     * Returns whether the last instruction computed the value into a
+     * temporary of the type, in which case the temporary is released so the
+     * instruction can compute it straight into a variable instead. The
+     * temporary is always the last register, since it was the last defined.
+     */
+    private boolean computes(Ir.Register value, Stdlib.Type type) {
+        Ir.Instruction last = block.last();
+        if (value.isTemporary() && value.getType() == type
+                && last instanceof Ir.Instruction.Definition
+                && ((Ir.Instruction.Definition) last).getTarget() == value) {
+            registers.remove(registers.size() - 1);
+            return true;
+        }
+        return false;
+    }
+
+    private void define(Ir.Register variable, Ir.Register value, boolean computed) {
+        if (computed) {
+            block.replaceLast(((Ir.Instruction.Definition) block.last()).withTarget(variable));
+        } else {
+            block.add(new Ir.Instruction.Copy(variable, value));
+        }
+    }
+
+    private Ir.Register lookup(String name) throws AnalysisException {
+        Ir.Register variable = variables.get(name);
+        if (variable == null) {
+            throw new AnalysisException("The variable " + name + " is not defined.");
+        }
+        return variable;
+    }
+
+    private Ir.Register register(Stdlib.Type type, String name) {
+        Ir.Register register = new Ir.Register(registers.size(), type, name);
+        registers.add(register);
+        return register;
+    }
+
+    /**
+     * Returns the type declared by its JVM name, preferring the type of the
+     * value if it has that name, since a registered type may share the JVM
+     * name of another type.
+     */
+    private static Stdlib.Type type(String jvmName, Stdlib.Type value) {
+        if (value != null && value.getJvmName().equals(jvmName)) {
+            return value;
+        }
+        for (Stdlib.Type type : TYPES) {
+            if (type.getJvmName().equals(jvmName)) {
+                return type;
+            }
+        }
+        return new Stdlib.Type(jvmName, jvmName);
+    }
+
+    private void start(Ir.Block block) {
+        blocks.add(block);
+        this.block = block;
+    }
+
+}
@@ -0,0 +1,350 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Optimizes the typed tree copied by the {@link Analyzer} before it is given
+ * to the {@link Generator}, returning nodes which do not change as is.
+ *
+ * Binary expressions on literals are folded to the literal the generated Java
+ * would compute, with the result type the analyzer gave the expression:
+ * integer arithmetic wraps, numbers are widened to decimals, and strings are
+ * concatenated with the text of the other operand. Expressions the generated
+ * Java would throw on or could not write as a literal, such as integer
+ * division by zero or an infinite decimal, are left as written, as is
+ * equality on strings, which compares references in Java.
+ *
+ * A declaration whose value folds to a literal of the declared type is a
+ * constant, and later reads of the variable are replaced by the literal until
+ * it is assigned. A branch of an if only keeps the constants both branches
+ * agree on, and variables assigned anywhere in a while are not constant in
+ * its condition or body, so propagation follows every path the program can
+ * take.
+ *
+ * Branches and loops whose condition folds to a literal are eliminated. An if
+ * keeps only the branch taken, which is inlined into the enclosing statements
+ * unless it declares variables, in which case it is kept as the only branch of
+ * an {@code if (true)} so its declarations stay in their own block. A while
+ * whose condition is false before the loop is removed, and constants then
+ * only follow the path actually taken.
+ */
+public final class Optimizer implements Ast.Visitor<Ast> {
+
+    private Map<String, Ast.Expression.Literal> constants = new HashMap<>();
+
+    @Override
+    public Ast.Source visit(Ast.Source ast) {
+        List<Ast.Statement> statements = visitAll(ast.getStatements());
+        return statements == ast.getStatements() ? ast : new Ast.Source(statements);
+    }
+
+    @Override
+    public Ast.Statement.Expression visit(Ast.Statement.Expression ast) {
+        Ast.Expression expression = visit(ast.getExpression());
+        return expression == ast.getExpression() ? ast : new Ast.Statement.Expression(expression);
+    }
+
+    @Override
+    public Ast.Statement.Declaration visit(Ast.Statement.Declaration ast) {
+        Optional<Ast.Expression> value = ast.getValue();
+        if (value.isPresent()) {
+            Ast.Expression expression = visit(value.get());
+            if (expression != value.get()) {
+                value = Optional.of(expression);
+            }
+        }
+        constants.remove(ast.getName());
+        if (value.isPresent() && value.get() instanceof Ast.Expression.Literal) {
+            define(ast.getName(), ast.getType(), (Ast.Expression.Literal) value.get());
+        }
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        return new Ast.Statement.Declaration(ast.getName(), ast.getType(), value, ast.getDepth(), ast.getSlot());
+    }
+
+    @Override
+    public Ast.Statement.Assignment visit(Ast.Statement.Assignment ast) {
+        Ast.Expression expression = visit(ast.getExpression());
+        constants.remove(ast.getName());
+        if (expression == ast.getExpression()) {
+            return ast;
+        }
+        return new Ast.Statement.Assignment(ast.getName(), expression, ast.getDepth(), ast.getSlot());
+    }
+
+    /**
+     * An if on a literal is returned as an if on true with only the taken
+     * branch, which {@link #visitAll(List)} inlines where it can.
+     */
+    @Override
+    public Ast.Statement.If visit(Ast.Statement.If ast) {
+        Ast.Expression condition = visit(ast.getCondition());
+        Map<String, Ast.Expression.Literal> outer = constants;
+        if (condition instanceof Ast.Expression.Literal && ((Ast.Expression.Literal) condition).getValue() instanceof Boolean) {
+            boolean taken = (Boolean) ((Ast.Expression.Literal) condition).getValue();
+            List<Ast.Statement> statements = visitBlock(outer, taken ? ast.getThenStatements() : ast.getElseStatements());
+            return new Ast.Statement.If(taken ? condition : new Ast.Expression.Literal(Stdlib.Type.BOOLEAN, true),
+                    statements, Collections.emptyList());
+        }
+        List<Ast.Statement> thenStatements = visitBlock(outer, ast.getThenStatements());
+        Map<String, Ast.Expression.Literal> then = constants;
+        List<Ast.Statement> elseStatements = visitBlock(outer, ast.getElseStatements());
+        constants.entrySet().removeIf(entry -> !entry.getValue().equals(then.get(entry.getKey())));
+        if (condition == ast.getCondition() && thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.If(condition, thenStatements, elseStatements);
+    }
+
+    /**
+     * The body may run any number of times, so nothing it assigns is
+     * constant in the condition or the body, and what it leaves constant is
+     * discarded since it may not run at all. If the condition is false
+     * before the loop, the body never runs and is dropped, leaving an empty
+     * loop for {@link #visitAll(List)} to remove.
+     */
+    @Override
+    public Ast.Statement.While visit(Ast.Statement.While ast) {
+        if (Boolean.FALSE.equals(value(visit(ast.getCondition())))) {
+            return new Ast.Statement.While(new Ast.Expression.Literal(Stdlib.Type.BOOLEAN, false), Collections.emptyList());
+        }
+        Set<String> assigned = new HashSet<>();
+        assigned(ast.getStatements(), assigned);
+        constants.keySet().removeAll(assigned);
+        Ast.Expression condition = visit(ast.getCondition());
+        Map<String, Ast.Expression.Literal> outer = constants;
+        List<Ast.Statement> statements = visitBlock(outer, ast.getStatements());
+        constants = outer;
+        if (condition == ast.getCondition() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.While(condition, statements);
+    }
+
+    @Override
+    public Ast.Expression.Literal visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    /**
+     * A group around a literal is the literal itself.
+     */
+    @Override
+    public Ast.Expression visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = visit(ast.getExpression());
+        if (expression instanceof Ast.Expression.Literal) {
+            return expression;
+        }
+        return expression == ast.getExpression() ? ast : new Ast.Expression.Group(ast.type, expression);
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Binary ast) {
+        Ast.Expression left = visit(ast.getLeft());
+        Ast.Expression right = visit(ast.getRight());
+        if (left instanceof Ast.Expression.Literal && right instanceof Ast.Expression.Literal) {
+            Object value = fold(ast.getType(), ast.getOperator(),
+                    ((Ast.Expression.Literal) left).getValue(), ((Ast.Expression.Literal) right).getValue());
+            if (value != null) {
+                return new Ast.Expression.Literal(ast.getType(), value);
+            }
+        }
+        if (left == ast.getLeft() && right == ast.getRight()) {
+            return ast;
+        }
+        return new Ast.Expression.Binary(ast.type, ast.getOperator(), left, right);
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Variable ast) {
+        Ast.Expression.Literal constant = constants.get(ast.getName());
+        return constant != null && constant.type == ast.type ? constant : ast;
+    }
+
+    @Override
+    public Ast.Expression.Function visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = ast.getArguments();
+        List<Ast.Expression> visited = arguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            Ast.Expression argument = visit(arguments.get(i));
+            if (argument != arguments.get(i) && visited == arguments) {
+                visited = new ArrayList<>(arguments);
+            }
+            if (visited != arguments) {
+                visited.set(i, argument);
+            }
+        }
+        return visited == arguments ? ast : new Ast.Expression.Function(ast.type, ast.getName(), visited, ast.isPure());
+    }
+
+    /**
+     * Statically validates that visiting an expression returns an expression.
+     */
+    private Ast.Expression visit(Ast.Expression ast) {
+        return (Ast.Expression) visit((Ast) ast);
+    }
+
+    /**
+     * Visits the statements of a block starting from a copy of the outer
+     * constants, leaving the constants at the end of the block. Variables
+     * declared in the block are not constant outside it, as a declaration
+     * may shadow an outer variable of the same name.
+     */
+    private List<Ast.Statement> visitBlock(Map<String, Ast.Expression.Literal> outer, List<Ast.Statement> statements) {
+        constants = new HashMap<>(outer);
+        List<Ast.Statement> visited = visitAll(statements);
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.Declaration) {
+                constants.remove(((Ast.Statement.Declaration) statement).getName());
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the statements in order, returning the same list if none of
+     * them changed. Eliminated branches and loops are replaced by the
+     * statements which still run, if any.
+     */
+    private List<Ast.Statement> visitAll(List<Ast.Statement> statements) {
+        List<Ast.Statement> visited = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = (Ast.Statement) visit(statements.get(i));
+            List<Ast.Statement> inlined = inline(statement);
+            if ((statement != statements.get(i) || inlined != null) && visited == statements) {
+                visited = new ArrayList<>(statements.subList(0, i));
+            }
+            if (visited == statements) {
+                continue;
+            } else if (inlined != null) {
+                visited.addAll(inlined);
+            } else {
+                visited.add(statement);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Returns the statements to run in place of an eliminated branch or loop,
+     * or null if the statement is kept.
+     */
+    private static List<Ast.Statement> inline(Ast.Statement statement) {
+        if (statement instanceof Ast.Statement.If) {
+            Ast.Statement.If ast = (Ast.Statement.If) statement;
+            if (Boolean.TRUE.equals(value(ast.getCondition())) && ast.getElseStatements().isEmpty()) {
+                for (Ast.Statement nested : ast.getThenStatements()) {
+                    if (nested instanceof Ast.Statement.Declaration) {
+                        return null;
+                    }
+                }
+                return ast.getThenStatements();
+            }
+        } else if (statement instanceof Ast.Statement.While) {
+            Ast.Statement.While ast = (Ast.Statement.While) statement;
+            if (Boolean.FALSE.equals(value(ast.getCondition()))) {
+                return Collections.emptyList();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of a literal expression, or null for any other.
+     */
+    private static Object value(Ast.Expression ast) {
+        return ast instanceof Ast.Expression.Literal ? ((Ast.Expression.Literal) ast).getValue() : null;
+    }
+
+    /**
+     * Records a literal as the value of a declared variable if the generated
+     * declaration holds the same value, widening integers to decimals.
+     */
+    private void define(String name, String type, Ast.Expression.Literal literal) {
+        if (literal.type != null && literal.type.getJvmName().equals(type)) {
+            constants.put(name, literal);
+        } else if (literal.type == Stdlib.Type.INTEGER && Stdlib.Type.DECIMAL.getJvmName().equals(type)) {
+            constants.put(name, new Ast.Expression.Literal(Stdlib.Type.DECIMAL, ((Integer) literal.getValue()).doubleValue()));
+        }
+    }
+
+    /**
+     * Adds the names assigned anywhere in the statements, including nested
+     * blocks.
+     */
+    private static void assigned(List<Ast.Statement> statements, Set<String> names) {
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.Assignment) {
+                names.add(((Ast.Statement.Assignment) statement).getName());
+            } else if (statement instanceof Ast.Statement.If) {
+                assigned(((Ast.Statement.If) statement).getThenStatements(), names);
+                assigned(((Ast.Statement.If) statement).getElseStatements(), names);
+            } else if (statement instanceof Ast.Statement.While) {
+                assigned(((Ast.Statement.While) statement).getStatements(), names);
+            }
+        }
+    }
+
+    /**
+     * Returns the value the generated Java computes for the operator on the
+     * literal values, as a value of the result type, or null if it is not
+     * folded.
+     */
+    static Object fold(Stdlib.Type type, String operator, Object left, Object right) {
+        if (type == Stdlib.Type.INTEGER && left instanceof Integer && right instanceof Integer) {
+            int l = (Integer) left;
+            int r = (Integer) right;
+            switch (operator) {
+                case "+":
+                    return l + r;
+                case "-":
+                    return l - r;
+                case "*":
+                    return l * r;
+                case "/":
+                    return r == 0 ? null : l / r;
+            }
+        } else if (type == Stdlib.Type.DECIMAL && left instanceof Number && right instanceof Number) {
+            double l = ((Number) left).doubleValue();
+            double r = ((Number) right).doubleValue();
+            double value;
+            switch (operator) {
+                case "+":
+                    value = l + r;
+                    break;
+                case "-":
+                    value = l - r;
+                    break;
+                case "*":
+                    value = l * r;
+                    break;
+                case "/":
+                    value = l / r;
+                    break;
+                default:
+                    return null;
+            }
+            return Double.isInfinite(value) || Double.isNaN(value) ? null : value;
+        } else if (type == Stdlib.Type.STRING && operator.equals("+") && (left instanceof String || right instanceof String)) {
+            return String.valueOf(left) + right;
+        } else if (type == Stdlib.Type.BOOLEAN && (operator.equals("==") || operator.equals("!="))) {
+            Boolean equal = null;
+            if (left instanceof Number && right instanceof Number) {
+                equal = ((Number) left).doubleValue() == ((Number) right).doubleValue();
+            } else if (left instanceof Boolean && right instanceof Boolean) {
+                equal = left.equals(right);
+            }
+            return equal == null ? null : equal == operator.equals("==");
+        }
+        return null;
+    }
+
+}
@@ -2,14 +2,26 @@ package plc.compiler;
 
 public final class ParseException extends RuntimeException {
 
-    private final int index;
+    private final long index;
 
     public ParseException(String message, int index) {
+        this(message, (long) index);
+    }
+
+    public ParseException(String message, long index) {
         super(message);
         this.index = index;
     }
 
+    /**
+     * Returns the index of the error, throwing an {@link ArithmeticException}
+     * if it exceeds the range of an {@code int}; see {@link #getLongIndex()}.
+     */
     public int getIndex() {
+        return Math.toIntExact(index);
+    }
+
+    public long getLongIndex() {
         return index;
     }
 
@@ -4,7 +4,11 @@ import javax.swing.plaf.nimbus.State;
 import java.awt.image.TileObserver;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.regex.PatternSyntaxException;
@@ -21,13 +25,129 @@ import java.util.regex.PatternSyntaxException;
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
  * to calling that functions.
+ *
+ * Tokens are pulled from an {@link Iterator} as the parser needs them, so the
+ * parser can consume a {@link Lexer.TokenSource} directly without the tokens
+ * ever being collected into a list. A {@link TokenBuffer} from {@link
+ * Lexer#buffer(CharSequence)}, or its {@link TokenBuffer#asList()} view, is
+ * read straight out of the buffer instead, so no {@link Token} objects are
+ * created at all.
+ *
+ * Keywords are checked by their reserved {@link Symbols} id through {@link
+ * #peek(int)} and {@link #match(int)} rather than by comparing strings. A
+ * token which did not come from a buffer has its keyword id found once as it
+ * is read ahead, so parsing never reads the shared symbol table.
+ *
+ * A parser created through {@link #iterative(List)} parses without recursing
+ * on nested groups, function arguments, or IF/WHILE blocks; the open groups
+ * and blocks are kept on explicit stacks on the heap instead, so the nesting
+ * depth is only limited by memory. It builds the same trees and throws the
+ * same exceptions as the recursive parser.
+ *
+ * All nodes are created through an {@link AstFactory}, which can be given to
+ * share equal expressions with {@link AstFactory#hashConsing()}.
  */
 public final class Parser {
 
+    private static final int EQUALITY = 1;
+    private static final int ADDITIVE = 2;
+    private static final int MULTIPLICATIVE = 3;
+
+    /**
+     * The binary operators at each precedence level, from the loosest to the
+     * tightest binding starting at {@link #EQUALITY}. All levels are left
+     * associative.
+     */
+    private static final String[][] BINARY_OPERATORS = {
+            {"==", "!="},
+            {"+", "-"},
+            {"*", "/"},
+    };
+
+    /**
+     * The binary operators and their precedence by operator key (see {@link
+     * #getOperatorKey(CharSequence, int, int)}), with a precedence of zero
+     * for operators which are not binary.
+     */
+    private static final String[] OPERATORS = new String[1 << 14];
+    private static final byte[] PRECEDENCE = new byte[1 << 14];
+
+    static {
+        for (int level = 0; level < BINARY_OPERATORS.length; level++) {
+            for (String operator : BINARY_OPERATORS[level]) {
+                int key = getOperatorKey(operator, 0, operator.length());
+                OPERATORS[key] = operator;
+                PRECEDENCE[key] = (byte) (level + 1);
+            }
+        }
+    }
+
+    /**
+     * The powers of ten which are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
     private final TokenStream tokens;
+    private final boolean iterative;
+    private final AstFactory factory;
 
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this(tokens, AstFactory.DEFAULT);
+    }
+
+    public Parser(Iterator<Token> tokens) {
+        this(new TokenStream(tokens), false, AstFactory.DEFAULT);
+    }
+
+    public Parser(TokenBuffer tokens) {
+        this(new TokenStream(tokens), false, AstFactory.DEFAULT);
+    }
+
+    /**
+     * Creates a parser which creates nodes through the factory, such as
+     * {@link AstFactory#hashConsing()}.
+     */
+    public Parser(List<Token> tokens, AstFactory factory) {
+        this(tokens, false, factory);
+    }
+
+    private Parser(List<Token> tokens, boolean iterative, AstFactory factory) {
+        this(tokens instanceof TokenBuffer.TokenList
+                ? new TokenStream(((TokenBuffer.TokenList) tokens).getBuffer())
+                : new TokenStream(tokens.iterator()), iterative, factory);
+    }
+
+    private Parser(TokenStream tokens, boolean iterative, AstFactory factory) {
+        this.tokens = tokens;
+        this.iterative = iterative;
+        this.factory = factory;
+    }
+
+    /**
+     * Creates a parser which parses nested expressions and statements without
+     * recursion, as described above.
+     */
+    public static Parser iterative(List<Token> tokens) {
+        return iterative(tokens, AstFactory.DEFAULT);
+    }
+
+    /**
+     * As with {@link #iterative(List)}, but creating nodes through the
+     * factory.
+     */
+    public static Parser iterative(List<Token> tokens, AstFactory factory) {
+        return new Parser(tokens, true, factory);
+    }
+
+    /**
+     * Creates a parser which parses nested expressions and statements without
+     * recursion, pulling tokens from the iterator.
+     */
+    public static Parser iterative(Iterator<Token> tokens) {
+        return new Parser(new TokenStream(tokens), true, AstFactory.DEFAULT);
     }
 
     /**
@@ -37,6 +157,23 @@ public final class Parser {
         return new Parser(tokens).parseSource();
     }
 
+    /**
+     * Parses the tokens as they are produced by the iterator, such as a
+     * {@link Lexer.TokenSource}, and returns the parsed AST.
+     */
+    public static Ast parse(Iterator<Token> tokens) throws ParseException {
+        return new Parser(tokens).parseSource();
+    }
+
+    /**
+     * Parses the tokens without recursion and returns the parsed AST. This
+     * is intended for generated programs which nest too deeply for {@link
+     * #parse(List)}.
+     */
+    public static Ast parseIteratively(List<Token> tokens) throws ParseException {
+        return iterative(tokens).parseSource();
+    }
+
     /**
      * Parses the {@code source} rule.
      */
@@ -45,7 +182,7 @@ public final class Parser {
         while(tokens.has(0)) {
             parseList.add(parseStatement());
         }
-        return new Ast.Source(parseList);
+        return factory.source(parseList);
     }
 
     /**
@@ -57,11 +194,13 @@ public final class Parser {
     public Ast.Statement parseStatement() throws ParseException {
 
         if(peek(Token.Type.IDENTIFIER)) {
-            if (peek("IF")) {
+            if (iterative && (peek(Symbols.IF) || peek(Symbols.WHILE))) {
+                return parseBlockStatement();
+            } else if (peek(Symbols.IF)) {
                 return parseIfStatement();
-            } else if (peek("WHILE")) {
+            } else if (peek(Symbols.WHILE)) {
                 return parseWhileStatement();
-            } else if (peek("LET")) {
+            } else if (peek(Symbols.LET)) {
                 return parseDeclarationStatement();
             } else if(peekPlus("=")) {
                 return parseAssignmentStatement();
@@ -87,10 +226,10 @@ public final class Parser {
             if(!peek(Token.Type.OPERATOR)){
                 throw new ParseException("uhh", tokens.index);
             }
-            expression = new Ast.Expression.Group(expression);
+            expression = factory.group(expression);
         }
         match(";");
-        return new Ast.Statement.Expression(expression);
+        return factory.expressionStatement(expression);
     }
 
     /**
@@ -98,12 +237,12 @@ public final class Parser {
      * called if the next tokens start a declaration statement, aka {@code let}.
      */
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
-        match("LET");
+        match(Symbols.LET);
 
         if(!peek(Token.Type.IDENTIFIER)){
             throw new ParseException("missing identifier after let",tokens.index);
         }
-        String name = tokens.get(0).getLiteral();
+        String name = tokens.getLiteral(0);
         match(Token.Type.IDENTIFIER);
 
         if(!peek(Token.Type.OPERATOR) || !match(":")){
@@ -113,19 +252,19 @@ public final class Parser {
         if(!peek(Token.Type.IDENTIFIER)){
             throw new ParseException("missing identifier after :",tokens.index);
         }
-        String type = tokens.get(0).getLiteral();
+        String type = tokens.getLiteral(0);
         match(Token.Type.IDENTIFIER);
 
         if(peek(Token.Type.OPERATOR) && peek("=")){
             match(Token.Type.OPERATOR);
             Ast.Expression expression = parseExpression();
             while(!peek(Token.Type.OPERATOR) && !peek(";")){
-                expression = new Ast.Expression.Group(expression);
+                expression = factory.group(expression);
             }
             match(";");
-            return new Ast.Statement.Declaration(name,type,Optional.of(expression));
+            return factory.declaration(name,type,Optional.of(expression));
         }else if(peek(Token.Type.OPERATOR) && match(";")){
-            return new Ast.Statement.Declaration(name,type,Optional.empty());
+            return factory.declaration(name,type,Optional.empty());
         }
 
         throw new ParseException("missing ; at end", tokens.index);
@@ -137,7 +276,7 @@ public final class Parser {
      * {@code identifier} followed by {@code =}.
      */
     public Ast.Statement.Assignment parseAssignmentStatement() throws ParseException {
-        String name = tokens.get(0).getLiteral();
+        String name = tokens.getLiteral(0);
         match(Token.Type.IDENTIFIER);
         if(!peek(Token.Type.OPERATOR) || !match("=")){
             throw new ParseException("missing equals", tokens.index);
@@ -150,10 +289,10 @@ public final class Parser {
             if(!peek(Token.Type.OPERATOR)){
                 throw new ParseException("uhh", tokens.index);
             }
-            expression = new Ast.Expression.Group(expression);
+            expression = factory.group(expression);
         }
         match(";");
-        return new Ast.Statement.Assignment(name,expression);
+        return factory.assignment(name,expression);
     }
 
     /**
@@ -161,145 +300,375 @@ public final class Parser {
      * if the next tokens start an if statement, aka {@code if}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
-        match("IF");
-        if(peek("THEN")){
-            throw new ParseException("Missing expr", tokens.index);
+        if (iterative) {
+            return (Ast.Statement.If) parseBlockStatement();
         }
-
-        Ast.Expression expression = parseExpression();
-        while(!peek(Token.Type.IDENTIFIER) && !peek("THEN")){
-            expression = new Ast.Expression.Group(expression);
-        }
-
-        if(!peek("THEN")){
-            throw new ParseException("Missing then", tokens.index);
-        }
-        match(Token.Type.IDENTIFIER);
+        Ast.Expression expression = parseIfCondition();
 
         List<Ast.Statement> thenStatements = new ArrayList<>();
-        while(!(peek(Token.Type.IDENTIFIER) && (peek("ELSE") || peek("END")))){
+        while(!(peek(Token.Type.IDENTIFIER) && (peek(Symbols.ELSE) || peek(Symbols.END)))){
             thenStatements.add(parseStatement());
         }
 
         List<Ast.Statement> elseStatements = new ArrayList<>();
-        if (peek(Token.Type.IDENTIFIER) && peek("ELSE")){
-            match(Token.Type.IDENTIFIER);
-            if(peek("END")){
-                throw new ParseException("missing else expr", tokens.index);
-            }
-            while (!(peek(Token.Type.IDENTIFIER) && peek("END"))) {
+        if (matchElse()){
+            while (!(peek(Token.Type.IDENTIFIER) && peek(Symbols.END))) {
                 elseStatements.add(parseStatement());
             }
         }
 
-        if(peek(Token.Type.IDENTIFIER) && peek("END")){
-            match("END");
-            return new Ast.Statement.If(expression,thenStatements,elseStatements);
+        if(peek(Token.Type.IDENTIFIER) && peek(Symbols.END)){
+            match(Symbols.END);
+            return factory.ifStatement(expression,thenStatements,elseStatements);
         }
         throw new ParseException("missing END", tokens.index);
     }
 
+    /**
+     * Parses the {@code if} keyword, condition and {@code then} keyword of an
+     * if statement, returning the condition.
+     */
+    private Ast.Expression parseIfCondition() throws ParseException {
+        match(Symbols.IF);
+        if(peek(Symbols.THEN)){
+            throw new ParseException("Missing expr", tokens.index);
+        }
+
+        Ast.Expression expression = parseExpression();
+        while(!peek(Token.Type.IDENTIFIER) && !peek(Symbols.THEN)){
+            expression = factory.group(expression);
+        }
+
+        if(!peek(Symbols.THEN)){
+            throw new ParseException("Missing then", tokens.index);
+        }
+        match(Token.Type.IDENTIFIER);
+        return expression;
+    }
+
+    /**
+     * Matches the {@code else} keyword of an if statement if present, which
+     * must be followed by at least one statement.
+     */
+    private boolean matchElse() throws ParseException {
+        if (!(peek(Token.Type.IDENTIFIER) && peek(Symbols.ELSE))) {
+            return false;
+        }
+        match(Token.Type.IDENTIFIER);
+        if(peek(Symbols.END)){
+            throw new ParseException("missing else expr", tokens.index);
+        }
+        return true;
+    }
+
     /**
      * Parses the {@code while-statement} rule. This method should only be
      * called if the next tokens start a while statement, aka {@code while}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
-        match("WHILE");
-        if(peek("DO")){
+        if (iterative) {
+            return (Ast.Statement.While) parseBlockStatement();
+        }
+        Ast.Expression condition = parseWhileCondition();
+
+        List<Ast.Statement> statements = new ArrayList<>();
+        while(!(peek(Token.Type.IDENTIFIER) && peek(Symbols.END)) && tokens.has(0)){
+            statements.add(parseStatement());
+        }
+        if(!match(Symbols.END)){
+            throw new ParseException("missing END", tokens.index);
+        };
+
+        return factory.whileStatement(condition, statements);
+    }
+
+    /**
+     * Parses the {@code while} keyword, condition and {@code do} keyword of a
+     * while statement, returning the condition.
+     */
+    private Ast.Expression parseWhileCondition() throws ParseException {
+        match(Symbols.WHILE);
+        if(peek(Symbols.DO)){
             throw new ParseException("missing expr", tokens.index);
         }
         Ast.Expression condition = parseExpression();
-        while(!peek(Token.Type.IDENTIFIER) && !peek("DO")){
-            condition = new Ast.Expression.Group(condition);
+        while(!peek(Token.Type.IDENTIFIER) && !peek(Symbols.DO)){
+            condition = factory.group(condition);
         }
-        if(!match("DO")){
+        if(!match(Symbols.DO)){
             throw new ParseException("missing do", tokens.index);
         }
+        return condition;
+    }
 
-        List<Ast.Statement> statements = new ArrayList<>();
-        while(!(peek(Token.Type.IDENTIFIER) && peek("END")) && tokens.index != tokens.tokens.size()){
-            statements.add(parseStatement());
+    /**
+     * Parses an if or while statement and all blocks nested within it
+     * without recursion. Each open block is kept on a stack until its
+     * {@code end}, at which point the finished statement is added to the
+     * enclosing block.
+     */
+    private Ast.Statement parseBlockStatement() throws ParseException {
+        Deque<Block> blocks = new ArrayDeque<>();
+        Block block = openBlock();
+        while (true) {
+            if (!block.isClosing()) {
+                if (peek(Symbols.IF) || peek(Symbols.WHILE)) {
+                    blocks.push(block);
+                    block = openBlock();
+                } else {
+                    block.statements.add(parseStatement());
+                }
+                continue;
+            }
+            if (block.loop) {
+                if(!match(Symbols.END)){
+                    throw new ParseException("missing END", tokens.index);
+                }
+            } else if (block.elseStatements == null && matchElse()) {
+                block.elseStatements = block.statements = new ArrayList<>();
+                continue;
+            } else {
+                match(Symbols.END);
+            }
+            Ast.Statement statement = block.close();
+            if (blocks.isEmpty()) {
+                return statement;
+            }
+            block = blocks.pop();
+            block.statements.add(statement);
+        }
+    }
+
+    private Block openBlock() throws ParseException {
+        return peek(Symbols.IF) ? new Block(false, parseIfCondition()) : new Block(true, parseWhileCondition());
+    }
+
+    /**
+     * An if or while statement being parsed by {@link #parseBlockStatement()}.
+     */
+    private final class Block {
+
+        private final boolean loop;
+        private final Ast.Expression condition;
+        private final List<Ast.Statement> thenStatements = new ArrayList<>();
+        private List<Ast.Statement> elseStatements;
+        private List<Ast.Statement> statements = thenStatements;
+
+        private Block(boolean loop, Ast.Expression condition) {
+            this.loop = loop;
+            this.condition = condition;
+        }
+
+        /**
+         * Returns true if the next token ends the block (or the then part of
+         * an if), in the same way as the loops in {@link #parseIfStatement()}
+         * and {@link #parseWhileStatement()}.
+         */
+        private boolean isClosing() {
+            if (loop) {
+                return (peek(Token.Type.IDENTIFIER) && peek(Symbols.END)) || !tokens.has(0);
+            } else if (elseStatements == null) {
+                return peek(Token.Type.IDENTIFIER) && (peek(Symbols.ELSE) || peek(Symbols.END));
+            }
+            return peek(Token.Type.IDENTIFIER) && peek(Symbols.END);
+        }
+
+        private Ast.Statement close() {
+            if (loop) {
+                return factory.whileStatement(condition, thenStatements);
+            }
+            return factory.ifStatement(condition, thenStatements,
+                    elseStatements != null ? elseStatements : new ArrayList<>());
         }
-        if(!match("END")){
-            throw new ParseException("missing END", tokens.index);
-        };
 
-        return new Ast.Statement.While(condition, statements);
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expression parseExpression() throws ParseException {
-        return parseEqualityExpression();
+        return iterative ? parseExpressionIteratively() : parseBinaryExpression(EQUALITY);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expression parseEqualityExpression() throws ParseException {
-        Ast.Expression expression = parseAdditiveExpression();
-        if(!peek(Token.Type.OPERATOR) || !(peek("!=") || peek("=="))){
-            return expression;
-//            throw new ParseException("missing operator", tokens.index);
-        }
-        String operator = tokens.get(0).getLiteral();
-        match(Token.Type.OPERATOR);
-        Ast.Expression right = parseAdditiveExpression();
-        expression = new Ast.Expression.Binary(operator, expression, right);
-        while(peek(Token.Type.OPERATOR) && (peek("==") || peek("!="))){
-            operator = tokens.get(0).getLiteral();
-            match(Token.Type.OPERATOR);
-            right = parseAdditiveExpression();
-            expression = new Ast.Expression.Binary(operator, expression, right);
-        }
-        return expression;
+        return parseBinaryExpression(EQUALITY);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-        Ast.Expression expression = parseMultiplicativeExpression();
-        if(!peek(Token.Type.OPERATOR) || !(peek("+") || peek("-"))){
-            return expression;
-//            throw new ParseException("missing operator", tokens.index);
-        }
-        String operator = tokens.get(0).getLiteral();
-        match(Token.Type.OPERATOR);
-        Ast.Expression right = parseMultiplicativeExpression();
-        expression = new Ast.Expression.Binary(operator, expression, right);
-        while(peek(Token.Type.OPERATOR) && (peek("+") || peek("-"))){
-            operator = tokens.get(0).getLiteral();
-            match(Token.Type.OPERATOR);
-            right = parseMultiplicativeExpression();
-            expression = new Ast.Expression.Binary(operator, expression, right);
-        }
-        return expression;
+        return parseBinaryExpression(ADDITIVE);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException {
+        return parseBinaryExpression(MULTIPLICATIVE);
+    }
+
+    /**
+     * Parses a chain of binary operators with at least the given precedence by
+     * precedence climbing. Operators of the same precedence are folded into
+     * the left operand, while the right operand of each operator only takes
+     * operators which bind tighter, so {@code a - b * c - d} parses as {@code
+     * (a - (b * c)) - d} exactly as the one-method-per-level rules did.
+     *
+     * Each operator is looked up once in {@link #PRECEDENCE}, so the cost per
+     * token does not depend on the number of precedence levels.
+     */
+    private Ast.Expression parseBinaryExpression(int minimum) throws ParseException {
         Ast.Expression expression = parsePrimaryExpression();
-        if(!peek(Token.Type.OPERATOR) || !(peek("*") || peek("/"))){
-            return expression;
-//            throw new ParseException("missing operator", tokens.index);
-        }
-        String operator = tokens.get(0).getLiteral();
-        match(Token.Type.OPERATOR);
-        Ast.Expression right = parsePrimaryExpression();
-        expression = new Ast.Expression.Binary(operator, expression, right);
-        while(peek(Token.Type.OPERATOR) && (peek("*") || peek("/"))){
-            operator = tokens.get(0).getLiteral();
-            match(Token.Type.OPERATOR);
-            right = parsePrimaryExpression();
-            expression = new Ast.Expression.Binary(operator, expression, right);
+        int operator = tokens.getOperator(0);
+        while (operator >= 0 && PRECEDENCE[operator] >= minimum) {
+            tokens.advance();
+            Ast.Expression right = parseBinaryExpression(PRECEDENCE[operator] + 1);
+            expression = factory.binary(OPERATORS[operator], expression, right);
+            operator = tokens.getOperator(0);
         }
         return expression;
     }
 
+    /**
+     * Parses the {@code expression} rule without recursion. This is the same
+     * precedence climbing as {@link #parseBinaryExpression(int)}, except the
+     * pending operands and operators are kept on explicit stacks, and each
+     * group or function call opens a new {@link Nesting} rather than calling
+     * back into this method. Operators of a nesting are reduced (folded into
+     * {@link Ast.Expression.Binary} expressions) whenever an operator of the
+     * same or lower precedence follows, and all at once when the nesting ends.
+     */
+    private Ast.Expression parseExpressionIteratively() throws ParseException {
+        Deque<Nesting> nestings = new ArrayDeque<>();
+        Nesting nesting = new Nesting(null, 0);
+        List<Ast.Expression> operands = new ArrayList<>();
+        int[] operators = new int[16];
+        int count = 0;
+        while (true) {
+            Ast.Expression operand;
+            if (peekLiteral()) {
+                operand = parseLiteralExpression();
+            } else if (peek(Token.Type.OPERATOR) && peek("(")) {
+                match("(");
+                nestings.push(nesting);
+                nesting = new Nesting(null, count);
+                continue;
+            } else if (peek(Token.Type.IDENTIFIER)) {
+                String name = tokens.getLiteral(0);
+                match(Token.Type.IDENTIFIER);
+                if (!peek(Token.Type.OPERATOR) || !peek("(")) {
+                    operand = factory.variable(name);
+                } else {
+                    match("(");
+                    if (peek(Token.Type.OPERATOR) && peek(")")) {
+                        operand = factory.function(name, new ArrayList<>());
+                    } else {
+                        nestings.push(nesting);
+                        nesting = new Nesting(name, count);
+                        continue;
+                    }
+                }
+            } else {
+                throw new ParseException("missing operand", tokens.index);
+            }
+            operands.add(operand);
+
+            while (true) {
+                int operator = tokens.getOperator(0);
+                if (operator >= 0 && PRECEDENCE[operator] > 0) {
+                    count = reduce(operands, operators, count, nesting.operators, PRECEDENCE[operator]);
+                    if (count == operators.length) {
+                        operators = Arrays.copyOf(operators, 2 * count);
+                    }
+                    operators[count++] = operator;
+                    tokens.advance();
+                    break;
+                }
+                count = reduce(operands, operators, count, nesting.operators, 0);
+                Ast.Expression expression = operands.remove(operands.size() - 1);
+                if (nestings.isEmpty()) {
+                    return expression;
+                } else if (nesting.arguments == null) {
+                    if(!peek(Token.Type.OPERATOR) || !match(")")){
+                        throw new ParseException("missing )", tokens.index);
+                    }
+                    operands.add(factory.group(expression));
+                } else if (nesting.addArgument(expression)) {
+                    break;
+                } else {
+                    operands.add(factory.function(nesting.name, nesting.arguments));
+                }
+                nesting = nestings.pop();
+            }
+        }
+    }
+
+    /**
+     * Reduces the operators on the stack above the given base which have at
+     * least the given precedence, returning the new number of operators.
+     */
+    private int reduce(List<Ast.Expression> operands, int[] operators, int count, int base, int precedence) {
+        while (count > base && PRECEDENCE[operators[count - 1]] >= precedence) {
+            Ast.Expression right = operands.remove(operands.size() - 1);
+            Ast.Expression left = operands.remove(operands.size() - 1);
+            operands.add(factory.binary(OPERATORS[operators[--count]], left, right));
+        }
+        return count;
+    }
+
+    /**
+     * A group or the arguments of a function call being parsed by {@link
+     * #parseExpressionIteratively()}, recording where its operators start on
+     * the operator stack.
+     */
+    private final class Nesting {
+
+        private final String name;
+        private final List<Ast.Expression> arguments;
+        private final int operators;
+
+        private Nesting(String name, int operators) {
+            this.name = name;
+            this.arguments = name != null ? new ArrayList<>() : null;
+            this.operators = operators;
+        }
+
+        /**
+         * Adds the argument to the function call and matches the tokens
+         * following it in the same way as {@link #parsePrimaryExpression()},
+         * returning true if another argument follows or false if the call has
+         * ended.
+         */
+        private boolean addArgument(Ast.Expression argument) throws ParseException {
+            arguments.add(argument);
+            if (arguments.size() == 1) {
+                if (peek(")")){
+                    return false;
+                }else if(!peek(",")){
+                    throw new ParseException("missing closing paren", tokens.index);
+                }
+            }
+            while(peek(Token.Type.OPERATOR) && peek(",")){
+                match(",");
+                if(peek(")")){
+                    throw new ParseException("missing arg", tokens.index);
+                }
+                if(!peek(Token.Type.OPERATOR) && !peek(")")){
+                    return true;
+                }
+            }
+            if(!match(")")){
+                throw new ParseException("missing comma", tokens.index);
+            }
+            return false;
+        }
+
+    }
+
     /**
      * Parses the {@code primary-expression} rule. This is the top-level rule
      * for expressions and includes literal values, grouping, variables, and
@@ -307,49 +676,29 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expression parsePrimaryExpression() throws ParseException {
-        if(peek(Token.Type.IDENTIFIER) && (peek("TRUE")) || peek("FALSE")){
-            Object temp;
-            if(peek("TRUE")){
-                temp = true;
-            }else{
-                temp = false;
-            }
-            match(Token.Type.IDENTIFIER);
-            return new Ast.Expression.Literal(temp);
-        }else if(peek(Token.Type.INTEGER)){
-            Object temp = new BigInteger(tokens.get(0).getLiteral());
-            match(Token.Type.INTEGER);
-            return new Ast.Expression.Literal(temp);
-        }else if(peek(Token.Type.DECIMAL)){
-            Object temp = new BigDecimal(tokens.get(0).getLiteral());
-            match(Token.Type.DECIMAL);
-            return new Ast.Expression.Literal(temp);
-        }else if(peek(Token.Type.STRING)){
-            String temp = tokens.get(0).getLiteral();
-            temp = temp.substring(1,temp.length()-1);
-            match(Token.Type.STRING);
-            return new Ast.Expression.Literal(temp);
+        if(peekLiteral()){
+            return parseLiteralExpression();
         }else if(peek(Token.Type.OPERATOR) && peek("(")){
             match("(");
             Ast.Expression expression = parseExpression();
             if(!peek(Token.Type.OPERATOR) || !match(")")){
                 throw new ParseException("missing )", tokens.index);
             }
-            return new Ast.Expression.Group(expression);
+            return factory.group(expression);
         }else if(peek(Token.Type.IDENTIFIER)) {
-            String name = tokens.get(0).getLiteral();
+            String name = tokens.getLiteral(0);
             match(Token.Type.IDENTIFIER);
             List<Ast.Expression> arguments = new ArrayList<>();
             if (!peek(Token.Type.OPERATOR) || !peek("(")) {
-                return new Ast.Expression.Variable(name);
+                return factory.variable(name);
             }
             match("(");
             if (peek(Token.Type.OPERATOR) && peek(")")) {
-                return new Ast.Expression.Function(name, arguments);
+                return factory.function(name, arguments);
             }
             arguments.add(parseExpression());
             if (peek(")")){
-                return new Ast.Expression.Function(name, arguments);
+                return factory.function(name, arguments);
             }else if(!peek(",")){
                 throw new ParseException("missing closing paren", tokens.index);
             }
@@ -367,10 +716,102 @@ public final class Parser {
                 throw new ParseException("missing comma", tokens.index);
             }
 
-            return new Ast.Expression.Function(name, arguments);
+            return factory.function(name, arguments);
         }
 
-        throw new UnsupportedOperationException();
+        throw new ParseException("missing operand", tokens.index);
+    }
+
+    /**
+     * Returns true if the next token is a boolean, integer, decimal or string
+     * literal.
+     */
+    private boolean peekLiteral() {
+        return peek(Symbols.TRUE) || peek(Symbols.FALSE) || peek(Token.Type.INTEGER)
+                || peek(Token.Type.DECIMAL) || peek(Token.Type.STRING);
+    }
+
+    /**
+     * Parses the literal value of a primary expression, which must be next as
+     * checked by {@link #peekLiteral()}.
+     */
+    private Ast.Expression.Literal parseLiteralExpression() throws ParseException {
+        if(peek(Symbols.TRUE) || peek(Symbols.FALSE)){
+            Object temp;
+            if(peek(Symbols.TRUE)){
+                temp = true;
+            }else{
+                temp = false;
+            }
+            match(Token.Type.IDENTIFIER);
+            return factory.literal(temp);
+        }else if(peek(Token.Type.INTEGER)){
+            Object temp = parseIntegerValue();
+            match(Token.Type.INTEGER);
+            return factory.literal(temp);
+        }else if(peek(Token.Type.DECIMAL)){
+            Object temp = parseDecimalValue();
+            match(Token.Type.DECIMAL);
+            return factory.literal(temp);
+        }
+        String temp = tokens.getLiteral(0);
+        temp = temp.substring(1,temp.length()-1);
+        match(Token.Type.STRING);
+        return factory.literal(temp);
+    }
+
+    /**
+     * Returns the value of the integer literal as a {@link Long}, which is
+     * accumulated directly from the digits of the token, or as a {@link
+     * BigInteger} if it does not fit in a long.
+     */
+    private Object parseIntegerValue() {
+        int length = tokens.getLength(0);
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = tokens.charAt(0, i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return new BigInteger(tokens.getLiteral(0));
+            }
+            value = 10 * value + digit;
+        }
+        return length > 0 ? (Object) value : new BigInteger(tokens.getLiteral(0));
+    }
+
+    /**
+     * Returns the value of the decimal literal as a {@link Double}. If the
+     * digits fit in the 53 bit mantissa of a double and there are at most 22
+     * digits after the point, both the digits and the power of ten are exact
+     * and a single (correctly rounded) division gives the value. Otherwise
+     * the literal is parsed as a {@link BigDecimal}, which is kept if it is
+     * out of the range of a double.
+     */
+    private Object parseDecimalValue() {
+        int length = tokens.getLength(0);
+        long mantissa = 0;
+        int scale = -1;
+        for (int i = 0; i < length; i++) {
+            char c = tokens.charAt(0, i);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || mantissa > ((1L << 53) - digit) / 10) {
+                scale = -1;
+                break;
+            }
+            mantissa = 10 * mantissa + digit;
+            if (scale >= 0) {
+                scale++;
+            }
+        }
+        if (scale > 0 && scale < POWERS_OF_TEN.length) {
+            return mantissa / POWERS_OF_TEN[scale];
+        }
+        BigDecimal decimal = new BigDecimal(tokens.getLiteral(0));
+        double value = decimal.doubleValue();
+        return Double.isInfinite(value) ? decimal : (Object) value;
     }
 
     /**
@@ -388,11 +829,11 @@ public final class Parser {
             if (!tokens.has(i)) {
                 return false;
             } else if (patterns[i] instanceof Token.Type) {
-                if (patterns[i] != tokens.get(i).getType()) {
+                if (patterns[i] != tokens.getType(i)) {
                     return false;
                 }
             } else if (patterns[i] instanceof String) {
-                if (!patterns[i].equals(tokens.get(i).getLiteral())) {
+                if (!tokens.matches(i, (String) patterns[i])) {
                     return false;
                 }
             } else {
@@ -402,30 +843,48 @@ public final class Parser {
         return true;
     }
 
+    /**
+     * Returns {@code true} if the patterns match the tokens starting one token
+     * after the current token, in the same way as {@link #peek(Object...)}.
+     */
     private boolean peekPlus(Object... patterns) {
-        tokens.index++;
         for (int i = 0; i < patterns.length; i++) {
-            if (!tokens.has(i)) {
-                tokens.index--;
+            if (!tokens.has(i + 1)) {
                 return false;
             } else if (patterns[i] instanceof Token.Type) {
-                if (patterns[i] != tokens.get(i).getType()) {
-                    tokens.index--;
+                if (patterns[i] != tokens.getType(i + 1)) {
                     return false;
                 }
             } else if (patterns[i] instanceof String) {
-                if (!patterns[i].equals(tokens.get(i).getLiteral())) {
-                    tokens.index--;
+                if (!tokens.matches(i + 1, (String) patterns[i])) {
                     return false;
                 }
             } else {
                 throw new AssertionError();
             }
         }
-        tokens.index--;
         return true;
     }
 
+    /**
+     * Returns {@code true} if the current token is an identifier with the given
+     * symbol id, which is how keywords such as {@link Symbols#IF} are matched.
+     */
+    private boolean peek(int symbol) {
+        return tokens.has(0) && tokens.getType(0) == Token.Type.IDENTIFIER && tokens.getSymbol(0) == symbol;
+    }
+
+    /**
+     * As with {@link #peek(int)}, but also advances the token stream.
+     */
+    private boolean match(int symbol) {
+        boolean peek = peek(symbol);
+        if (peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
     /**
      * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
      * and advances the token stream.
@@ -440,33 +899,155 @@ public final class Parser {
         return peek;
     }
 
+    /**
+     * Returns a key for an operator of one or two ASCII characters which is
+     * unique and less than {@code 1 << 14}, or {@code -1} for any other
+     * operator.
+     */
+    private static int getOperatorKey(CharSequence literal, int start, int length) {
+        char first = length > 0 ? literal.charAt(start) : 0;
+        char second = length > 1 ? literal.charAt(start + 1) : 0;
+        if (length == 0 || length > 2 || first >= 128 || second >= 128 || (length == 2 && second == 0)) {
+            return -1;
+        }
+        return second << 7 | first;
+    }
+
+    /**
+     * Provides the tokens the parser is currently looking at, either directly
+     * out of a {@link TokenBuffer} or from an iterator. For an iterator only
+     * as many tokens as the parser has looked ahead are held at once, which is
+     * at most two for this grammar.
+     */
     private static final class TokenStream {
 
-        private final List<Token> tokens;
+        private final TokenBuffer buffer;
+        private final Iterator<Token> tokens;
+        private Token[] lookahead;
+        private int[] symbols;
+        private int buffered = 0;
         private int index = 0;
 
-        private TokenStream(List<Token> tokens) {
+        private TokenStream(TokenBuffer buffer) {
+            this.buffer = buffer;
+            this.tokens = null;
+        }
+
+        private TokenStream(Iterator<Token> tokens) {
+            this.buffer = null;
             this.tokens = tokens;
+            this.lookahead = new Token[2];
+            this.symbols = new int[2];
         }
 
         /**
          * Returns true if there is a token at index + offset.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            if (buffer != null) {
+                return index + offset < buffer.size();
+            }
+            while (buffered <= offset && tokens.hasNext()) {
+                if (buffered == lookahead.length) {
+                    lookahead = Arrays.copyOf(lookahead, 2 * lookahead.length);
+                    symbols = Arrays.copyOf(symbols, 2 * symbols.length);
+                }
+                Token token = tokens.next();
+                symbols[buffered] = token.getType() == Token.Type.IDENTIFIER ? Symbols.keyword(token.getLiteral()) : -1;
+                lookahead[buffered++] = token;
+            }
+            return offset < buffered;
         }
 
         /**
          * Gets the token at index + offset.
          */
         public Token get(int offset) {
-            return tokens.get(index + offset);
+            if (!has(offset)) {
+                throw new IndexOutOfBoundsException("No token at " + (index + offset) + ".");
+            }
+            return buffer != null ? buffer.get(index + offset) : lookahead[offset];
+        }
+
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public Token.Type getType(int offset) {
+            return buffer != null ? buffer.getType(index + offset) : get(offset).getType();
+        }
+
+        /**
+         * Gets the symbol id of the identifier at index + offset. Tokens which
+         * did not come from a buffer only have the reserved ids of keywords,
+         * found once as they are read ahead, and {@code -1} for any other
+         * identifier, which is enough to compare them with keywords.
+         */
+        public int getSymbol(int offset) {
+            if (buffer != null) {
+                return buffer.getSymbol(index + offset);
+            }
+            get(offset);
+            return symbols[offset];
+        }
+
+        /**
+         * Gets the literal of the token at index + offset.
+         */
+        public String getLiteral(int offset) {
+            return buffer != null ? buffer.getLiteral(index + offset) : get(offset).getLiteral();
+        }
+
+        /**
+         * Gets the key of the operator at index + offset as defined by {@link
+         * #getOperatorKey(CharSequence, int, int)}, or {@code -1} if there is
+         * no token or it is not an operator.
+         */
+        public int getOperator(int offset) {
+            if (!has(offset) || getType(offset) != Token.Type.OPERATOR) {
+                return -1;
+            } else if (buffer != null) {
+                return getOperatorKey(buffer.getSource(), buffer.getStart(index + offset), buffer.getLength(index + offset));
+            }
+            String literal = get(offset).getLiteral();
+            return getOperatorKey(literal, 0, literal.length());
+        }
+
+        /**
+         * Gets the length of the literal of the token at index + offset.
+         */
+        public int getLength(int offset) {
+            return buffer != null ? buffer.getLength(index + offset) : get(offset).getLiteral().length();
+        }
+
+        /**
+         * Gets the character at the given position in the literal of the
+         * token at index + offset, without copying the literal out of a
+         * buffer.
+         */
+        public char charAt(int offset, int position) {
+            if (buffer != null) {
+                return buffer.getSource().charAt(buffer.getStart(index + offset) + position);
+            }
+            return get(offset).getLiteral().charAt(position);
+        }
+
+        /**
+         * Returns true if the literal of the token at index + offset is equal
+         * to the given literal.
+         */
+        public boolean matches(int offset, String literal) {
+            return buffer != null ? buffer.matches(index + offset, literal) : literal.equals(get(offset).getLiteral());
         }
 
         /**
          * Advances to the next token, incrementing the index.
          */
         public void advance() {
+            if (buffer == null && has(0)) {
+                System.arraycopy(lookahead, 1, lookahead, 0, --buffered);
+                System.arraycopy(symbols, 1, symbols, 0, buffered);
+                lookahead[buffered] = null;
+            }
             index++;
         }
 
@@ -0,0 +1,291 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Raises an {@link Ir} back into an {@link Ast.Source} for the {@link
+ * Generator}, recovering the If and While statements from the shape of the
+ * graph as built by the {@link Lowerer}.
+ *
+ * A branch at the target of a back edge is a While, with the condition
+ * computed by its block, and any other branch is an If whose branches run up
+ * to the block immediately postdominating it. A call whose result is not used
+ * is a statement, and any other call is an expression like the definitions.
+ * A temporary defined and used once within a block is inlined into the
+ * expression using it, with groups where the precedence of the operators
+ * requires them, and any other temporary is declared as a variable named
+ * {@code $r} and its number, which no identifier or {@link Hoister} temporary
+ * can clash with. Raising a graph without this shape throws an {@link
+ * IllegalStateException}.
+ */
+public final class Raiser {
+
+    private final Ir ir;
+    private final Set<Ir.Block> headers = new HashSet<>();
+    private final Map<Ir.Block, Ir.Block> postdominators = new HashMap<>();
+    private final Map<Ir.Register, Integer> uses = new HashMap<>();
+    private final Map<Ir.Register, Integer> definitions = new HashMap<>();
+    private final Set<Ir.Register> declared = new HashSet<>();
+    private final Map<Ir.Register, Ast.Expression> pending = new LinkedHashMap<>();
+
+    public Raiser(Ir ir) {
+        this.ir = ir;
+    }
+
+    public Ast.Source raise() {
+        findHeaders(ir.getEntry(), new HashSet<>(), new HashSet<>());
+        findPostdominators();
+        for (Ir.Block block : ir.getBlocks()) {
+            for (Ir.Instruction instruction : block.getInstructions()) {
+                count(uses, instruction.getOperands());
+                if (instruction instanceof Ir.Instruction.Definition && ((Ir.Instruction.Definition) instruction).getTarget() != null) {
+                    definitions.merge(((Ir.Instruction.Definition) instruction).getTarget(), 1, Integer::sum);
+                }
+            }
+            if (block.getTerminator() instanceof Ir.Terminator.Branch) {
+                uses.merge(((Ir.Terminator.Branch) block.getTerminator()).getCondition(), 1, Integer::sum);
+            }
+        }
+        return new Ast.Source(walk(ir.getEntry(), null));
+    }
+
+    /**
+     * Returns the statements from the block up to, but not including, the
+     * given block, or to the end of the program if it is null.
+     */
+    private List<Ast.Statement> walk(Ir.Block block, Ir.Block until) {
+        List<Ast.Statement> statements = new ArrayList<>();
+        while (block != until) {
+            if (headers.contains(block)) {
+                List<Ast.Statement> evaluated = new ArrayList<>();
+                emit(block, evaluated);
+                Ir.Terminator.Branch branch = (Ir.Terminator.Branch) block.getTerminator();
+                Ast.Expression condition = operand(branch.getCondition());
+                if (!evaluated.isEmpty() || !pending.isEmpty()) {
+                    throw new IllegalStateException("The loop header " + block + " computes more than its condition.");
+                }
+                statements.add(new Ast.Statement.While(condition, walk(branch.getThen(), block)));
+                block = branch.getOtherwise();
+                continue;
+            }
+            emit(block, statements);
+            Ir.Terminator terminator = block.getTerminator();
+            if (terminator instanceof Ir.Terminator.Jump) {
+                flush(statements);
+                block = ((Ir.Terminator.Jump) terminator).getTarget();
+            } else if (terminator instanceof Ir.Terminator.Branch) {
+                Ir.Terminator.Branch branch = (Ir.Terminator.Branch) terminator;
+                Ast.Expression condition = operand(branch.getCondition());
+                flush(statements);
+                Ir.Block join = postdominators.get(block);
+                statements.add(new Ast.Statement.If(condition,
+                        walk(branch.getThen(), join),
+                        walk(branch.getOtherwise(), join)));
+                block = join;
+            } else {
+                flush(statements);
+                if (until != null) {
+                    throw new IllegalStateException("The program returns before " + until + ".");
+                }
+                break;
+            }
+        }
+        return statements;
+    }
+
+    private void emit(Ir.Block block, List<Ast.Statement> statements) {
+        for (Ir.Instruction instruction : block.getInstructions()) {
+            if (instruction instanceof Ir.Instruction.Call && isDiscarded(((Ir.Instruction.Call) instruction).getTarget())) {
+                Ir.Register target = ((Ir.Instruction.Call) instruction).getTarget();
+                Ast.Expression.Function call = call((Ir.Instruction.Call) instruction, target != null ? target.getType() : Stdlib.Type.VOID);
+                flush(statements);
+                statements.add(new Ast.Statement.Expression(call));
+            } else if (instruction instanceof Ir.Instruction.Declare) {
+                Ir.Register variable = ((Ir.Instruction.Declare) instruction).getVariable();
+                flush(statements);
+                declared.add(variable);
+                statements.add(new Ast.Statement.Declaration(name(variable), variable.getType().getJvmName(), Optional.empty()));
+            } else {
+                Ir.Instruction.Definition definition = (Ir.Instruction.Definition) instruction;
+                Ir.Register target = definition.getTarget();
+                Ast.Expression value = expression(definition);
+                if (target.isTemporary() && uses.getOrDefault(target, 0) == 1 && definitions.get(target) == 1) {
+                    pending.put(target, value);
+                } else {
+                    flush(statements);
+                    assign(target, value, statements);
+                }
+            }
+        }
+    }
+
+    private Ast.Expression expression(Ir.Instruction.Definition definition) {
+        if (definition instanceof Ir.Instruction.Constant) {
+            return new Ast.Expression.Literal(definition.getTarget().getType(), ((Ir.Instruction.Constant) definition).getValue());
+        } else if (definition instanceof Ir.Instruction.Copy) {
+            return operand(((Ir.Instruction.Copy) definition).getSource());
+        } else if (definition instanceof Ir.Instruction.Call) {
+            return call((Ir.Instruction.Call) definition, definition.getTarget().getType());
+        } else {
+            Ir.Instruction.Binary binary = (Ir.Instruction.Binary) definition;
+            int precedence = precedence(binary.getOperator());
+            Ast.Expression left = operand(binary.getLeft());
+            Ast.Expression right = operand(binary.getRight());
+            return new Ast.Expression.Binary(definition.getTarget().getType(), binary.getOperator(),
+                    precedence(left) < precedence ? group(left) : left,
+                    precedence(right) <= precedence ? group(right) : right);
+        }
+    }
+
+    private Ast.Expression.Function call(Ir.Instruction.Call call, Stdlib.Type type) {
+        List<Ast.Expression> arguments = new ArrayList<>();
+        for (Ir.Register argument : call.getArguments()) {
+            arguments.add(operand(argument));
+        }
+        return new Ast.Expression.Function(type, call.getFunction(), arguments);
+    }
+
+    /**
+     * Returns true if the result of a call to the target is not used, which
+     * is then a statement of its own.
+     */
+    private boolean isDiscarded(Ir.Register target) {
+        return target == null || target.isTemporary() && !uses.containsKey(target);
+    }
+
+    /**
+     * Returns the expression for the register, taking it from the pending
+     * temporaries if it is one.
+     */
+    private Ast.Expression operand(Ir.Register register) {
+        Ast.Expression expression = pending.remove(register);
+        return expression != null ? expression : new Ast.Expression.Variable(register.getType(), name(register));
+    }
+
+    /**
+     * Declares the pending temporaries in the order they were computed, since
+     * the next statement does not use them and must not run before them.
+     */
+    private void flush(List<Ast.Statement> statements) {
+        for (Map.Entry<Ir.Register, Ast.Expression> entry : pending.entrySet()) {
+            assign(entry.getKey(), entry.getValue(), statements);
+        }
+        pending.clear();
+    }
+
+    private void assign(Ir.Register target, Ast.Expression value, List<Ast.Statement> statements) {
+        if (declared.add(target)) {
+            statements.add(new Ast.Statement.Declaration(name(target), target.getType().getJvmName(), Optional.of(value)));
+        } else {
+            statements.add(new Ast.Statement.Assignment(name(target), value));
+        }
+    }
+
+    /**
+     * Finds the loop headers as the targets of back edges, which go to a
+     * block still being visited by the depth-first search.
+     */
+    private void findHeaders(Ir.Block block, Set<Ir.Block> visited, Set<Ir.Block> active) {
+        visited.add(block);
+        active.add(block);
+        for (Ir.Block successor : block.getSuccessors()) {
+            if (active.contains(successor)) {
+                if (!(successor.getTerminator() instanceof Ir.Terminator.Branch)) {
+                    throw new IllegalStateException("The loop header " + successor + " does not branch.");
+                }
+                headers.add(successor);
+            } else if (!visited.contains(successor)) {
+                findHeaders(successor, visited, active);
+            }
+        }
+        active.remove(block);
+    }
+
+    /**
+     * Finds the immediate postdominator of each branching block, iterating
+     * the sets of postdominators of every block to a fixed point. The
+     * immediate postdominator is the strict postdominator with one fewer.
+     */
+    private void findPostdominators() {
+        List<Ir.Block> blocks = ir.getBlocks();
+        BitSet[] sets = new BitSet[blocks.size()];
+        for (Ir.Block block : blocks) {
+            sets[block.getId()] = new BitSet();
+            if (block.getSuccessors().isEmpty()) {
+                sets[block.getId()].set(block.getId());
+            } else {
+                sets[block.getId()].set(0, blocks.size());
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                Ir.Block block = blocks.get(i);
+                if (block.getSuccessors().isEmpty()) {
+                    continue;
+                }
+                BitSet set = new BitSet();
+                set.set(0, blocks.size());
+                for (Ir.Block successor : block.getSuccessors()) {
+                    set.and(sets[successor.getId()]);
+                }
+                set.set(i);
+                if (!set.equals(sets[i])) {
+                    sets[i] = set;
+                    changed = true;
+                }
+            }
+        }
+        for (Ir.Block block : blocks) {
+            BitSet set = sets[block.getId()];
+            for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+                if (i != block.getId() && sets[i].cardinality() == set.cardinality() - 1) {
+                    postdominators.put(block, blocks.get(i));
+                }
+            }
+        }
+    }
+
+    private static void count(Map<Ir.Register, Integer> counts, List<Ir.Register> registers) {
+        for (Ir.Register register : registers) {
+            counts.merge(register, 1, Integer::sum);
+        }
+    }
+
+    private static String name(Ir.Register register) {
+        return register.isTemporary() ? "$r" + register.getId() : register.getName();
+    }
+
+    private static Ast.Expression.Group group(Ast.Expression expression) {
+        return new Ast.Expression.Group(expression.getType(), expression);
+    }
+
+    private static int precedence(Ast.Expression expression) {
+        return expression instanceof Ast.Expression.Binary
+                ? precedence(((Ast.Expression.Binary) expression).getOperator())
+                : Integer.MAX_VALUE;
+    }
+
+    private static int precedence(String operator) {
+        switch (operator) {
+            case "==":
+            case "!=":
+                return 0;
+            case "+":
+            case "-":
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+package plc.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Resolves every variable to a (depth, slot) coordinate, returning a tree in
+ * which declarations, assignments and variables carry the coordinate of the
+ * variable they name. Downstream passes can then index a frame directly
+ * instead of looking the name up through a chain of scopes.
+ *
+ * The statements of the source are at depth 0, and the then, else and while
+ * statements each form a block one deeper than their statement. Each
+ * declaration takes the next slot of its block, so the variables of a block
+ * fit in a frame of {@link #getFrameSizes()} slots for its depth. The value of
+ * a declaration is resolved before its name is declared, and a block may
+ * shadow a variable of an enclosing block.
+ *
+ * Bindings are kept in arrays indexed by {@link Symbols} id, with an undo
+ * stack to restore shadowed bindings when a block ends, so resolving a name
+ * is a single array read. Names are interned in a table of the resolver's
+ * own, so they are released with it. Nodes without variables are returned as
+ * is, and types of expressions are kept, so resolution may run before or
+ * after the {@link Analyzer}.
+ */
+public final class Resolver implements Ast.Visitor<Ast> {
+
+    private final Symbols symbols = Symbols.compilation();
+
+    /**
+     * The depth plus one of the binding of each symbol, or zero if unbound.
+     */
+    private int[] depths = new int[64];
+    private int[] slots = new int[64];
+
+    /**
+     * Triples of symbol, depth and slot of the bindings replaced by
+     * declarations in the open blocks.
+     */
+    private int[] undo = new int[48];
+    private int undoSize = 0;
+
+    private int[] frameSizes = new int[8];
+    private int frameCount = 0;
+    private int depth = 0;
+    private int slot = 0;
+
+    /**
+     * Returns the largest number of slots used by a block at each depth.
+     */
+    public int[] getFrameSizes() {
+        return Arrays.copyOf(frameSizes, frameCount);
+    }
+
+    @Override
+    public Ast.Source visit(Ast.Source ast) throws AnalysisException {
+        int mark = undoSize;
+        List<Ast.Statement> statements = visitAll(ast.getStatements());
+        restore(mark);
+        slot = 0;
+        return statements == ast.getStatements() ? ast : new Ast.Source(statements);
+    }
+
+    @Override
+    public Ast.Statement.Expression visit(Ast.Statement.Expression ast) throws AnalysisException {
+        Ast.Expression expression = visit(ast.getExpression());
+        return expression == ast.getExpression() ? ast : new Ast.Statement.Expression(expression);
+    }
+
+    @Override
+    public Ast.Statement.Declaration visit(Ast.Statement.Declaration ast) throws AnalysisException {
+        Optional<Ast.Expression> value = ast.getValue();
+        if (value.isPresent()) {
+            Ast.Expression expression = visit(value.get());
+            if (expression != value.get()) {
+                value = Optional.of(expression);
+            }
+        }
+        declare(symbols.intern(ast.getName()));
+        if (value == ast.getValue() && ast.getDepth() == depth && ast.getSlot() == slot - 1) {
+            return ast;
+        }
+        return new Ast.Statement.Declaration(ast.getName(), ast.getType(), value, depth, slot - 1);
+    }
+
+    @Override
+    public Ast.Statement.Assignment visit(Ast.Statement.Assignment ast) throws AnalysisException {
+        Ast.Expression expression = visit(ast.getExpression());
+        int symbol = resolve(ast.getName());
+        if (expression == ast.getExpression() && ast.getDepth() == depths[symbol] - 1 && ast.getSlot() == slots[symbol]) {
+            return ast;
+        }
+        return new Ast.Statement.Assignment(ast.getName(), expression, depths[symbol] - 1, slots[symbol]);
+    }
+
+    @Override
+    public Ast.Statement.If visit(Ast.Statement.If ast) throws AnalysisException {
+        Ast.Expression condition = visit(ast.getCondition());
+        List<Ast.Statement> thenStatements = visitBlock(ast.getThenStatements());
+        List<Ast.Statement> elseStatements = visitBlock(ast.getElseStatements());
+        if (condition == ast.getCondition() && thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.If(condition, thenStatements, elseStatements);
+    }
+
+    @Override
+    public Ast.Statement.While visit(Ast.Statement.While ast) throws AnalysisException {
+        Ast.Expression condition = visit(ast.getCondition());
+        List<Ast.Statement> statements = visitBlock(ast.getStatements());
+        if (condition == ast.getCondition() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.While(condition, statements);
+    }
+
+    @Override
+    public Ast.Expression.Literal visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression.Group visit(Ast.Expression.Group ast) throws AnalysisException {
+        Ast.Expression expression = visit(ast.getExpression());
+        return expression == ast.getExpression() ? ast : new Ast.Expression.Group(ast.type, expression);
+    }
+
+    @Override
+    public Ast.Expression.Binary visit(Ast.Expression.Binary ast) throws AnalysisException {
+        Ast.Expression left = visit(ast.getLeft());
+        Ast.Expression right = visit(ast.getRight());
+        if (left == ast.getLeft() && right == ast.getRight()) {
+            return ast;
+        }
+        return new Ast.Expression.Binary(ast.type, ast.getOperator(), left, right);
+    }
+
+    @Override
+    public Ast.Expression.Variable visit(Ast.Expression.Variable ast) throws AnalysisException {
+        int symbol = resolve(ast.getName());
+        if (ast.getDepth() == depths[symbol] - 1 && ast.getSlot() == slots[symbol]) {
+            return ast;
+        }
+        return new Ast.Expression.Variable(ast.type, ast.getName(), depths[symbol] - 1, slots[symbol]);
+    }
+
+    @Override
+    public Ast.Expression.Function visit(Ast.Expression.Function ast) throws AnalysisException {
+        List<Ast.Expression> arguments = ast.getArguments();
+        List<Ast.Expression> visited = arguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            Ast.Expression argument = visit(arguments.get(i));
+            if (argument != arguments.get(i) && visited == arguments) {
+                visited = new ArrayList<>(arguments);
+            }
+            if (visited != arguments) {
+                visited.set(i, argument);
+            }
+        }
+        return visited == arguments ? ast : new Ast.Expression.Function(ast.type, ast.getName(), visited, ast.isPure());
+    }
+
+    /**
+     * Statically validates that visiting an expression returns an expression.
+     */
+    private Ast.Expression visit(Ast.Expression ast) throws AnalysisException {
+        return (Ast.Expression) visit((Ast) ast);
+    }
+
+    /**
+     * Visits the statements in a new block one level deeper.
+     */
+    private List<Ast.Statement> visitBlock(List<Ast.Statement> statements) throws AnalysisException {
+        int mark = undoSize;
+        int outer = slot;
+        depth++;
+        slot = 0;
+        List<Ast.Statement> visited = visitAll(statements);
+        restore(mark);
+        depth--;
+        slot = outer;
+        return visited;
+    }
+
+    /**
+     * Visits the statements in order, returning the same list if none of
+     * them changed.
+     */
+    private List<Ast.Statement> visitAll(List<Ast.Statement> statements) throws AnalysisException {
+        List<Ast.Statement> visited = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = (Ast.Statement) visit(statements.get(i));
+            if (statement != statements.get(i) && visited == statements) {
+                visited = new ArrayList<>(statements);
+            }
+            if (visited != statements) {
+                visited.set(i, statement);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Binds the symbol to the next slot of the current block.
+     */
+    private void declare(int symbol) throws AnalysisException {
+        if (symbol >= depths.length) {
+            int capacity = Math.max(2 * depths.length, symbol + 1);
+            depths = Arrays.copyOf(depths, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+        }
+        if (depths[symbol] == depth + 1) {
+            throw new AnalysisException("The identifier " + symbols.name(symbol) + " is already defined in this scope.");
+        }
+        if (undoSize + 3 > undo.length) {
+            undo = Arrays.copyOf(undo, 2 * undo.length);
+        }
+        undo[undoSize++] = symbol;
+        undo[undoSize++] = depths[symbol];
+        undo[undoSize++] = slots[symbol];
+        depths[symbol] = depth + 1;
+        slots[symbol] = slot++;
+        if (depth >= frameSizes.length) {
+            frameSizes = Arrays.copyOf(frameSizes, Math.max(2 * frameSizes.length, depth + 1));
+        }
+        frameSizes[depth] = Math.max(frameSizes[depth], slot);
+        frameCount = Math.max(frameCount, depth + 1);
+    }
+
+    /**
+     * Returns the symbol of a bound name.
+     */
+    private int resolve(String name) throws AnalysisException {
+        int symbol = symbols.lookup(name);
+        if (symbol < 0 || symbol >= depths.length || depths[symbol] == 0) {
+            throw new AnalysisException("The identifier " + name + " is not defined.");
+        }
+        return symbol;
+    }
+
+    /**
+     * Restores the bindings replaced since the given size of the undo stack.
+     */
+    private void restore(int mark) {
+        while (undoSize > mark) {
+            int symbol = undo[undoSize - 3];
+            depths[symbol] = undo[undoSize - 2];
+            slots[symbol] = undo[undoSize - 1];
+            undoSize -= 3;
+        }
+    }
+
+}
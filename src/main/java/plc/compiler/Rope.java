@@ -0,0 +1,189 @@
+package plc.compiler;
+
+/**
+ * An immutable text stored as a balanced tree of ranges of strings. Editing a
+ * rope returns a new rope sharing all but a logarithmic number of nodes with
+ * the old one, and the characters themselves are never copied, so {@link
+ * Lexer#relex(TokenBuffer, int, int, String)} keeps edited sources as ropes to
+ * make an edit cost time proportional to its size rather than to the source.
+ *
+ * Each node is itself a rope: a leaf is a range of a string, and a branch
+ * concatenates its children, whose heights differ by at most one. Reading a
+ * character descends the tree, so code reading the whole text should copy it
+ * out once with {@link #toString()}.
+ */
+public final class Rope implements CharSequence {
+
+    private static final Rope EMPTY = new Rope("", 0, 0);
+
+    private final String string;
+    private final int start;
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int height;
+
+    private Rope(String string, int start, int length) {
+        this.string = string;
+        this.start = start;
+        this.left = null;
+        this.right = null;
+        this.length = length;
+        this.height = 0;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.string = null;
+        this.start = 0;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.height = Math.max(left.height, right.height) + 1;
+    }
+
+    /**
+     * Returns the text as a rope, which shares the characters of a string.
+     */
+    public static Rope of(CharSequence text) {
+        if (text instanceof Rope) {
+            return (Rope) text;
+        }
+        return text.length() == 0 ? EMPTY : new Rope(text.toString(), 0, text.length());
+    }
+
+    /**
+     * Returns the text after replacing {@code removed} characters at {@code
+     * offset} with the inserted text.
+     */
+    public Rope edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > length) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " out of bounds for length " + length + ".");
+        }
+        return join(join(take(offset), of(inserted)), drop(offset + removed));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length + ".");
+        }
+        Rope rope = this;
+        while (rope.string == null) {
+            if (index < rope.left.length) {
+                rope = rope.left;
+            } else {
+                index -= rope.left.length;
+                rope = rope.right;
+            }
+        }
+        return rope.string.charAt(rope.start + index);
+    }
+
+    /**
+     * Returns the characters from start (inclusive) to end (exclusive) as a
+     * string.
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " out of bounds for length " + length + ".");
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        append(builder, start, end);
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length);
+    }
+
+    /**
+     * Appends the characters of this rope from start (inclusive) to end
+     * (exclusive) to the builder.
+     */
+    private void append(StringBuilder builder, int start, int end) {
+        if (start >= end) {
+            return;
+        } else if (string != null) {
+            builder.append(string, this.start + start, this.start + end);
+        } else {
+            left.append(builder, start, Math.min(end, left.length));
+            right.append(builder, Math.max(start, left.length) - left.length, end - left.length);
+        }
+    }
+
+    /**
+     * Returns the rope of the first count characters.
+     */
+    private Rope take(int count) {
+        if (count <= 0) {
+            return EMPTY;
+        } else if (count >= length) {
+            return this;
+        } else if (string != null) {
+            return new Rope(string, start, count);
+        } else if (count <= left.length) {
+            return left.take(count);
+        }
+        return join(left, right.take(count - left.length));
+    }
+
+    /**
+     * Returns the rope without the first count characters.
+     */
+    private Rope drop(int count) {
+        if (count <= 0) {
+            return this;
+        } else if (count >= length) {
+            return EMPTY;
+        } else if (string != null) {
+            return new Rope(string, start + count, length - count);
+        } else if (count >= left.length) {
+            return right.drop(count - left.length);
+        }
+        return join(left.drop(count), right);
+    }
+
+    /**
+     * Returns the concatenation of the ropes, descending the taller one to
+     * the height of the other and rebalancing on the way back up.
+     */
+    private static Rope join(Rope left, Rope right) {
+        if (left.length == 0) {
+            return right;
+        } else if (right.length == 0) {
+            return left;
+        } else if (left.height > right.height + 1) {
+            return balance(left.left, join(left.right, right));
+        } else if (right.height > left.height + 1) {
+            return balance(join(left, right.left), right.right);
+        }
+        return new Rope(left, right);
+    }
+
+    /**
+     * Returns the concatenation of ropes whose heights differ by at most two,
+     * rotating if they differ by two.
+     */
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height > right.height + 1) {
+            if (left.left.height >= left.right.height) {
+                return new Rope(left.left, new Rope(left.right, right));
+            }
+            return new Rope(new Rope(left.left, left.right.left), new Rope(left.right.right, right));
+        } else if (right.height > left.height + 1) {
+            if (right.right.height >= right.left.height) {
+                return new Rope(new Rope(left, right.left), right.right);
+            }
+            return new Rope(new Rope(left, right.left.left), new Rope(right.left.right, right.right));
+        }
+        return new Rope(left, right);
+    }
+
+}
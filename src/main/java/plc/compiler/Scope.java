@@ -1,37 +1,191 @@
 package plc.compiler;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Variables are stored by their {@link Symbols} id in a persistent hash array
+ * mapped trie, so a lookup is a few integer probes per scope rather than
+ * hashing the name again in every scope of the chain.
+ *
+ * The trie is never modified; {@link #define(int, Stdlib.Type)} copies the
+ * path to the new variable, at most seven nodes, and replaces the root. This
+ * makes {@link #fork()} constant time per scope: a fork shares the variables
+ * defined so far and neither scope sees later definitions in the other. A
+ * scope itself is not thread-safe, but forks may be used from other threads
+ * to analyze independent branches, or to analyze speculatively and discard
+ * the result, without copying any tables.
+ *
+ * A root scope interns its names in a new {@link Symbols#compilation()}
+ * table, which its children and forks share, so the names of one program are
+ * released with its scopes.
+ */
 public final class Scope {
 
     private final Scope parent;
-    private final Map<String, Stdlib.Type> variables = new HashMap<>();
+    private final Symbols symbols;
+    private Node root;
 
     public Scope(Scope parent) {
+        this(parent, parent == null ? Symbols.compilation() : parent.symbols, Node.EMPTY);
+    }
+
+    private Scope(Scope parent, Symbols symbols, Node root) {
         this.parent = parent;
+        this.symbols = symbols;
+        this.root = root;
     }
 
     public Scope getParent() {
         return parent;
     }
 
+    /**
+     * Returns the table the symbols of the variables are interned in.
+     */
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns a copy of this scope and its parents which shares their current
+     * variables.
+     */
+    public Scope fork() {
+        return new Scope(parent == null ? null : parent.fork(), symbols, root);
+    }
+
     public void define(String name, Stdlib.Type type) throws AnalysisException {
-        if (variables.containsKey(name)) {
-            throw new AnalysisException("The identifier " + name + " is already defined in this scope.");
+        define(symbols.intern(name), type);
+    }
+
+    public void define(int symbol, Stdlib.Type type) throws AnalysisException {
+        if (root.get(symbol, 0) != null) {
+            throw new AnalysisException("The identifier " + symbols.name(symbol) + " is already defined in this scope.");
         } else {
-            variables.put(name, type);
+            root = root.put(symbol, type, 0);
         }
     }
 
     public Stdlib.Type lookup(String name) throws AnalysisException {
-        if (variables.containsKey(name)) {
-            return variables.get(name);
-        } else if (parent != null) {
-            return parent.lookup(name);
-        } else {
+        int symbol = symbols.lookup(name);
+        if (symbol < 0) {
             throw new AnalysisException("The identifier " + name + " is not defined.");
         }
+        return lookup(symbol);
+    }
+
+    public Stdlib.Type lookup(int symbol) throws AnalysisException {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Stdlib.Type type = scope.root.get(symbol, 0);
+            if (type != null) {
+                return type;
+            }
+        }
+        throw new AnalysisException("The identifier " + symbols.name(symbol) + " is not defined.");
+    }
+
+    /**
+     * An immutable trie node branching on five bits of the symbol per level,
+     * starting from the lowest bits. Each of the 32 branches is empty, holds a
+     * single variable, or holds a child node for several variables sharing
+     * those bits. The two bitmaps mark the variable and child branches, and
+     * the arrays hold only the present entries in branch order.
+     */
+    private static final class Node {
+
+        private static final Node EMPTY = new Node(0, new int[0], new Stdlib.Type[0], 0, new Node[0]);
+
+        private final int dataMap;
+        private final int[] symbols;
+        private final Stdlib.Type[] types;
+        private final int nodeMap;
+        private final Node[] nodes;
+
+        private Node(int dataMap, int[] symbols, Stdlib.Type[] types, int nodeMap, Node[] nodes) {
+            this.dataMap = dataMap;
+            this.symbols = symbols;
+            this.types = types;
+            this.nodeMap = nodeMap;
+            this.nodes = nodes;
+        }
+
+        /**
+         * Returns the type of the symbol, or null if it is not defined.
+         */
+        private Stdlib.Type get(int symbol, int shift) {
+            Node node = this;
+            while (true) {
+                int bit = 1 << (symbol >>> shift & 31);
+                if ((node.dataMap & bit) != 0) {
+                    int index = Integer.bitCount(node.dataMap & (bit - 1));
+                    return node.symbols[index] == symbol ? node.types[index] : null;
+                } else if ((node.nodeMap & bit) != 0) {
+                    node = node.nodes[Integer.bitCount(node.nodeMap & (bit - 1))];
+                    shift += 5;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of this node with the symbol added, which must not
+         * already be defined.
+         */
+        private Node put(int symbol, Stdlib.Type type, int shift) {
+            int bit = 1 << (symbol >>> shift & 31);
+            if ((dataMap & bit) != 0) {
+                int index = Integer.bitCount(dataMap & (bit - 1));
+                Node child = pair(symbols[index], types[index], symbol, type, shift + 5);
+                int[] newSymbols = new int[symbols.length - 1];
+                Stdlib.Type[] newTypes = new Stdlib.Type[types.length - 1];
+                System.arraycopy(symbols, 0, newSymbols, 0, index);
+                System.arraycopy(symbols, index + 1, newSymbols, index, symbols.length - index - 1);
+                System.arraycopy(types, 0, newTypes, 0, index);
+                System.arraycopy(types, index + 1, newTypes, index, types.length - index - 1);
+                return new Node(dataMap ^ bit, newSymbols, newTypes, nodeMap | bit, insert(nodes, Integer.bitCount(nodeMap & (bit - 1)), child));
+            } else if ((nodeMap & bit) != 0) {
+                int index = Integer.bitCount(nodeMap & (bit - 1));
+                Node[] newNodes = nodes.clone();
+                newNodes[index] = nodes[index].put(symbol, type, shift + 5);
+                return new Node(dataMap, symbols, types, nodeMap, newNodes);
+            } else {
+                int index = Integer.bitCount(dataMap & (bit - 1));
+                int[] newSymbols = new int[symbols.length + 1];
+                Stdlib.Type[] newTypes = new Stdlib.Type[types.length + 1];
+                System.arraycopy(symbols, 0, newSymbols, 0, index);
+                System.arraycopy(symbols, index, newSymbols, index + 1, symbols.length - index);
+                System.arraycopy(types, 0, newTypes, 0, index);
+                System.arraycopy(types, index, newTypes, index + 1, types.length - index);
+                newSymbols[index] = symbol;
+                newTypes[index] = type;
+                return new Node(dataMap | bit, newSymbols, newTypes, nodeMap, nodes);
+            }
+        }
+
+        /**
+         * Returns a node holding two distinct symbols which share the bits
+         * below the given shift.
+         */
+        private static Node pair(int first, Stdlib.Type firstType, int second, Stdlib.Type secondType, int shift) {
+            int firstBit = 1 << (first >>> shift & 31);
+            int secondBit = 1 << (second >>> shift & 31);
+            if (firstBit == secondBit) {
+                return new Node(0, EMPTY.symbols, EMPTY.types, firstBit,
+                        new Node[] {pair(first, firstType, second, secondType, shift + 5)});
+            } else if (Integer.compareUnsigned(firstBit, secondBit) < 0) {
+                return new Node(firstBit | secondBit, new int[] {first, second}, new Stdlib.Type[] {firstType, secondType}, 0, EMPTY.nodes);
+            } else {
+                return new Node(firstBit | secondBit, new int[] {second, first}, new Stdlib.Type[] {secondType, firstType}, 0, EMPTY.nodes);
+            }
+        }
+
+        private static Node[] insert(Node[] nodes, int index, Node node) {
+            Node[] newNodes = new Node[nodes.length + 1];
+            System.arraycopy(nodes, 0, newNodes, 0, index);
+            System.arraycopy(nodes, index, newNodes, index + 1, nodes.length - index);
+            newNodes[index] = node;
+            return newNodes;
+        }
+
     }
 
 }
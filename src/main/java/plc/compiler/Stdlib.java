@@ -1,43 +1,252 @@
 package plc.compiler;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Types are registered by the {@link Symbols} id of their name, which indexes
+ * directly into the type table. Functions are registered the same way, with a
+ * row per name indexed by arity, so resolving a call is a symbol lookup and
+ * two array reads, and nothing is allocated unless the function is unknown.
+ *
+ * The tables here are the base registry shared by all compilations, indexed
+ * by ids of the {@link Symbols#shared()} table. Registering copies the table
+ * and publishes the copy, so lookups never lock and always see a complete
+ * table. Types and functions for a single compilation should instead be
+ * registered in an {@link Overlay} from {@link #overlay()} and passed to the
+ * {@link Analyzer}. An overlay resolves its own registrations before the base
+ * ones, so concurrent compilations neither see nor collide with each other's
+ * registrations. An overlay indexes its tables by ids of a table of its own,
+ * so its names are released with it.
+ *
+ * Each type in the base registry also gets a dense ordinal, which indexes the
+ * {@link Lattice} of assignability and binary operator result types. The
+ * tables are computed once per pair of types from the rules in {@link
+ * Lattice#isAssignable(Type, Type)} and {@link Lattice#getResult(Operator,
+ * Type, Type)}, and copied with a new row and column for each new type, so
+ * checks are array reads. Other types, such as those of an overlay, are
+ * checked against the rules directly, so the shared tables only grow with the
+ * base registry.
+ */
 public final class Stdlib {
 
-    private static final Map<String, Type> TYPES = new HashMap<>();
-    private static final Map<String, Function> FUNCTIONS = new HashMap<>();
+    private static final Object LOCK = new Object();
+    private static volatile Type[] TYPES = new Type[16];
+    private static volatile Function[][] FUNCTIONS = new Function[16][];
+    private static volatile Lattice LATTICE = new Lattice();
 
     public static Type getType(String name) throws AnalysisException {
-        if (!TYPES.containsKey(name)) {
-            throw new AnalysisException("Unknown type " + name + ".");
-        }
-        return TYPES.get(name);
+        int symbol = Symbols.shared().lookup(name);
+        return getType(null, symbol, symbol, null, name);
+    }
+
+    public static Type getType(int symbol) throws AnalysisException {
+        return getType(null, symbol, symbol, Symbols.shared(), null);
     }
 
     public static Function getFunction(String name, int arity) throws AnalysisException {
-        String signature = name + "/" + arity;
-        if (!FUNCTIONS.containsKey(signature)) {
-            throw new AnalysisException("Unknown function " + signature + ".");
-        }
-        return FUNCTIONS.get(signature);
+        int symbol = Symbols.shared().lookup(name);
+        return getFunction(null, symbol, symbol, arity, null, name);
+    }
+
+    public static Function getFunction(int symbol, int arity) throws AnalysisException {
+        return getFunction(null, symbol, symbol, arity, Symbols.shared(), null);
     }
 
     public static void registerType(Type type) {
-        if (TYPES.containsKey(type.getName())) {
-            throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
+        synchronized (LOCK) {
+            int symbol = Symbols.shared().intern(type.getName());
+            if (find(TYPES, symbol) != null) {
+                throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
+            }
+            TYPES = with(TYPES, symbol, type);
+            include(type);
         }
-        TYPES.put(type.getName(), type);
     }
 
     public static void registerFunction(Function function) {
-        String signature = function.getName() + "/" + function.getParameterTypes().size();
-        if (FUNCTIONS.containsKey(signature)) {
-            throw new IllegalArgumentException("Duplicate registration of function " + signature + ".");
+        synchronized (LOCK) {
+            int symbol = Symbols.shared().intern(function.getName());
+            int arity = function.getParameterTypes().size();
+            if (find(FUNCTIONS, symbol, arity) != null) {
+                throw new IllegalArgumentException("Duplicate registration of function " + function.getName() + "/" + arity + ".");
+            }
+            FUNCTIONS = with(FUNCTIONS, symbol, arity, function);
         }
-        FUNCTIONS.put(signature, function);
+    }
+
+    /**
+     * Returns a new, empty overlay of the base registry.
+     */
+    public static Overlay overlay() {
+        return new Overlay();
+    }
+
+    /**
+     * Returns true if a value of the type may be assigned to the target type.
+     */
+    public static boolean isAssignable(Type type, Type target) {
+        Lattice lattice = LATTICE;
+        if (lattice.includes(type) && lattice.includes(target)) {
+            return lattice.assignable[type.ordinal][target.ordinal];
+        }
+        return Lattice.isAssignable(type, target);
+    }
+
+    /**
+     * Returns true if the type may be the left operand of the operator, that
+     * is if there is any right operand the operator accepts with it.
+     */
+    public static boolean isOperand(Operator operator, Type left) {
+        Lattice lattice = LATTICE;
+        if (lattice.includes(left)) {
+            return lattice.operands[operator.ordinal()][left.ordinal];
+        }
+        return lattice.isOperand(operator, left);
+    }
+
+    /**
+     * Returns the type of the result of the operator, or null if it does not
+     * accept the operands.
+     */
+    public static Type getResult(Operator operator, Type left, Type right) {
+        Lattice lattice = LATTICE;
+        if (lattice.includes(left) && lattice.includes(right)) {
+            return lattice.results[operator.ordinal()][left.ordinal][right.ordinal];
+        }
+        return Lattice.getResult(operator, left, right);
+    }
+
+    /**
+     * Extends the lattice with the type, holding the lock. The ordinal is
+     * assigned after the extended lattice is published, so any lattice at
+     * least as large as an ordinal read by another thread includes the type.
+     */
+    private static void include(Type type) {
+        if (type.ordinal < 0) {
+            Lattice lattice = new Lattice(LATTICE, type);
+            LATTICE = lattice;
+            type.ordinal = lattice.types.length - 1;
+        }
+    }
+
+    /**
+     * Returns the type from the overlay table by its symbol if it is there,
+     * and otherwise from the base table by its shared symbol. The name, or
+     * else the name of the symbol in the table, is only used for the message
+     * if the type is unknown.
+     */
+    private static Type getType(Type[] overlay, int symbol, int shared, Symbols symbols, String name) throws AnalysisException {
+        Type type = find(overlay, symbol);
+        if (type == null) {
+            type = find(TYPES, shared);
+        }
+        if (type == null) {
+            throw new AnalysisException("Unknown type " + (name != null ? name : name(symbols, symbol)) + ".");
+        }
+        return type;
+    }
+
+    private static Function getFunction(Function[][] overlay, int symbol, int shared, int arity, Symbols symbols, String name) throws AnalysisException {
+        Function function = find(overlay, symbol, arity);
+        if (function == null) {
+            function = find(FUNCTIONS, shared, arity);
+        }
+        if (function == null) {
+            throw new AnalysisException("Unknown function " + (name != null ? name : name(symbols, symbol)) + "/" + arity + ".");
+        }
+        return function;
+    }
+
+    private static String name(Symbols symbols, int symbol) {
+        return symbol >= 0 && symbol < symbols.size() ? symbols.name(symbol) : String.valueOf(symbol);
+    }
+
+    private static Type find(Type[] types, int symbol) {
+        return types != null && symbol >= 0 && symbol < types.length ? types[symbol] : null;
+    }
+
+    private static Function find(Function[][] functions, int symbol, int arity) {
+        Function[] overloads = functions != null && symbol >= 0 && symbol < functions.length ? functions[symbol] : null;
+        return overloads != null && arity >= 0 && arity < overloads.length ? overloads[arity] : null;
+    }
+
+    /**
+     * Returns a copy of the table with the type added.
+     */
+    private static Type[] with(Type[] types, int symbol, Type type) {
+        Type[] copy = Arrays.copyOf(types, Math.max(types.length, symbol + 1));
+        copy[symbol] = type;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the table with the function added, sharing the rows
+     * of other names.
+     */
+    private static Function[][] with(Function[][] functions, int symbol, int arity, Function function) {
+        Function[][] copy = Arrays.copyOf(functions, Math.max(functions.length, symbol + 1));
+        Function[] overloads = copy[symbol];
+        copy[symbol] = overloads == null ? new Function[arity + 1] : Arrays.copyOf(overloads, Math.max(overloads.length, arity + 1));
+        copy[symbol][arity] = function;
+        return copy;
+    }
+
+    /**
+     * Types and functions registered for a single compilation on top of the
+     * base registry. Names registered in the base registry cannot be
+     * registered again. Registering copies the table like the base registry
+     * does, so an overlay may be read by the threads of a parallel analysis,
+     * but registrations should be made before the analysis starts.
+     *
+     * The symbols taken by {@link #getType(int)} and {@link #getFunction(int,
+     * int)} are ids of the overlay's {@link #getSymbols()} table.
+     */
+    public static final class Overlay {
+
+        private final Symbols symbols = Symbols.compilation();
+        private Type[] types = new Type[0];
+        private Function[][] functions = new Function[0][];
+
+        private Overlay() {}
+
+        public Symbols getSymbols() {
+            return symbols;
+        }
+
+        public Type getType(String name) throws AnalysisException {
+            return Stdlib.getType(types, symbols.lookup(name), Symbols.shared().lookup(name), symbols, name);
+        }
+
+        public Type getType(int symbol) throws AnalysisException {
+            return Stdlib.getType(types, symbol, symbols.toShared(symbol), symbols, null);
+        }
+
+        public Function getFunction(String name, int arity) throws AnalysisException {
+            return Stdlib.getFunction(functions, symbols.lookup(name), Symbols.shared().lookup(name), arity, symbols, name);
+        }
+
+        public Function getFunction(int symbol, int arity) throws AnalysisException {
+            return Stdlib.getFunction(functions, symbol, symbols.toShared(symbol), arity, symbols, null);
+        }
+
+        public void registerType(Type type) {
+            int symbol = symbols.intern(type.getName());
+            if (find(types, symbol) != null || find(TYPES, Symbols.shared().lookup(type.getName())) != null) {
+                throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
+            }
+            types = with(types, symbol, type);
+        }
+
+        public void registerFunction(Function function) {
+            int symbol = symbols.intern(function.getName());
+            int arity = function.getParameterTypes().size();
+            if (find(functions, symbol, arity) != null || find(FUNCTIONS, Symbols.shared().lookup(function.getName()), arity) != null) {
+                throw new IllegalArgumentException("Duplicate registration of function " + function.getName() + "/" + arity + ".");
+            }
+            functions = with(functions, symbol, arity, function);
+        }
+
     }
 
     public static final class Type {
@@ -52,6 +261,12 @@ public final class Stdlib {
         private final String name;
         private final String jvmName;
 
+        /**
+         * The index of the type in the {@link Lattice}, or -1 unless the type
+         * is registered in the base registry.
+         */
+        int ordinal = -1;
+
         public Type(String name, String jvmName) {
             this.name = name;
             this.jvmName = jvmName;
@@ -75,6 +290,157 @@ public final class Stdlib {
 
     }
 
+    /**
+     * The binary operators, grouped by how they type their operands.
+     */
+    public enum Operator {
+
+        EQUALITY, ADDITION, ARITHMETIC;
+
+        /**
+         * Returns the operator group of the operator, or null if it is not a
+         * binary operator.
+         */
+        public static Operator of(String operator) {
+            switch (operator) {
+                case "==":
+                case "!=":
+                    return EQUALITY;
+                case "+":
+                    return ADDITION;
+                case "-":
+                case "*":
+                case "/":
+                    return ARITHMETIC;
+                default:
+                    return null;
+            }
+        }
+
+    }
+
+    /**
+     * Immutable tables indexed by type ordinal. A new lattice copies the
+     * tables of the previous one and computes the row and column of the new
+     * type.
+     */
+    private static final class Lattice {
+
+        private static final Operator[] OPERATORS = Operator.values();
+
+        private final Type[] types;
+        private final boolean[][] assignable;
+        private final boolean[][] operands;
+        private final Type[][][] results;
+
+        private Lattice() {
+            types = new Type[0];
+            assignable = new boolean[0][];
+            operands = new boolean[OPERATORS.length][0];
+            results = new Type[OPERATORS.length][0][];
+        }
+
+        private Lattice(Lattice previous, Type type) {
+            int size = previous.types.length + 1;
+            types = Arrays.copyOf(previous.types, size);
+            types[size - 1] = type;
+            assignable = extend(previous.assignable, size);
+            for (int i = 0; i < size; i++) {
+                assignable[i][size - 1] = isAssignable(types[i], type);
+                assignable[size - 1][i] = isAssignable(type, types[i]);
+            }
+            operands = new boolean[OPERATORS.length][];
+            results = new Type[OPERATORS.length][][];
+            for (Operator operator : OPERATORS) {
+                Type[][] table = extend(previous.results[operator.ordinal()], size);
+                for (int i = 0; i < size; i++) {
+                    table[i][size - 1] = getResult(operator, types[i], type);
+                    table[size - 1][i] = getResult(operator, type, types[i]);
+                }
+                results[operator.ordinal()] = table;
+                operands[operator.ordinal()] = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    operands[operator.ordinal()][i] = isOperand(operator, types[i]);
+                }
+            }
+        }
+
+        private boolean includes(Type type) {
+            return type.ordinal >= 0 && type.ordinal < types.length;
+        }
+
+        /**
+         * Returns true if the operator accepts the left operand with any
+         * right operand in this lattice.
+         */
+        private boolean isOperand(Operator operator, Type left) {
+            for (Type right : types) {
+                if (getResult(operator, left, right) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean[][] extend(boolean[][] table, int size) {
+            boolean[][] extended = new boolean[size][];
+            for (int i = 0; i < size; i++) {
+                extended[i] = i < table.length ? Arrays.copyOf(table[i], size) : new boolean[size];
+            }
+            return extended;
+        }
+
+        private static Type[][] extend(Type[][] table, int size) {
+            Type[][] extended = new Type[size][];
+            for (int i = 0; i < size; i++) {
+                extended[i] = i < table.length ? Arrays.copyOf(table[i], size) : new Type[size];
+            }
+            return extended;
+        }
+
+        /**
+         * A type is assignable if and only if one of the following is true:
+         *  - The types are equal
+         *  - The first type is an INTEGER and the target type is DECIMAL
+         *  - The first type is not VOID and the target type is ANY
+         */
+        private static boolean isAssignable(Type type, Type target) {
+            return type == target
+                    || type == Type.INTEGER && target == Type.DECIMAL
+                    || type != Type.VOID && target == Type.ANY;
+        }
+
+        /**
+         * Equality accepts any left operand but VOID. Addition accepts any
+         * operands but VOID, giving a STRING if either is a STRING, an
+         * INTEGER for two INTEGERs and otherwise a DECIMAL. Arithmetic
+         * accepts INTEGER and DECIMAL operands, except for two DECIMALs.
+         */
+        private static Type getResult(Operator operator, Type left, Type right) {
+            switch (operator) {
+                case EQUALITY:
+                    return left == Type.VOID ? null : Type.BOOLEAN;
+                case ADDITION:
+                    if (left == Type.VOID || right == Type.VOID) {
+                        return null;
+                    } else if (left == Type.STRING || right == Type.STRING) {
+                        return Type.STRING;
+                    }
+                    return left == Type.INTEGER && right == Type.INTEGER ? Type.INTEGER : Type.DECIMAL;
+                case ARITHMETIC:
+                    if (left == Type.INTEGER && right == Type.INTEGER) {
+                        return Type.INTEGER;
+                    } else if (left == Type.INTEGER && right == Type.DECIMAL || left == Type.DECIMAL && right == Type.INTEGER) {
+                        return Type.DECIMAL;
+                    }
+                    return null;
+                default:
+                    throw new AssertionError(operator);
+            }
+        }
+
+    }
+
     public static final class Function {
 
         public static final Function PRINT = new Function("PRINT", "System.out.println", Arrays.asList(Type.ANY), Type.VOID);
@@ -83,12 +449,18 @@ public final class Stdlib {
         private final String jvmName;
         private final List<Type> parameterTypes;
         private final Type returnType;
+        private final boolean pure;
 
         public Function(String name, String jvmName, List<Type> parameterTypes, Type returnType) {
+            this(name, jvmName, parameterTypes, returnType, false);
+        }
+
+        public Function(String name, String jvmName, List<Type> parameterTypes, Type returnType, boolean pure) {
             this.name = name;
             this.jvmName = jvmName;
             this.parameterTypes = parameterTypes;
             this.returnType = returnType;
+            this.pure = pure;
         }
 
         public String getName() {
@@ -107,6 +479,15 @@ public final class Stdlib {
             return returnType;
         }
 
+        /**
+         * Returns true if a call only computes its result from its arguments,
+         * without side effects, so equal calls may share one evaluation.
+         * Functions are not pure unless registered as such.
+         */
+        public boolean isPure() {
+            return pure;
+        }
+
         @Override
         public String toString() {
             return "Function{" +
@@ -114,6 +495,7 @@ public final class Stdlib {
                     ", jvmName='" + jvmName + '\'' +
                     ", parameterTypes=" + parameterTypes +
                     ", returnType=" + returnType +
+                    ", pure=" + pure +
                     '}';
         }
 
@@ -125,6 +507,7 @@ public final class Stdlib {
         registerType(Type.DECIMAL);
         registerType(Type.STRING);
         registerType(Type.ANY);
+        include(Type.VOID);
         registerFunction(Function.PRINT);
     }
 
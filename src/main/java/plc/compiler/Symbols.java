@@ -0,0 +1,315 @@
+package plc.compiler;
+
+/**
+ * Interns identifiers as small integer symbol ids, so that identifiers can be
+ * compared and looked up by id instead of by string. Each distinct identifier
+ * is stored once and shared by every token, scope and registry using it.
+ *
+ * Keywords have reserved ids, which allows the parser to check for a keyword
+ * with a single integer comparison.
+ *
+ * The {@link #shared()} table holds the keywords and the names of the base
+ * {@link Stdlib} registry, and lives as long as the process. The identifiers
+ * of a program are interned in a table for that compilation from {@link
+ * #compilation()}, which is layered over the shared table: it resolves the
+ * shared names that existed when it was created to their shared ids, and
+ * numbers any other name from there on. The table is dropped with the
+ * compilation, so a long-running compiler only retains the shared names.
+ *
+ * Lookups of existing symbols do not lock; a lookup which misses (possibly
+ * only because an insert from another thread is not yet visible) is repeated
+ * under the lock before inserting.
+ */
+public final class Symbols {
+
+    public static final int IF = 0;
+    public static final int THEN = 1;
+    public static final int ELSE = 2;
+    public static final int END = 3;
+    public static final int WHILE = 4;
+    public static final int DO = 5;
+    public static final int LET = 6;
+    public static final int TRUE = 7;
+    public static final int FALSE = 8;
+
+    private static final String[] KEYWORDS = {"IF", "THEN", "ELSE", "END", "WHILE", "DO", "LET", "TRUE", "FALSE"};
+
+    private static final Symbols SHARED = new Symbols(null);
+
+    static {
+        for (String keyword : KEYWORDS) {
+            SHARED.intern(keyword);
+        }
+    }
+
+    /**
+     * The shared table for a compilation table, or null for the shared table
+     * itself.
+     */
+    private final Symbols parent;
+
+    /**
+     * The number of symbols of the parent when this table was created, which
+     * is the id of the first symbol of this table.
+     */
+    private final int base;
+
+    private final Object lock = new Object();
+    private volatile Table table = new Table(64);
+
+    private Symbols(Symbols parent) {
+        this.parent = parent;
+        this.base = parent == null ? 0 : parent.size();
+    }
+
+    /**
+     * Returns the table of keywords and base registry names shared by all
+     * compilations.
+     */
+    public static Symbols shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a new table for the identifiers of a single compilation.
+     */
+    public static Symbols compilation() {
+        return new Symbols(SHARED);
+    }
+
+    /**
+     * Returns the reserved id of the keyword, or {@code -1} if the name is not
+     * a keyword. This compares the name with the keywords themselves, without
+     * reading or locking any table.
+     */
+    public static int keyword(String name) {
+        switch (name) {
+            case "IF":
+                return IF;
+            case "THEN":
+                return THEN;
+            case "ELSE":
+                return ELSE;
+            case "END":
+                return END;
+            case "WHILE":
+                return WHILE;
+            case "DO":
+                return DO;
+            case "LET":
+                return LET;
+            case "TRUE":
+                return TRUE;
+            case "FALSE":
+                return FALSE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the id of the identifier, adding it if it is new.
+     */
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the id of the identifier formed by the characters of the source
+     * from start (inclusive) to end (exclusive), adding it if it is new. The
+     * characters are only copied into a string if the identifier is new.
+     */
+    public int intern(CharSequence source, int start, int end) {
+        int hash = hash(source, start, end);
+        int symbol = find(source, start, end, hash);
+        if (symbol >= 0) {
+            return symbol;
+        }
+        symbol = findShared(source, start, end, hash);
+        if (symbol >= 0) {
+            return symbol;
+        }
+        synchronized (lock) {
+            symbol = table.find(source, start, end, hash);
+            if (symbol < 0) {
+                if (2 * (table.size + 1) > table.slots.length) {
+                    table = table.resize();
+                }
+                symbol = table.insert(source.subSequence(start, end).toString(), hash);
+            }
+            return base + symbol;
+        }
+    }
+
+    /**
+     * Returns the id of the identifier, or {@code -1} if it has never been
+     * interned. Unlike {@link #intern(String)} this never adds a symbol.
+     */
+    public int lookup(String name) {
+        int hash = hash(name, 0, name.length());
+        int symbol = find(name, 0, name.length(), hash);
+        if (symbol >= 0) {
+            return symbol;
+        }
+        symbol = findShared(name, 0, name.length(), hash);
+        if (symbol >= 0) {
+            return symbol;
+        }
+        synchronized (lock) {
+            symbol = table.find(name, 0, name.length(), hash);
+            return symbol < 0 ? -1 : base + symbol;
+        }
+    }
+
+    /**
+     * Returns the (shared) name of the symbol.
+     */
+    public String name(int symbol) {
+        if (symbol < base) {
+            return parent.name(symbol);
+        }
+        String name = table.names[symbol - base];
+        if (name == null) {
+            synchronized (lock) {
+                name = table.names[symbol - base];
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns the number of symbols interned, including those of the shared
+     * table this table is layered over, which is one more than the largest
+     * symbol id.
+     */
+    public int size() {
+        synchronized (lock) {
+            return base + table.size;
+        }
+    }
+
+    /**
+     * Returns the id in the shared table of the name of a symbol of this
+     * table, or {@code -1} if it is not a symbol or not a shared name.
+     */
+    int toShared(int symbol) {
+        if (parent == null || (symbol >= 0 && symbol < base)) {
+            return symbol;
+        }
+        return symbol >= 0 && symbol < size() ? parent.lookup(name(symbol)) : -1;
+    }
+
+    /**
+     * Returns the id of the identifier in the shared table, if it was there
+     * when this table was created, and otherwise in this table, without
+     * locking.
+     */
+    private int find(CharSequence source, int start, int end, int hash) {
+        if (parent != null) {
+            int symbol = parent.table.find(source, start, end, hash);
+            if (symbol >= 0 && symbol < base) {
+                return symbol;
+            }
+        }
+        int symbol = table.find(source, start, end, hash);
+        return symbol < 0 ? -1 : base + symbol;
+    }
+
+    /**
+     * Returns the id of the identifier in the shared table as {@link
+     * #find(CharSequence, int, int, int)} does, but holding its lock so that
+     * a shared name is never added to this table again.
+     */
+    private int findShared(CharSequence source, int start, int end, int hash) {
+        if (parent == null) {
+            return -1;
+        }
+        synchronized (parent.lock) {
+            int symbol = parent.table.find(source, start, end, hash);
+            return symbol < base ? symbol : -1;
+        }
+    }
+
+    private static int hash(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * An open addressing hash table from names to ids. Slots hold the id plus
+     * one so that zero marks an empty slot. A table is only modified while
+     * holding the lock, and is replaced rather than grown in place.
+     */
+    private static final class Table {
+
+        private final int[] slots;
+        private final int[] hashes;
+        private final String[] names;
+        private int size = 0;
+
+        private Table(int capacity) {
+            slots = new int[capacity];
+            hashes = new int[capacity / 2];
+            names = new String[capacity / 2];
+        }
+
+        private int find(CharSequence source, int start, int end, int hash) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+                int symbol = slots[i] - 1;
+                String name = names[symbol];
+                if (name != null && hashes[symbol] == hash && equals(name, source, start, end)) {
+                    return symbol;
+                }
+            }
+            return -1;
+        }
+
+        private int insert(String name, int hash) {
+            int symbol = size;
+            names[symbol] = name;
+            hashes[symbol] = hash;
+            int mask = slots.length - 1;
+            int i = hash & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = symbol + 1;
+            size++;
+            return symbol;
+        }
+
+        private Table resize() {
+            Table resized = new Table(2 * slots.length);
+            System.arraycopy(names, 0, resized.names, 0, size);
+            System.arraycopy(hashes, 0, resized.hashes, 0, size);
+            int mask = resized.slots.length - 1;
+            for (int symbol = 0; symbol < size; symbol++) {
+                int i = hashes[symbol] & mask;
+                while (resized.slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                resized.slots[i] = symbol + 1;
+            }
+            resized.size = size;
+            return resized;
+        }
+
+        private static boolean equals(String name, CharSequence source, int start, int end) {
+            if (name.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != source.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
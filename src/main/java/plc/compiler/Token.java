@@ -12,9 +12,17 @@ public final class Token {
 
     private final Type type;
     private final String literal;
-    private final int index;
+    private final long index;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, (long) index);
+    }
+
+    /**
+     * Creates a token whose index may exceed the range of an {@code int},
+     * such as one lexed from a large memory-mapped file.
+     */
+    public Token(Type type, String literal, long index) {
         this.type = type;
         this.literal = literal;
         this.index = index;
@@ -28,7 +36,15 @@ public final class Token {
         return literal;
     }
 
+    /**
+     * Returns the index of the token, throwing an {@link ArithmeticException}
+     * if it exceeds the range of an {@code int}; see {@link #getLongIndex()}.
+     */
     public int getIndex() {
+        return Math.toIntExact(index);
+    }
+
+    public long getLongIndex() {
         return index;
     }
 
@@ -0,0 +1,482 @@
+package plc.compiler;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A compact list of tokens stored as parallel arrays of their type, starting
+ * index and length instead of one {@link Token} object per token. Literals are
+ * not copied out of the source; they are resolved from it when requested.
+ * Identifiers also record their {@link Symbols} id, and their literal is the
+ * shared name of the symbol.
+ *
+ * Token objects are only created when going through {@link #get(int)} or the
+ * {@link #asList()} adapter, which the parser avoids when reading a buffer.
+ *
+ * A buffer from {@link Lexer#relex(TokenBuffer, int, int, String)} does not
+ * copy the tokens the edit left unchanged. It is instead a balanced tree of
+ * ranges of the buffers they were lexed into, with the shift of the starts of
+ * the tokens after the edit kept on the nodes and applied as they are read,
+ * so reading a token descends the tree. Appending to such a buffer first
+ * copies its tokens into arrays.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final CharSequence source;
+    private final Symbols symbols;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] ids;
+    private int size = 0;
+
+    /**
+     * The tokens of an edited buffer, or null if they are in the arrays.
+     */
+    private Piece tree;
+
+    /**
+     * Creates a buffer interning its identifiers in a new {@link
+     * Symbols#compilation()} table.
+     */
+    public TokenBuffer(CharSequence source) {
+        this(source, Symbols.compilation());
+    }
+
+    public TokenBuffer(CharSequence source, Symbols symbols) {
+        this.source = source;
+        this.symbols = symbols;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private TokenBuffer(CharSequence source, Symbols symbols, Piece tree) {
+        this.source = source;
+        this.symbols = symbols;
+        this.tree = tree;
+        this.size = tree == null ? 0 : tree.size;
+        if (tree == null) {
+            allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Returns a buffer of the edited source with the tokens of the previous
+     * buffer before first, then those of the middle buffer, and then those of
+     * the previous buffer from last on with their starts shifted. The tokens
+     * are shared rather than copied, so this takes time logarithmic in the
+     * number of edits the previous buffer was built from.
+     */
+    static TokenBuffer splice(CharSequence source, TokenBuffer previous, int first, TokenBuffer middle, int last, int shift) {
+        if (previous.symbols != middle.symbols) {
+            throw new IllegalArgumentException("The buffers intern identifiers in different tables.");
+        }
+        Piece tokens = Piece.of(previous);
+        Piece suffix = Piece.drop(tokens, last);
+        Piece tree = Piece.join(Piece.join(Piece.take(tokens, first), Piece.of(middle)),
+                suffix == null ? null : suffix.shifted(shift));
+        return new TokenBuffer(source, previous.symbols, tree);
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the table the symbol ids of the identifiers belong to.
+     */
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type getType(int index) {
+        check(index);
+        if (tree != null) {
+            Position position = tree.locate(index);
+            return TYPES[position.tokens.types[position.index]];
+        }
+        return TYPES[types[index]];
+    }
+
+    public int getStart(int index) {
+        check(index);
+        if (tree != null) {
+            Position position = tree.locate(index);
+            return position.tokens.starts[position.index] + position.shift;
+        }
+        return starts[index];
+    }
+
+    public int getLength(int index) {
+        check(index);
+        if (tree != null) {
+            Position position = tree.locate(index);
+            return position.tokens.lengths[position.index];
+        }
+        return lengths[index];
+    }
+
+    /**
+     * Returns the symbol id of an IDENTIFIER token, or {@code -1} for any
+     * other type of token.
+     */
+    public int getSymbol(int index) {
+        check(index);
+        if (tree != null) {
+            Position position = tree.locate(index);
+            return position.tokens.ids[position.index];
+        }
+        return ids[index];
+    }
+
+    /**
+     * Returns the literal of the token, which is copied out of the source
+     * unless the token is an identifier.
+     */
+    public String getLiteral(int index) {
+        int start = getStart(index);
+        int symbol = getSymbol(index);
+        if (symbol >= 0) {
+            return symbols.name(symbol);
+        }
+        return source.subSequence(start, start + getLength(index)).toString();
+    }
+
+    /**
+     * Returns true if the literal of the token is equal to the given string,
+     * comparing against the source without copying the literal.
+     */
+    public boolean matches(int index, String literal) {
+        int start = getStart(index);
+        if (getLength(index) != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (source.charAt(start + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a {@link Token} for the token at the given index.
+     */
+    public Token get(int index) {
+        return new Token(getType(index), getLiteral(index), getStart(index));
+    }
+
+    /**
+     * Appends a token of the given type covering the source characters from
+     * start (inclusive) to start + length (exclusive). Identifiers are
+     * interned as they are added.
+     */
+    public void add(Token.Type type, int start, int length) {
+        flatten();
+        if (size == types.length) {
+            types = Arrays.copyOf(types, 2 * size);
+            starts = Arrays.copyOf(starts, 2 * size);
+            lengths = Arrays.copyOf(lengths, 2 * size);
+            ids = Arrays.copyOf(ids, 2 * size);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        ids[size] = type == Token.Type.IDENTIFIER ? symbols.intern(source, start, start + length) : -1;
+        size++;
+    }
+
+    /**
+     * Appends all tokens of the other buffer, which must have been lexed from
+     * the same source into the same {@link Symbols} table.
+     */
+    public void addAll(TokenBuffer other) {
+        addAll(other, 0, other.size, 0);
+    }
+
+    /**
+     * Appends the tokens of the other buffer from start (inclusive) to end
+     * (exclusive), shifting their indices by the given amount. The literals of
+     * the tokens must be the same in this buffer's source at their shifted
+     * indices, and their identifiers interned in the same {@link Symbols}
+     * table.
+     */
+    public void addAll(TokenBuffer other, int start, int end, int shift) {
+        if (other.symbols != symbols) {
+            throw new IllegalArgumentException("The buffers intern identifiers in different tables.");
+        }
+        flatten();
+        if (other.tree != null) {
+            other.tree.appendTo(this, start, end, shift);
+            return;
+        }
+        int count = end - start;
+        if (size + count > types.length) {
+            int capacity = Math.max(2 * types.length, size + count);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        System.arraycopy(other.types, start, types, size, count);
+        System.arraycopy(other.lengths, start, lengths, size, count);
+        System.arraycopy(other.ids, start, ids, size, count);
+        for (int i = 0; i < count; i++) {
+            starts[size + i] = other.starts[start + i] + shift;
+        }
+        size += count;
+    }
+
+    /**
+     * Returns an unmodifiable list view of the buffer, creating tokens as they
+     * are accessed.
+     */
+    public TokenList asList() {
+        return new TokenList(this);
+    }
+
+    private void allocate(int capacity) {
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        ids = new int[capacity];
+    }
+
+    /**
+     * Copies the tokens of an edited buffer into arrays.
+     */
+    private void flatten() {
+        if (tree != null) {
+            Piece tokens = tree;
+            tree = null;
+            size = 0;
+            allocate(Math.max(INITIAL_CAPACITY, tokens.size));
+            tokens.appendTo(this, 0, tokens.size, 0);
+        }
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size + ".");
+        }
+        return index;
+    }
+
+    /**
+     * A node of the tree of an edited buffer. A leaf is a range of the tokens
+     * of a buffer, and a branch concatenates its children, whose heights
+     * differ by at most one. The shift is added to the starts of all tokens
+     * below the node, and is pushed down to copies of the children whenever a
+     * branch is taken apart, so nodes are never modified.
+     */
+    private static final class Piece {
+
+        private final TokenBuffer tokens;
+        private final int from;
+        private final Piece left;
+        private final Piece right;
+        private final int size;
+        private final int height;
+        private final int shift;
+
+        private Piece(TokenBuffer tokens, int from, int size, int shift) {
+            this.tokens = tokens;
+            this.from = from;
+            this.left = null;
+            this.right = null;
+            this.size = size;
+            this.height = 0;
+            this.shift = shift;
+        }
+
+        private Piece(Piece left, Piece right, int shift) {
+            this.tokens = null;
+            this.from = 0;
+            this.left = left;
+            this.right = right;
+            this.size = left.size + right.size;
+            this.height = Math.max(left.height, right.height) + 1;
+            this.shift = shift;
+        }
+
+        /**
+         * Returns the tree of the tokens of the buffer, or null if it is
+         * empty. The arrays of a buffer are only ever appended to, so a leaf
+         * may share them.
+         */
+        private static Piece of(TokenBuffer buffer) {
+            if (buffer.tree != null || buffer.size == 0) {
+                return buffer.tree;
+            }
+            return new Piece(buffer, 0, buffer.size, 0);
+        }
+
+        private Position locate(int index) {
+            Piece piece = this;
+            int shift = 0;
+            while (piece.tokens == null) {
+                shift += piece.shift;
+                if (index < piece.left.size) {
+                    piece = piece.left;
+                } else {
+                    index -= piece.left.size;
+                    piece = piece.right;
+                }
+            }
+            return new Position(piece.tokens, piece.from + index, shift + piece.shift);
+        }
+
+        /**
+         * Appends the tokens from start (inclusive) to end (exclusive) to
+         * the flat buffer, shifting their starts by the given amount.
+         */
+        private void appendTo(TokenBuffer buffer, int start, int end, int shift) {
+            if (start >= end) {
+                return;
+            } else if (tokens != null) {
+                buffer.addAll(tokens, from + start, from + end, shift + this.shift);
+            } else {
+                left.appendTo(buffer, start, Math.min(end, left.size), shift + this.shift);
+                right.appendTo(buffer, Math.max(start, left.size) - left.size, end - left.size, shift + this.shift);
+            }
+        }
+
+        private Piece shifted(int shift) {
+            if (shift == 0) {
+                return this;
+            }
+            return tokens != null
+                    ? new Piece(tokens, from, size, this.shift + shift)
+                    : new Piece(left, right, this.shift + shift);
+        }
+
+        private Piece left() {
+            return left.shifted(shift);
+        }
+
+        private Piece right() {
+            return right.shifted(shift);
+        }
+
+        /**
+         * Returns the tree of the first count tokens.
+         */
+        private static Piece take(Piece piece, int count) {
+            if (piece == null || count <= 0) {
+                return null;
+            } else if (count >= piece.size) {
+                return piece;
+            } else if (piece.tokens != null) {
+                return new Piece(piece.tokens, piece.from, count, piece.shift);
+            } else if (count <= piece.left.size) {
+                return take(piece.left(), count);
+            }
+            return join(piece.left(), take(piece.right(), count - piece.left.size));
+        }
+
+        /**
+         * Returns the tree without the first count tokens.
+         */
+        private static Piece drop(Piece piece, int count) {
+            if (piece == null || count <= 0) {
+                return piece;
+            } else if (count >= piece.size) {
+                return null;
+            } else if (piece.tokens != null) {
+                return new Piece(piece.tokens, piece.from + count, piece.size - count, piece.shift);
+            } else if (count >= piece.left.size) {
+                return drop(piece.right(), count - piece.left.size);
+            }
+            return join(drop(piece.left(), count), piece.right());
+        }
+
+        /**
+         * Returns the concatenation of the trees, in the same way as {@link
+         * Rope} concatenates ropes.
+         */
+        private static Piece join(Piece left, Piece right) {
+            if (left == null) {
+                return right;
+            } else if (right == null) {
+                return left;
+            } else if (left.height > right.height + 1) {
+                return balance(left.left(), join(left.right(), right));
+            } else if (right.height > left.height + 1) {
+                return balance(join(left, right.left()), right.right());
+            }
+            return new Piece(left, right, 0);
+        }
+
+        private static Piece balance(Piece left, Piece right) {
+            if (left.height > right.height + 1) {
+                if (left.left.height >= left.right.height) {
+                    return new Piece(left.left(), new Piece(left.right(), right, 0), 0);
+                }
+                Piece middle = left.right();
+                return new Piece(new Piece(left.left(), middle.left(), 0), new Piece(middle.right(), right, 0), 0);
+            } else if (right.height > left.height + 1) {
+                if (right.right.height >= right.left.height) {
+                    return new Piece(new Piece(left, right.left(), 0), right.right(), 0);
+                }
+                Piece middle = right.left();
+                return new Piece(new Piece(left, middle.left(), 0), new Piece(middle.right(), right.right(), 0), 0);
+            }
+            return new Piece(left, right, 0);
+        }
+
+    }
+
+    /**
+     * The flat buffer holding a token of an edited buffer, the index of the
+     * token in it, and the shift of its start.
+     */
+    private static final class Position {
+
+        private final TokenBuffer tokens;
+        private final int index;
+        private final int shift;
+
+        private Position(TokenBuffer tokens, int index, int shift) {
+            this.tokens = tokens;
+            this.index = index;
+            this.shift = shift;
+        }
+
+    }
+
+    /**
+     * The {@link java.util.List} adapter returned by {@link #asList()}. The
+     * parser recognizes this type and reads the underlying buffer directly.
+     */
+    public static final class TokenList extends AbstractList<Token> implements RandomAccess {
+
+        private final TokenBuffer buffer;
+
+        private TokenList(TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public TokenBuffer getBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public Token get(int index) {
+            return buffer.get(index);
+        }
+
+        @Override
+        public int size() {
+            return buffer.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,142 @@
+package plc.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scaling benchmark for the analyzer. As with {@link LexerBenchmark} this is a
+ * main class, run it with {@code plc.compiler.AnalyzerBenchmark}.
+ *
+ * Expressions of doubling size are analyzed both as left-deep chains, which is
+ * what the parser builds for {@code 1 + 1 + ... + 1}, and as balanced trees.
+ * Analysis is linear if the time per node stays roughly constant as the size
+ * grows. The analyzer is recursive, so the benchmark runs on a thread with a
+ * large stack to reach deep chains.
+ *
+ * Each expression is analyzed both into a typed copy and with an {@link
+ * Analyzer#annotating(Scope)} analyzer, along with the bytes allocated per
+ * node by a single analysis in each mode.
+ *
+ * Finally a source of many top-level blocks is analyzed in order and with
+ * {@link Analyzer#parallel(Scope, ForkJoinPool)} on pools of 1 to 32
+ * threads, checking the result against analysis in order first.
+ */
+final class AnalyzerBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        Thread thread = new Thread(null, AnalyzerBenchmark::benchmark, "benchmark", 1L << 28);
+        thread.start();
+        thread.join();
+    }
+
+    static void benchmark() {
+        System.out.printf("%-10s %8s %-9s %12s %10s %12s%n", "shape", "nodes", "mode", "time (us)", "ns/node", "bytes/node");
+        for (int depth = 128; depth <= 8192; depth *= 2) {
+            run("chain", chain(depth), 2 * depth + 1);
+        }
+        for (int height = 8; height <= 16; height += 2) {
+            run("balanced", balanced(height), (1 << (height + 1)) - 1);
+        }
+        parallel(blocks(30_000));
+    }
+
+    static void parallel(Ast.Source source) {
+        Ast.Source expected = sequential(source);
+        System.out.printf("%n%-10s %8s %12s %10s%n", "threads", "stmts", "time (us)", "ns/stmt");
+        report("serial", source, LexerBenchmark.time(() -> sequential(source)));
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                if (!expected.equals(Analyzer.parallel(new Scope(null), pool).visit(source))) {
+                    throw new AssertionError("Parallel analysis differs from sequential analysis.");
+                }
+                report(threads + " thr", source, LexerBenchmark.time(() -> Analyzer.parallel(new Scope(null), pool).visit(source)));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    static void report(String name, Ast.Source source, long nanos) {
+        int statements = source.getStatements().size();
+        System.out.printf("%-10s %8d %12.1f %10.1f%n", name, statements, nanos / 1e3, (double) nanos / statements);
+    }
+
+    /**
+     * Analyzes the statements of the source in order.
+     */
+    static Ast.Source sequential(Ast.Source source) {
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (Ast.Statement statement : source.getStatements()) {
+            statements.add((Ast.Statement) analyzer.visit(statement));
+        }
+        return new Ast.Source(statements);
+    }
+
+    /**
+     * Generates a source of declarations, each followed by an if and a while
+     * block using the declared variable.
+     */
+    static Ast.Source blocks(int count) {
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Ast.Expression variable = new Ast.Expression.Variable("value_" + i);
+            Ast.Expression sum = new Ast.Expression.Binary("+", variable, chain(8));
+            statements.add(new Ast.Statement.Declaration("value_" + i, "INTEGER", Optional.of(new Ast.Expression.Literal((long) i))));
+            statements.add(new Ast.Statement.If(new Ast.Expression.Binary("==", sum, new Ast.Expression.Literal(1L)),
+                    Arrays.asList(print(sum)), Arrays.asList(print(new Ast.Expression.Literal("else")))));
+            statements.add(new Ast.Statement.While(new Ast.Expression.Binary("!=", variable, new Ast.Expression.Literal(0L)),
+                    Collections.singletonList(print(new Ast.Expression.Binary("*", sum, new Ast.Expression.Literal(1.5))))));
+        }
+        return new Ast.Source(statements);
+    }
+
+    static Ast.Statement print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function("PRINT", Arrays.asList(argument)));
+    }
+
+    static void run(String shape, Ast.Expression expression, int nodes) {
+        run(shape, nodes, "copy", () -> new Analyzer(new Scope(null)).visit(expression));
+        run(shape, nodes, "annotate", () -> Analyzer.annotating(new Scope(null)).visit(expression));
+    }
+
+    static void run(String shape, int nodes, String mode, Runnable analysis) {
+        long nanos = LexerBenchmark.time(analysis);
+        long before = allocated();
+        analysis.run();
+        long bytes = allocated() - before;
+        System.out.printf("%-10s %8d %-9s %12.1f %10.1f %12.1f%n", shape, nodes, mode,
+                nanos / 1e3, (double) nanos / nodes, (double) bytes / nodes);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread.
+     */
+    static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Ast.Expression chain(int depth) {
+        Ast.Expression expression = new Ast.Expression.Literal(BigInteger.ONE);
+        for (int i = 0; i < depth; i++) {
+            expression = new Ast.Expression.Binary(i % 2 == 0 ? "+" : "*", expression, new Ast.Expression.Literal(BigInteger.ONE));
+        }
+        return expression;
+    }
+
+    static Ast.Expression balanced(int height) {
+        if (height == 0) {
+            return new Ast.Expression.Literal(BigInteger.ONE);
+        }
+        return new Ast.Expression.Binary("-", balanced(height - 1), balanced(height - 1));
+    }
+
+}
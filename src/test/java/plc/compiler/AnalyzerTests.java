@@ -1,16 +1,20 @@
 package plc.compiler;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 /**
@@ -138,6 +142,30 @@ public final class AnalyzerTests {
                 Arguments.of("true",
                         new Ast.Expression.Literal(Boolean.TRUE),
                         new Ast.Expression.Literal(Stdlib.Type.BOOLEAN, Boolean.TRUE)
+                ),
+                Arguments.of("Integer Max",
+                        new Ast.Expression.Literal((long) Integer.MAX_VALUE),
+                        new Ast.Expression.Literal(Stdlib.Type.INTEGER, Integer.MAX_VALUE)
+                ),
+                Arguments.of("Integer Overflow",
+                        new Ast.Expression.Literal(Integer.MAX_VALUE + 1L),
+                        null
+                ),
+                Arguments.of("Big Integer Min",
+                        new Ast.Expression.Literal(BigInteger.valueOf(Integer.MIN_VALUE)),
+                        new Ast.Expression.Literal(Stdlib.Type.INTEGER, Integer.MIN_VALUE)
+                ),
+                Arguments.of("Big Integer Overflow",
+                        new Ast.Expression.Literal(BigInteger.ONE.shiftLeft(64)),
+                        null
+                ),
+                Arguments.of("Decimal",
+                        new Ast.Expression.Literal(1.5),
+                        new Ast.Expression.Literal(Stdlib.Type.DECIMAL, 1.5)
+                ),
+                Arguments.of("Big Decimal Overflow",
+                        new Ast.Expression.Literal(BigDecimal.TEN.pow(400)),
+                        null
                 )
 
         );
@@ -174,7 +202,123 @@ public final class AnalyzerTests {
         );
     }
 
+    /**
+     * Each operand must be analyzed once, otherwise this chain never finishes.
+     */
+    @Test
+    public void testDeepBinaryExpression() {
+        Ast.Expression ast = new Ast.Expression.Literal(BigInteger.ONE);
+        Ast.Expression expected = new Ast.Expression.Literal(Stdlib.Type.INTEGER, 1);
+        for (int i = 0; i < 100; i++) {
+            ast = new Ast.Expression.Binary("*", ast, new Ast.Expression.Literal(BigInteger.ONE));
+            expected = new Ast.Expression.Binary(Stdlib.Type.INTEGER, "*", expected,
+                    new Ast.Expression.Literal(Stdlib.Type.INTEGER, 1));
+        }
+        test(ast, expected, Collections.emptyMap());
+    }
 
+    /**
+     * The parallel analyzer must give the same result, or throw the same
+     * exception, as analyzing the statements in order.
+     */
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testParallel(String test, List<Ast.Statement> statements) {
+        List<Ast.Statement> expected = new ArrayList<>();
+        AnalysisException exception = null;
+        Analyzer sequential = new Analyzer(new Scope(null));
+        try {
+            for (Ast.Statement statement : statements) {
+                expected.add((Ast.Statement) sequential.visit(statement));
+            }
+        } catch (AnalysisException e) {
+            exception = e;
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Analyzer parallel = Analyzer.parallel(new Scope(null), pool);
+            if (exception == null) {
+                Assertions.assertEquals(new Ast.Source(expected), parallel.visit(new Ast.Source(statements)));
+            } else {
+                AnalysisException actual = Assertions.assertThrows(AnalysisException.class, () -> parallel.visit(new Ast.Source(statements)));
+                Assertions.assertEquals(exception.getMessage(), actual.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static Stream<Arguments> testParallel() {
+        List<Ast.Statement> undefined = program(300);
+        undefined.set(150, print(new Ast.Expression.Variable("undefined")));
+        List<Ast.Statement> errors = new ArrayList<>(undefined);
+        errors.set(60, new Ast.Statement.If(new Ast.Expression.Literal(1L), Arrays.asList(print(new Ast.Expression.Literal(1L))), Collections.emptyList()));
+        List<Ast.Statement> redefined = program(300);
+        redefined.set(100, new Ast.Statement.Declaration("v0", "INTEGER", Optional.empty()));
+        List<Ast.Statement> redefinedAfter = new ArrayList<>(redefined);
+        redefinedAfter.set(60, errors.get(60));
+        List<Ast.Statement> body = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            body.add(print(new Ast.Expression.Literal("body")));
+        }
+        body.set(10, new Ast.Statement.Declaration("n", "STRING", Optional.empty()));
+        body.set(70, print(new Ast.Expression.Variable("v240")));
+        body.set(90, print(new Ast.Expression.Variable("n")));
+        List<Ast.Statement> nested = program(300);
+        nested.set(160, new Ast.Statement.While(new Ast.Expression.Literal(Boolean.TRUE), body));
+        return Stream.of(
+                Arguments.of("Valid", program(300)),
+                Arguments.of("Error", undefined),
+                Arguments.of("First Error", errors),
+                Arguments.of("Redefined", redefined),
+                Arguments.of("Error Before Redefined", redefinedAfter),
+                Arguments.of("Nested Error", nested)
+        );
+    }
+
+    /**
+     * Returns declarations of v0, v3, ... each followed by an if and a while
+     * using it, with a declaration in the while.
+     */
+    private static List<Ast.Statement> program(int size) {
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Ast.Expression.Variable variable = new Ast.Expression.Variable("v" + (i - i % 3));
+            if (i % 3 == 0) {
+                statements.add(new Ast.Statement.Declaration("v" + i, "INTEGER", Optional.of(new Ast.Expression.Literal((long) i))));
+            } else if (i % 3 == 1) {
+                statements.add(new Ast.Statement.If(new Ast.Expression.Binary("==", variable, new Ast.Expression.Literal(1L)),
+                        Arrays.asList(print(variable)), Collections.emptyList()));
+            } else {
+                statements.add(new Ast.Statement.While(new Ast.Expression.Binary("!=", variable, new Ast.Expression.Literal(0L)), Arrays.asList(
+                        new Ast.Statement.Declaration("w" + i, "DECIMAL", Optional.of(new Ast.Expression.Literal(1.5))),
+                        print(new Ast.Expression.Binary("+", new Ast.Expression.Variable("w" + i), variable))
+                )));
+            }
+        }
+        return statements;
+    }
+
+    private static Ast.Statement print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function("PRINT", Arrays.asList(argument)));
+    }
+
+    @Test
+    public void testFlatAst() {
+        Ast.Expression ast = new Ast.Expression.Function("PRINT", Arrays.asList(
+                new Ast.Expression.Binary("+",
+                        new Ast.Expression.Literal(BigInteger.ONE),
+                        new Ast.Expression.Literal(new BigDecimal("2.5"))
+                )
+        ));
+        Ast analyzed = new Analyzer(new Scope(null)).visit(ast);
+        FlatAst parsed = FlatAst.encode(ast);
+        Assertions.assertEquals(analyzed, parsed.accept(parsed.getRoot(), new Analyzer(new Scope(null))));
+        FlatAst flat = FlatAst.encode(analyzed);
+        Assertions.assertEquals(analyzed, flat.get(flat.getRoot()));
+        Assertions.assertEquals(Stdlib.Type.DECIMAL, flat.getType(flat.getChild(flat.getRoot(), 0)));
+        Assertions.assertEquals(Stdlib.Type.VOID, flat.getType(flat.getRoot()));
+    }
 
     @ParameterizedTest(name = "{0}")
     @MethodSource
@@ -199,6 +343,16 @@ public final class AnalyzerTests {
                                 new Ast.Expression.Literal("c")
                         )),
                         null
+                ),
+                Arguments.of("Print No Arguments",
+                        new Ast.Expression.Function("PRINT", Arrays.asList()),
+                        null
+                ),
+                Arguments.of("Unknown Function",
+                        new Ast.Expression.Function("UNKNOWN_FUNCTION", Arrays.asList(
+                                new Ast.Expression.Literal("string")
+                        )),
+                        null
                 )
         );
     }
@@ -224,13 +378,106 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    public void testAnnotating() {
+        Ast.Expression.Variable variable = new Ast.Expression.Variable("x");
+        Ast.Expression.Binary condition = new Ast.Expression.Binary("!=", variable, new Ast.Expression.Literal(1L));
+        Ast.Expression.Binary sum = new Ast.Expression.Binary("+", variable, new Ast.Expression.Literal(1.5));
+        Ast.Expression.Function function = new Ast.Expression.Function("PRINT", Arrays.asList(sum));
+        Ast.Statement.While ast = new Ast.Statement.While(condition, Arrays.asList(new Ast.Statement.Expression(function)));
+        Analyzer analyzer = Analyzer.annotating(new Scope(null));
+        analyzer.scope.define("x", Stdlib.Type.INTEGER);
+        Assertions.assertSame(ast, analyzer.visit(ast));
+        Assertions.assertEquals(Stdlib.Type.BOOLEAN, condition.getType());
+        Assertions.assertEquals(Stdlib.Type.INTEGER, variable.getType());
+        Assertions.assertEquals(Stdlib.Type.DECIMAL, sum.getType());
+        Assertions.assertEquals(Stdlib.Type.VOID, function.getType());
+    }
+
+    @Test
+    public void testAnnotatingHashConsed() {
+        Ast.Source source = new Parser(Lexer.lex("LET x : INTEGER = 1;\nLET y : DECIMAL = x + 1;\nLET z : INTEGER = x + 1;\ny = x;\n"),
+                AstFactory.hashConsing()).parseSource();
+        Ast.Expression sum = ((Ast.Statement.Declaration) source.getStatements().get(1)).getValue().get();
+        Analyzer copying = new Analyzer(new Scope(null));
+        Analyzer annotating = Analyzer.annotating(new Scope(null));
+        for (Ast.Statement statement : source.getStatements().subList(0, 3)) {
+            Ast.Statement.Declaration copied = (Ast.Statement.Declaration) copying.visit(statement);
+            Ast.Statement.Declaration annotated = (Ast.Statement.Declaration) annotating.visit(statement);
+            Assertions.assertNotSame(statement, annotated);
+            Assertions.assertEquals(copied.getValue(), annotated.getValue());
+        }
+        Assertions.assertSame(sum, ((Ast.Statement.Declaration) source.getStatements().get(2)).getValue().get());
+        Assertions.assertNull(sum.type);
+        Ast.Statement assignment = source.getStatements().get(3);
+        Assertions.assertThrows(IllegalStateException.class, () -> copying.visit(assignment));
+        Assertions.assertThrows(IllegalStateException.class, () -> annotating.visit(assignment));
+    }
+
+    @Test
+    public void testRegisteredType() {
+        Stdlib.Type type = new Stdlib.Type("REGISTERED", "Registered");
+        Stdlib.registerType(type);
+        Assertions.assertDoesNotThrow(() -> Analyzer.checkAssignable(type, type));
+        Assertions.assertDoesNotThrow(() -> Analyzer.checkAssignable(type, Stdlib.Type.ANY));
+        Assertions.assertThrows(AnalysisException.class, () -> Analyzer.checkAssignable(type, Stdlib.Type.STRING));
+        Assertions.assertThrows(AnalysisException.class, () -> Analyzer.checkAssignable(Stdlib.Type.STRING, type));
+        test(new Ast.Expression.Binary("+", new Ast.Expression.Variable("registered"), new Ast.Expression.Literal("string")),
+                new Ast.Expression.Binary(Stdlib.Type.STRING, "+",
+                        new Ast.Expression.Variable(type, "registered"),
+                        new Ast.Expression.Literal(Stdlib.Type.STRING, "string")),
+                Collections.singletonMap("registered", type));
+        test(new Ast.Expression.Binary("*", new Ast.Expression.Variable("registered"), new Ast.Expression.Literal(1L)),
+                null, Collections.singletonMap("registered", type));
+    }
+
+    @Test
+    public void testOverlay() {
+        Stdlib.Overlay first = Stdlib.overlay();
+        Stdlib.Overlay second = Stdlib.overlay();
+        first.registerFunction(new Stdlib.Function("LOG", "first.log", Arrays.asList(Stdlib.Type.ANY), Stdlib.Type.VOID));
+        second.registerFunction(new Stdlib.Function("LOG", "second.log", Arrays.asList(Stdlib.Type.ANY), Stdlib.Type.VOID));
+        Stdlib.Type type = new Stdlib.Type("OVERLAID", "Overlaid");
+        first.registerType(type);
+        Ast.Statement ast = new Ast.Statement.Expression(
+                new Ast.Expression.Function("LOG", Arrays.asList(new Ast.Expression.Literal("message"))));
+        Assertions.assertEquals(new Ast.Statement.Expression(new Ast.Expression.Function(Stdlib.Type.VOID, "first.log",
+                Arrays.asList(new Ast.Expression.Literal(Stdlib.Type.STRING, "message")))),
+                new Analyzer(new Scope(null), first).visit(ast));
+        Assertions.assertEquals(new Ast.Statement.Expression(new Ast.Expression.Function(Stdlib.Type.VOID, "second.log",
+                Arrays.asList(new Ast.Expression.Literal(Stdlib.Type.STRING, "message")))),
+                new Analyzer(new Scope(null), second).visit(ast));
+        Assertions.assertThrows(AnalysisException.class, () -> new Analyzer(new Scope(null)).visit(ast));
+        Assertions.assertEquals(type, first.getType("OVERLAID"));
+        Assertions.assertThrows(AnalysisException.class, () -> second.getType("OVERLAID"));
+        Assertions.assertThrows(AnalysisException.class, () -> Stdlib.getType("OVERLAID"));
+        Assertions.assertDoesNotThrow(() -> Analyzer.checkAssignable(type, Stdlib.Type.ANY));
+        Assertions.assertThrows(AnalysisException.class, () -> Analyzer.checkAssignable(type, Stdlib.Type.STRING));
+        Assertions.assertEquals(Stdlib.Type.STRING, Stdlib.getResult(Stdlib.Operator.ADDITION, type, Stdlib.Type.STRING));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> first.registerFunction(
+                new Stdlib.Function("LOG", "other.log", Arrays.asList(Stdlib.Type.ANY), Stdlib.Type.VOID)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> first.registerFunction(Stdlib.Function.PRINT));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> second.registerType(Stdlib.Type.INTEGER));
+    }
+
+    /**
+     * Checks both the copied tree and, with an annotating analyzer, that the
+     * same input is accepted and its root is typed in place.
+     */
     private static <T extends Ast> Analyzer test(T ast, T expected, Map<String, Stdlib.Type> map) {
         Analyzer analyzer = new Analyzer(new Scope(null));
         map.forEach(analyzer.scope::define);
+        Analyzer annotating = Analyzer.annotating(new Scope(null));
+        map.forEach(annotating.scope::define);
         if (expected != null) {
             Assertions.assertEquals(expected, analyzer.visit(ast));
+            Assertions.assertSame(ast, annotating.visit(ast));
+            if (expected instanceof Ast.Expression && ((Ast.Expression) expected).type != null) {
+                Assertions.assertEquals(((Ast.Expression) expected).getType(), ((Ast.Expression) ast).getType());
+            }
         } else {
             Assertions.assertThrows(AnalysisException.class, () -> analyzer.visit(ast));
+            Assertions.assertThrows(AnalysisException.class, () -> annotating.visit(ast));
         }
         return analyzer;
     }
@@ -0,0 +1,76 @@
+package plc.compiler;
+
+/**
+ * Memory benchmark for the AST representations. As with {@link
+ * LexerBenchmark} this is a main class, run it with {@code
+ * plc.compiler.AstBenchmark [statements]}.
+ *
+ * A generated program is parsed into an object tree, both with and without
+ * {@link AstFactory#hashConsing()}, and is then encoded as a {@link FlatAst}.
+ * The heap retained by each is measured against the size of the source,
+ * along with the time to encode and decode the tree.
+ */
+final class AstBenchmark {
+
+    public static void main(String[] args) {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        String input = program(statements);
+        TokenBuffer tokens = Lexer.buffer(input);
+
+        long before = LexerBenchmark.heap();
+        Ast ast = new Parser(tokens).parseSource();
+        long objectHeap = LexerBenchmark.heap() - before;
+
+        time(ast, input.length());
+
+        before = LexerBenchmark.heap();
+        Ast shared = new Parser(tokens.asList(), AstFactory.hashConsing()).parseSource();
+        long sharedHeap = LexerBenchmark.heap() - before;
+        if (!ast.equals(shared)) {
+            throw new AssertionError("Hash-consed tree differs from the parsed tree.");
+        }
+        shared = null;
+
+        before = LexerBenchmark.heap();
+        FlatAst retained = FlatAst.encode(ast);
+        long flatHeap = LexerBenchmark.heap() - before;
+
+        System.out.printf("Source: %d chars, %d nodes%n", input.length(), retained.size());
+        System.out.printf("Object tree: %8.2f MB %6.2fx source %6.1f bytes/node%n",
+                objectHeap / 1e6, (double) objectHeap / input.length(), (double) objectHeap / retained.size());
+        System.out.printf("Hash-consed: %8.2f MB %6.2fx source %6.1f bytes/node%n",
+                sharedHeap / 1e6, (double) sharedHeap / input.length(), (double) sharedHeap / retained.size());
+        System.out.printf("Flat AST:    %8.2f MB %6.2fx source %6.1f bytes/node%n",
+                flatHeap / 1e6, (double) flatHeap / input.length(), (double) flatHeap / retained.size());
+    }
+
+    /**
+     * Checks that the tree survives encoding, then times encoding and
+     * decoding it.
+     */
+    static void time(Ast ast, int chars) {
+        FlatAst flat = FlatAst.encode(ast);
+        if (!ast.equals(flat.get(flat.getRoot()))) {
+            throw new AssertionError("Decoded tree differs from the parsed tree.");
+        }
+        LexerBenchmark.report("encode", LexerBenchmark.time(() -> FlatAst.encode(ast)), chars);
+        LexerBenchmark.report("decode", LexerBenchmark.time(() -> flat.get(flat.getRoot())), chars);
+    }
+
+    /**
+     * Generates a program of declarations, assignments and nested blocks
+     * which the parser accepts.
+     */
+    static String program(int statements) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < statements; i++) {
+            builder.append("LET value_").append(i).append(" : DECIMAL = ").append(i).append(".25 * (x")
+                    .append(i % 7).append(" + 42) / 3;\n");
+            builder.append("WHILE value_").append(i).append(" != 10 DO\n    IF x").append(i % 7)
+                    .append(" == \"done\" THEN\n        value_").append(i).append(" = value_").append(i)
+                    .append(" - 1;\n    END\nEND\n");
+        }
+        return builder.toString();
+    }
+
+}
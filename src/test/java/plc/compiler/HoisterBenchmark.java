@@ -0,0 +1,187 @@
+package plc.compiler;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Execution benchmark for the programs generated with and without the {@link
+ * Hoister}. As with {@link LexerBenchmark} this is a main class, run it with
+ * {@code plc.compiler.HoisterBenchmark [iterations]} on a JDK, since the
+ * generated Java is compiled with the system compiler.
+ *
+ * The program is a nested loop whose inner body recomputes integer and decimal
+ * expressions of the outer loop variable. Both generated classes are checked
+ * to print the same output before anything is timed. Each class is timed on
+ * its first run from a fresh class loader, which is how a generated program
+ * normally runs and leaves most of the loop to the interpreter and the
+ * on-stack-replaced code, and again once the JIT has warmed up, where it may
+ * hoist the same invariants itself. Running with {@code -Xint} or {@code
+ * -XX:TieredStopAtLevel=1} shows the effect without the optimizing compiler.
+ */
+final class HoisterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        Ast.Source source = program(iterations);
+        Ast.Source hoisted = new Hoister().visit(source);
+        Path directory = Files.createTempDirectory("hoister");
+        try {
+            Method plain = compile(directory.resolve("plain"), source);
+            Method optimized = compile(directory.resolve("hoisted"), hoisted);
+            if (!run(plain).equals(run(optimized))) {
+                throw new AssertionError("Hoisted program output differs from the plain program.");
+            }
+            System.out.println("Inner iterations: " + (long) iterations * iterations);
+            System.out.printf("%-8s %12s %12s%n", "program", "first (ms)", "warm (ms)");
+            report("plain", directory.resolve("plain"), plain);
+            report("hoisted", directory.resolve("hoisted"), optimized);
+        } finally {
+            for (Path path : Files.walk(directory).sorted((a, b) -> b.compareTo(a)).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static void report(String name, Path directory, Method method) throws Exception {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            Method fresh = load(directory);
+            long start = System.nanoTime();
+            run(fresh);
+            first = Math.min(first, System.nanoTime() - start);
+        }
+        long warm = LexerBenchmark.time(() -> run(method));
+        System.out.printf("%-8s %12.2f %12.2f%n", name, first / 1e6, warm / 1e6);
+    }
+
+    /**
+     * Generates the program and compiles it into the directory, returning its
+     * main method.
+     */
+    static Method compile(Path directory, Ast.Source source) throws IOException, ReflectiveOperationException {
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(source);
+        Files.createDirectories(directory);
+        Path file = directory.resolve("Main.java");
+        Files.write(file, writer.toString().getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null || compiler.run(null, null, null, file.toString()) != 0) {
+            throw new IllegalStateException("Could not compile the generated program:\n" + writer);
+        }
+        return load(directory);
+    }
+
+    static Method load(Path directory) throws IOException, ReflectiveOperationException {
+        URLClassLoader loader = new URLClassLoader(new URL[] {directory.toUri().toURL()}, null);
+        return loader.loadClass("Main").getMethod("main", String[].class);
+    }
+
+    /**
+     * Runs the main method, returning what it printed.
+     */
+    static String run(Method method) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes));
+        try {
+            method.invoke(null, (Object) new String[0]);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    /**
+     * Generates the typed tree of
+     *
+     * <pre>
+     * LET i: INTEGER = 0; LET sum: INTEGER = 0;
+     * LET scale: DECIMAL = 1.5; LET total: DECIMAL = 0.0;
+     * WHILE i != iterations DO
+     *     LET j: INTEGER = 0;
+     *     WHILE j != iterations DO
+     *         sum = sum + (i * i + i) * (i - 3) + j;
+     *         total = total + scale * i / (scale + i);
+     *         j = j + 1;
+     *     END
+     *     i = i + 1;
+     * END
+     * PRINT(sum); PRINT(total);
+     * </pre>
+     */
+    static Ast.Source program(int iterations) {
+        Ast.Expression invariant = binary(Stdlib.Type.INTEGER, "*",
+                group(binary(Stdlib.Type.INTEGER, "+", binary(Stdlib.Type.INTEGER, "*", integer("i"), integer("i")), integer("i"))),
+                group(binary(Stdlib.Type.INTEGER, "-", integer("i"), literal(3))));
+        Ast.Expression ratio = binary(Stdlib.Type.DECIMAL, "/",
+                binary(Stdlib.Type.DECIMAL, "*", decimal("scale"), integer("i")),
+                group(binary(Stdlib.Type.DECIMAL, "+", decimal("scale"), integer("i"))));
+        return new Ast.Source(Arrays.asList(
+                declaration(Stdlib.Type.INTEGER, "i", literal(0)),
+                declaration(Stdlib.Type.INTEGER, "sum", literal(0)),
+                declaration(Stdlib.Type.DECIMAL, "scale", new Ast.Expression.Literal(Stdlib.Type.DECIMAL, 1.5)),
+                declaration(Stdlib.Type.DECIMAL, "total", new Ast.Expression.Literal(Stdlib.Type.DECIMAL, 0.0)),
+                new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", integer("i"), literal(iterations)), Arrays.asList(
+                        declaration(Stdlib.Type.INTEGER, "j", literal(0)),
+                        new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", integer("j"), literal(iterations)), Arrays.asList(
+                                new Ast.Statement.Assignment("sum", binary(Stdlib.Type.INTEGER, "+",
+                                        binary(Stdlib.Type.INTEGER, "+", integer("sum"), invariant), integer("j"))),
+                                new Ast.Statement.Assignment("total", binary(Stdlib.Type.DECIMAL, "+", decimal("total"), ratio)),
+                                increment("j")
+                        )),
+                        increment("i")
+                )),
+                print(integer("sum")),
+                print(decimal("total"))
+        ));
+    }
+
+    private static Ast.Expression.Binary binary(Stdlib.Type type, String operator, Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(type, operator, left, right);
+    }
+
+    private static Ast.Expression.Group group(Ast.Expression expression) {
+        return new Ast.Expression.Group(expression.getType(), expression);
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(Stdlib.Type.INTEGER, value);
+    }
+
+    private static Ast.Expression.Variable integer(String name) {
+        return new Ast.Expression.Variable(Stdlib.Type.INTEGER, name);
+    }
+
+    private static Ast.Expression.Variable decimal(String name) {
+        return new Ast.Expression.Variable(Stdlib.Type.DECIMAL, name);
+    }
+
+    private static Ast.Statement.Declaration declaration(Stdlib.Type type, String name, Ast.Expression value) {
+        return new Ast.Statement.Declaration(name, type.getJvmName(), Optional.of(value));
+    }
+
+    private static Ast.Statement.Assignment increment(String name) {
+        return new Ast.Statement.Assignment(name, binary(Stdlib.Type.INTEGER, "+", integer(name), literal(1)));
+    }
+
+    private static Ast.Statement.Expression print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function(Stdlib.Type.VOID,
+                Stdlib.Function.PRINT.getJvmName(), Arrays.asList(argument)));
+    }
+
+}
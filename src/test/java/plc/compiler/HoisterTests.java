@@ -0,0 +1,349 @@
+package plc.compiler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public final class HoisterTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testEliminate(String test, Ast.Source ast, Ast.Source expected) {
+        Assertions.assertEquals(expected, new Hoister().visit(ast));
+    }
+
+    public static Stream<Arguments> testEliminate() {
+        return Stream.of(
+                Arguments.of("Repeated",
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                print(add(product("a", "b"), variable("c")))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, product("a", "b")),
+                                print(variable("$0")),
+                                print(add(variable("$0"), variable("c")))
+                        ))
+                ),
+                Arguments.of("Largest First",
+                        new Ast.Source(Arrays.asList(
+                                print(add(product("a", "b"), variable("c"))),
+                                print(add(product("a", "b"), variable("c"))),
+                                print(product("a", "b"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(1, product("a", "b")),
+                                temporary(0, add(variable("$1"), variable("c"))),
+                                print(variable("$0")),
+                                print(variable("$0")),
+                                print(variable("$1"))
+                        ))
+                ),
+                Arguments.of("Assigned Operand",
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                new Ast.Statement.Assignment("a", product("a", "b")),
+                                print(product("a", "b"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, product("a", "b")),
+                                print(variable("$0")),
+                                new Ast.Statement.Assignment("a", variable("$0")),
+                                print(product("a", "b"))
+                        ))
+                ),
+                Arguments.of("Assigned Other",
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                new Ast.Statement.Assignment("c", variable("a")),
+                                print(product("a", "b"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, product("a", "b")),
+                                print(variable("$0")),
+                                new Ast.Statement.Assignment("c", variable("a")),
+                                print(variable("$0"))
+                        ))
+                ),
+                Arguments.of("Group",
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                print(add(new Ast.Expression.Group(product("a", "b")), variable("c")))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, product("a", "b")),
+                                print(variable("$0")),
+                                print(add(variable("$0"), variable("c")))
+                        ))
+                ),
+                Arguments.of("Regions",
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "run"), Arrays.asList(
+                                        print(product("a", "b")),
+                                        print(product("a", "b"))
+                                ), Collections.emptyList()),
+                                print(product("a", "b"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "run"), Arrays.asList(
+                                        temporary(0, product("a", "b")),
+                                        print(variable("$0")),
+                                        print(variable("$0"))
+                                ), Collections.emptyList()),
+                                print(product("a", "b"))
+                        ))
+                ),
+                Arguments.of("Division After Call",
+                        new Ast.Source(Arrays.asList(
+                                print(add(next("i"), divide(Stdlib.Type.INTEGER, "a", "b"))),
+                                print(divide(Stdlib.Type.INTEGER, "a", "b"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                print(add(next("i"), divide(Stdlib.Type.INTEGER, "a", "b"))),
+                                print(divide(Stdlib.Type.INTEGER, "a", "b"))
+                        ))
+                ),
+                Arguments.of("Division Before Call",
+                        new Ast.Source(Arrays.asList(
+                                print(add(divide(Stdlib.Type.INTEGER, "a", "b"), next("i"))),
+                                print(divide(Stdlib.Type.INTEGER, "a", "b"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, divide(Stdlib.Type.INTEGER, "a", "b")),
+                                print(add(variable("$0"), next("i"))),
+                                print(variable("$0"))
+                        ))
+                )
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testInvariants(String test, Ast.Source ast, Ast.Source expected) {
+        Assertions.assertEquals(expected, new Hoister().visit(ast));
+    }
+
+    public static Stream<Arguments> testInvariants() {
+        return Stream.of(
+                Arguments.of("Invariant",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        new Ast.Statement.Assignment("sum", add(variable("sum"), product("a", "b"))),
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, product("a", "b")),
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        new Ast.Statement.Assignment("sum", add(variable("sum"), variable("$0"))),
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Variant",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        print(product("a", "i")),
+                                        new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "run"), Arrays.asList(
+                                                new Ast.Statement.Assignment("a", variable("i"))
+                                        ), Collections.emptyList()),
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        print(product("a", "i")),
+                                        new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "run"), Arrays.asList(
+                                                new Ast.Statement.Assignment("a", variable("i"))
+                                        ), Collections.emptyList()),
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Division",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(notEqual("i", divide(Stdlib.Type.INTEGER, "a", "b")), Arrays.asList(
+                                        print(divide(Stdlib.Type.INTEGER, "c", "d")),
+                                        print(divide(Stdlib.Type.DECIMAL, "x", "y")),
+                                        print(divide(Stdlib.Type.INTEGER, "a", "b")),
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, divide(Stdlib.Type.INTEGER, "a", "b")),
+                                temporary(1, divide(Stdlib.Type.DECIMAL, "x", "y")),
+                                new Ast.Statement.While(notEqual("i", variable("$0")), Arrays.asList(
+                                        print(divide(Stdlib.Type.INTEGER, "c", "d")),
+                                        print(new Ast.Expression.Variable(Stdlib.Type.DECIMAL, "$1")),
+                                        print(variable("$0")),
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Division After Call",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(equal(next("i"), divide(Stdlib.Type.INTEGER, "a", "b")), Arrays.asList(
+                                        print(divide(Stdlib.Type.INTEGER, "a", "b")),
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(equal(next("i"), divide(Stdlib.Type.INTEGER, "a", "b")), Arrays.asList(
+                                        print(divide(Stdlib.Type.INTEGER, "a", "b")),
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Division Before Call",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(equal(divide(Stdlib.Type.INTEGER, "a", "b"), next("i")), Arrays.asList(
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, divide(Stdlib.Type.INTEGER, "a", "b")),
+                                new Ast.Statement.While(equal(variable("$0"), next("i")), Arrays.asList(
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Nested",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        new Ast.Statement.While(notEqual("j", variable("n")), Arrays.asList(
+                                                print(add(product("a", "b"), variable("i"))),
+                                                increment("j")
+                                        )),
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(1, product("a", "b")),
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        temporary(0, add(variable("$1"), variable("i"))),
+                                        new Ast.Statement.While(notEqual("j", variable("n")), Arrays.asList(
+                                                print(variable("$0")),
+                                                increment("j")
+                                        )),
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Common Invariant",
+                        new Ast.Source(Arrays.asList(
+                                print(product("a", "b")),
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        print(product("a", "b")),
+                                        increment("i")
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                temporary(0, product("a", "b")),
+                                print(variable("$0")),
+                                new Ast.Statement.While(notEqual("i", variable("n")), Arrays.asList(
+                                        print(variable("$0")),
+                                        increment("i")
+                                ))
+                        ))
+                )
+        );
+    }
+
+    @Test
+    public void testUnchanged() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                print(product("a", "b")),
+                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "run"),
+                        Arrays.asList(print(product("a", "b"))),
+                        Collections.emptyList()),
+                print(product("b", "a"))
+        ));
+        Assertions.assertSame(ast, new Hoister().visit(ast));
+    }
+
+    @Test
+    public void testPure() {
+        Stdlib.Overlay stdlib = Stdlib.overlay();
+        stdlib.registerFunction(new Stdlib.Function("ABS", "Math.abs", Arrays.asList(Stdlib.Type.INTEGER), Stdlib.Type.INTEGER, true));
+        stdlib.registerFunction(new Stdlib.Function("NEXT", "Counter.next", Arrays.asList(Stdlib.Type.INTEGER), Stdlib.Type.INTEGER));
+        Analyzer analyzer = new Analyzer(new Scope(null), stdlib);
+        analyzer.scope.define("a", Stdlib.Type.INTEGER);
+        analyzer.scope.define("b", Stdlib.Type.INTEGER);
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                analyzer.visit(new Ast.Statement.Expression(call("PRINT", call("ABS", new Ast.Expression.Variable("a"))))),
+                analyzer.visit(new Ast.Statement.Expression(call("PRINT", new Ast.Expression.Binary("+",
+                        call("ABS", new Ast.Expression.Variable("a")), new Ast.Expression.Variable("b"))))),
+                analyzer.visit(new Ast.Statement.Expression(call("PRINT", call("NEXT", new Ast.Expression.Variable("a"))))),
+                analyzer.visit(new Ast.Statement.Expression(call("PRINT", call("NEXT", new Ast.Expression.Variable("a")))))
+        ).stream().map(Ast.Statement.class::cast).collect(Collectors.toList()));
+        Ast.Expression.Function abs = new Ast.Expression.Function(Stdlib.Type.INTEGER, "Math.abs", Arrays.asList(variable("a")), true);
+        Ast.Expression.Function next = next("a");
+        Assertions.assertEquals(new Ast.Source(Arrays.asList(
+                temporary(0, abs),
+                print(variable("$0")),
+                print(add(variable("$0"), variable("b"))),
+                print(next),
+                print(next)
+        )), new Hoister().visit(ast));
+    }
+
+    private static Ast.Expression.Function call(String name, Ast.Expression argument) {
+        return new Ast.Expression.Function(name, Arrays.asList(argument));
+    }
+
+    private static Ast.Expression.Binary product(String left, String right) {
+        return new Ast.Expression.Binary(Stdlib.Type.INTEGER, "*", variable(left), variable(right));
+    }
+
+    private static Ast.Expression.Binary add(Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(Stdlib.Type.INTEGER, "+", left, right);
+    }
+
+    private static Ast.Expression.Binary divide(Stdlib.Type type, String left, String right) {
+        return new Ast.Expression.Binary(type, "/", variable(type, left), variable(type, right));
+    }
+
+    private static Ast.Expression.Binary notEqual(String left, Ast.Expression right) {
+        return new Ast.Expression.Binary(Stdlib.Type.BOOLEAN, "!=", variable(left), right);
+    }
+
+    private static Ast.Expression.Binary equal(Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(Stdlib.Type.BOOLEAN, "==", left, right);
+    }
+
+    private static Ast.Expression.Function next(String argument) {
+        return new Ast.Expression.Function(Stdlib.Type.INTEGER, "Counter.next", Arrays.asList(variable(argument)));
+    }
+
+    private static Ast.Statement.Assignment increment(String name) {
+        return new Ast.Statement.Assignment(name, add(variable(name), new Ast.Expression.Literal(Stdlib.Type.INTEGER, 1)));
+    }
+
+    private static Ast.Expression.Variable variable(String name) {
+        return variable(Stdlib.Type.INTEGER, name);
+    }
+
+    private static Ast.Expression.Variable variable(Stdlib.Type type, String name) {
+        return new Ast.Expression.Variable(type, name);
+    }
+
+    private static Ast.Statement.Declaration temporary(int index, Ast.Expression value) {
+        return new Ast.Statement.Declaration("$" + index, value.getType().getJvmName(), Optional.of(value));
+    }
+
+    private static Ast.Statement.Expression print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function(Stdlib.Type.VOID,
+                Stdlib.Function.PRINT.getJvmName(), Arrays.asList(argument)));
+    }
+
+}
@@ -0,0 +1,242 @@
+package plc.compiler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public final class IrTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testLower(String test, Ast.Source ast, String expected) {
+        Assertions.assertEquals(expected.replace("\n", System.lineSeparator()), new Lowerer().lower(ast).toString());
+    }
+
+    public static Stream<Arguments> testLower() {
+        return Stream.of(
+                Arguments.of("Straight Line",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(1)),
+                                declaration(Stdlib.Type.DECIMAL, "y", variable(Stdlib.Type.INTEGER, "x")),
+                                print(binary(Stdlib.Type.INTEGER, "*", variable(Stdlib.Type.INTEGER, "x"), literal(2)))
+                        )),
+                        "b0:\n" +
+                        "    x:int = const 1\n" +
+                        "    y:double = x\n" +
+                        "    %2:int = const 2\n" +
+                        "    %3:int = x * %2\n" +
+                        "    call System.out.println(%3)\n" +
+                        "    return\n"
+                ),
+                Arguments.of("If Else",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.BOOLEAN, "b", literal(false)),
+                                new Ast.Statement.Declaration("x", "String", Optional.empty()),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "b"),
+                                        Arrays.asList(new Ast.Statement.Assignment("x", literal("then"))),
+                                        Arrays.asList(new Ast.Statement.Assignment("x", literal("else")))),
+                                print(variable(Stdlib.Type.STRING, "x"))
+                        )),
+                        "b0:\n" +
+                        "    b:boolean = const false\n" +
+                        "    declare x:String\n" +
+                        "    branch b, b1, b2\n" +
+                        "b1:\n" +
+                        "    x:String = const \"then\"\n" +
+                        "    jump b3\n" +
+                        "b2:\n" +
+                        "    x:String = const \"else\"\n" +
+                        "    jump b3\n" +
+                        "b3:\n" +
+                        "    call System.out.println(x)\n" +
+                        "    return\n"
+                ),
+                Arguments.of("While",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "i", literal(0)),
+                                new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", variable(Stdlib.Type.INTEGER, "i"), literal(10)), Arrays.asList(
+                                        increment("i")
+                                ))
+                        )),
+                        "b0:\n" +
+                        "    i:int = const 0\n" +
+                        "    jump b1\n" +
+                        "b1:\n" +
+                        "    %1:int = const 10\n" +
+                        "    %2:boolean = i != %1\n" +
+                        "    branch %2, b2, b3\n" +
+                        "b2:\n" +
+                        "    %3:int = const 1\n" +
+                        "    i:int = i + %3\n" +
+                        "    jump b1\n" +
+                        "b3:\n" +
+                        "    return\n"
+                ),
+                Arguments.of("Calls",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", call(Stdlib.Type.INTEGER, "Math.abs", literal(-1))),
+                                new Ast.Statement.Expression(call(Stdlib.Type.INTEGER, "Math.abs", variable(Stdlib.Type.INTEGER, "x"))),
+                                print(call(Stdlib.Type.INTEGER, "Math.abs", variable(Stdlib.Type.INTEGER, "x")))
+                        )),
+                        "b0:\n" +
+                        "    %0:int = const -1\n" +
+                        "    x:int = call Math.abs(%0)\n" +
+                        "    %2:int = call Math.abs(x)\n" +
+                        "    %3:int = call Math.abs(x)\n" +
+                        "    call System.out.println(%3)\n" +
+                        "    return\n"
+                )
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testRaise(String test, Ast.Source ast) {
+        Assertions.assertEquals(ast, new Raiser(new Lowerer().lower(ast)).raise());
+    }
+
+    public static Stream<Arguments> testRaise() {
+        return Stream.of(
+                Arguments.of("Straight Line",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(1)),
+                                declaration(Stdlib.Type.DECIMAL, "y", variable(Stdlib.Type.INTEGER, "x")),
+                                new Ast.Statement.Assignment("x", binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), literal(1))),
+                                print(variable(Stdlib.Type.DECIMAL, "y"))
+                        ))
+                ),
+                Arguments.of("Groups",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(1)),
+                                print(binary(Stdlib.Type.INTEGER, "-", variable(Stdlib.Type.INTEGER, "x"),
+                                        group(binary(Stdlib.Type.INTEGER, "-",
+                                                binary(Stdlib.Type.INTEGER, "*", group(binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), literal(1))), literal(2)),
+                                                variable(Stdlib.Type.INTEGER, "x")))))
+                        ))
+                ),
+                Arguments.of("If Else",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.BOOLEAN, "b", literal(true)),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "b"), Arrays.asList(
+                                        print(literal("then"))
+                                ), Arrays.asList(
+                                        new Ast.Statement.If(binary(Stdlib.Type.BOOLEAN, "==", variable(Stdlib.Type.BOOLEAN, "b"), literal(false)), Arrays.asList(
+                                                print(literal("nested"))
+                                        ), Collections.emptyList())
+                                )),
+                                print(literal("after"))
+                        ))
+                ),
+                Arguments.of("Nested While",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "i", literal(0)),
+                                new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", variable(Stdlib.Type.INTEGER, "i"), literal(3)), Arrays.asList(
+                                        declaration(Stdlib.Type.INTEGER, "j", literal(0)),
+                                        new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", variable(Stdlib.Type.INTEGER, "j"), variable(Stdlib.Type.INTEGER, "i")), Arrays.asList(
+                                                print(binary(Stdlib.Type.INTEGER, "*", variable(Stdlib.Type.INTEGER, "i"), variable(Stdlib.Type.INTEGER, "j"))),
+                                                increment("j")
+                                        )),
+                                        increment("i")
+                                ))
+                        ))
+                ),
+                Arguments.of("Sibling Scopes",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.BOOLEAN, "b", literal(false)),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "b"), Arrays.asList(
+                                        declaration(Stdlib.Type.INTEGER, "x", literal(1)),
+                                        print(variable(Stdlib.Type.INTEGER, "x"))
+                                ), Arrays.asList(
+                                        declaration(Stdlib.Type.STRING, "x", literal("one")),
+                                        print(variable(Stdlib.Type.STRING, "x"))
+                                ))
+                        ))
+                ),
+                Arguments.of("Calls",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", call(Stdlib.Type.INTEGER, "Math.abs", literal(-1))),
+                                new Ast.Statement.Expression(call(Stdlib.Type.INTEGER, "Math.abs", variable(Stdlib.Type.INTEGER, "x"))),
+                                print(binary(Stdlib.Type.INTEGER, "+", call(Stdlib.Type.INTEGER, "Math.abs", variable(Stdlib.Type.INTEGER, "x")),
+                                        call(Stdlib.Type.INTEGER, "Math.abs", literal(2))))
+                        ))
+                )
+        );
+    }
+
+    @Test
+    public void testTemporary() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                print(literal(1)),
+                print(literal(2))
+        ));
+        Ir ir = new Lowerer().lower(ast);
+        Assertions.assertEquals(1, ir.getBlocks().size());
+        Assertions.assertEquals(Arrays.asList(ir.getRegisters().get(0)), ir.getEntry().getInstructions().get(1).getOperands());
+        Assertions.assertEquals(ast, new Raiser(ir).raise());
+    }
+
+    @Test
+    public void testPredecessors() {
+        Ir ir = new Lowerer().lower(new Ast.Source(Arrays.asList(
+                declaration(Stdlib.Type.BOOLEAN, "b", literal(true)),
+                new Ast.Statement.While(variable(Stdlib.Type.BOOLEAN, "b"), Arrays.asList(
+                        new Ast.Statement.Assignment("b", literal(false))
+                ))
+        )));
+        Ir.Block header = ir.getBlocks().get(1);
+        Assertions.assertEquals(Arrays.asList(ir.getEntry(), ir.getBlocks().get(2)), header.getPredecessors());
+        Assertions.assertEquals(Arrays.asList(ir.getBlocks().get(2), ir.getBlocks().get(3)), header.getSuccessors());
+    }
+
+    @Test
+    public void testUndefined() {
+        Assertions.assertThrows(AnalysisException.class, () -> new Lowerer().lower(new Ast.Source(Arrays.asList(
+                print(variable(Stdlib.Type.INTEGER, "x"))
+        ))));
+    }
+
+    private static Ast.Expression.Literal literal(Object value) {
+        Stdlib.Type type = value instanceof Boolean ? Stdlib.Type.BOOLEAN
+                : value instanceof Integer ? Stdlib.Type.INTEGER
+                : value instanceof Double ? Stdlib.Type.DECIMAL
+                : Stdlib.Type.STRING;
+        return new Ast.Expression.Literal(type, value);
+    }
+
+    private static Ast.Expression.Binary binary(Stdlib.Type type, String operator, Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(type, operator, left, right);
+    }
+
+    private static Ast.Expression.Group group(Ast.Expression expression) {
+        return new Ast.Expression.Group(expression.getType(), expression);
+    }
+
+    private static Ast.Expression.Variable variable(Stdlib.Type type, String name) {
+        return new Ast.Expression.Variable(type, name);
+    }
+
+    private static Ast.Expression.Function call(Stdlib.Type type, String name, Ast.Expression argument) {
+        return new Ast.Expression.Function(type, name, Arrays.asList(argument));
+    }
+
+    private static Ast.Statement.Declaration declaration(Stdlib.Type type, String name, Ast.Expression value) {
+        return new Ast.Statement.Declaration(name, type.getJvmName(), Optional.of(value));
+    }
+
+    private static Ast.Statement.Assignment increment(String name) {
+        return new Ast.Statement.Assignment(name, binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, name), literal(1)));
+    }
+
+    private static Ast.Statement.Expression print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function(Stdlib.Type.VOID,
+                Stdlib.Function.PRINT.getJvmName(), Arrays.asList(argument)));
+    }
+
+}
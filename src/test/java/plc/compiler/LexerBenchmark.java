@@ -0,0 +1,259 @@
+package plc.compiler;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Throughput benchmark for the lexer. This is a plain main class rather than a
+ * test since timings are only meaningful on a quiet machine, run it with
+ * {@code java -cp <test classpath> plc.compiler.LexerBenchmark [statements]}.
+ *
+ * The generated program is lexed with both the table driven {@link Lexer} and
+ * {@link RegexLexer}, a copy of the original regex based implementation, and
+ * the token lists are checked to be identical before anything is timed.
+ *
+ * The program is then written to a file and lexed both from a {@link String}
+ * read from the file and from a memory-mapped {@link Lexer#stream(Path)},
+ * comparing throughput and the heap retained by each input.
+ *
+ * A small edit in the middle of the program is relexed incrementally and
+ * compared against lexing the edited program from scratch.
+ *
+ * Finally a larger program is lexed in parallel with 1 to 32 threads.
+ */
+final class LexerBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        String input = program(statements);
+        System.out.println("Input: " + input.length() + " chars, " + statements + " statements");
+
+        List<Token> expected = RegexLexer.lex(input);
+        if (!expected.equals(Lexer.lex(input))) {
+            throw new AssertionError("Lexer output differs from the regex lexer.");
+        }
+        System.out.println("Tokens: " + expected.size());
+
+        report("regex", time(() -> RegexLexer.lex(input)), input.length());
+        report("table", time(() -> Lexer.lex(input)), input.length());
+
+        Path file = Files.createTempFile("lexer", ".plc");
+        try {
+            Files.write(file, input.getBytes(StandardCharsets.ISO_8859_1));
+            mapped(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        relex(input);
+        parallel(program(10 * statements));
+    }
+
+    /**
+     * Replaces an identifier in the middle of the input, relexing it both
+     * incrementally and from scratch.
+     */
+    static void relex(String input) {
+        TokenBuffer tokens = Lexer.buffer(input);
+        int offset = input.indexOf("value_", input.length() / 2);
+        String edited = input.substring(0, offset) + "renamed" + input.substring(offset + 5);
+        if (!Lexer.lex(edited).equals(Lexer.relex(tokens, offset, 5, "renamed").asList())) {
+            throw new AssertionError("Incremental lexing differs from lexing the edited input.");
+        }
+        report("full", time(() -> Lexer.buffer(edited)), input.length());
+        report("relex", time(() -> Lexer.relex(tokens, offset, 5, "renamed")), input.length());
+    }
+
+    /**
+     * Lexes the input in parallel on pools of 1 to 32 threads, checking the
+     * result against sequential lexing first.
+     */
+    static void parallel(String input) {
+        List<Token> expected = Lexer.lex(input);
+        report("serial", time(() -> Lexer.buffer(input)), input.length());
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                if (!expected.equals(Lexer.buffer(input, pool).asList())) {
+                    throw new AssertionError("Parallel lexing differs from sequential lexing.");
+                }
+                report(threads + " thr", time(() -> Lexer.buffer(input, pool)), input.length());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Compares lexing a file read into a {@link String} against lexing it
+     * memory-mapped. Tokens are counted rather than collected so the heap
+     * retained by the input itself is what is measured.
+     */
+    static void mapped(Path file) throws IOException {
+        long size = Files.size(file);
+        long before = heap();
+        String input = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        long stringHeap = heap() - before;
+        List<Token> tokens = new ArrayList<>();
+        Lexer.stream(file).forEachRemaining(tokens::add);
+        if (!tokens.equals(Lexer.lex(input))) {
+            throw new AssertionError("Mapped lexing differs from the string input.");
+        }
+        report("string", time(() -> count(new Lexer(new String(input)).tokens())), size);
+        report("mapped", time(() -> {
+            try {
+                count(Lexer.stream(file));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }), size);
+
+        tokens = null;
+        before = heap();
+        Iterator<Token> source = Lexer.stream(file);
+        long mappedHeap = heap() - before;
+        System.out.printf("Retained heap: string %.2f MB, mapped %.2f MB%n", stringHeap / 1e6, mappedHeap / 1e6);
+        count(source);
+        count(new Lexer(input).tokens());
+    }
+
+    static long count(Iterator<Token> tokens) {
+        long count = 0;
+        while (tokens.hasNext()) {
+            tokens.next();
+            count++;
+        }
+        return count;
+    }
+
+    static long heap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Generates a program exercising every token type, including decimals
+     * and the multi-character operators.
+     */
+    static String program(int statements) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < statements; i++) {
+            builder.append("LET value_").append(i).append(" : DECIMAL = ").append(i).append(".25 * (x")
+                    .append(i % 7).append(" + 42) / 3;\n");
+            builder.append("IF value_").append(i).append(" != 10 THEN\n    PRINT(\"value ")
+                    .append(i).append("\");\nEND\n");
+        }
+        return builder.toString();
+    }
+
+    static long time(Runnable runnable) {
+        for (int i = 0; i < WARMUP; i++) {
+            runnable.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            runnable.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    static void report(String name, long nanos, long chars) {
+        System.out.printf("%-8s %8.2f ms %8.2f MB/s%n", name, nanos / 1e6, chars / (nanos / 1e9) / 1e6);
+    }
+
+    /**
+     * The original lexer, which matches every character against a regex.
+     */
+    private static final class RegexLexer {
+
+        private final String input;
+        private int index = 0;
+        private int length = 0;
+
+        private RegexLexer(String input) {
+            this.input = input;
+        }
+
+        static List<Token> lex(String input) {
+            RegexLexer lexer = new RegexLexer(input);
+            List<Token> tokens = new ArrayList<>();
+            while (lexer.index < input.length()) {
+                if (!lexer.match("[ \n\r\t]")) {
+                    tokens.add(lexer.lexToken());
+                } else {
+                    lexer.length = 0;
+                }
+            }
+            return tokens;
+        }
+
+        private Token lexToken() {
+            if ((peek("[=]", "[=]") || peek("[!]", "[=]"))) {
+                match(".", ".");
+            } else if (match("[0-9]")) {
+                boolean decimal = false;
+                while (peek("[.]") || peek("[0-9]")) {
+                    if (!decimal && peek("[.]", "[0-9]")) {
+                        match("[.]", "[0-9]");
+                        decimal = true;
+                    } else if (peek("[.]")) {
+                        return emit(decimal ? Token.Type.DECIMAL : Token.Type.INTEGER);
+                    } else {
+                        match("[0-9]");
+                    }
+                }
+                return emit(decimal ? Token.Type.DECIMAL : Token.Type.INTEGER);
+            } else if (match("[A-Za-z_]")) {
+                while (match("[A-Za-z0-9_]"));
+                return emit(Token.Type.IDENTIFIER);
+            } else if (match("\"")) {
+                while (match("[^\"]"));
+                if (!match("\"")) {
+                    throw new ParseException("no terminating end quote", index);
+                }
+                return emit(Token.Type.STRING);
+            } else {
+                match("[^ \n\r\t]");
+            }
+            return emit(Token.Type.OPERATOR);
+        }
+
+        private boolean peek(String... patterns) {
+            for (int i = 0; i < patterns.length; i++) {
+                if (index + i >= input.length() || !String.valueOf(input.charAt(index + i)).matches(patterns[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean match(String... patterns) {
+            boolean peek = peek(patterns);
+            if (peek) {
+                index += patterns.length;
+                length += patterns.length;
+            }
+            return peek;
+        }
+
+        private Token emit(Token.Type type) {
+            int start = index - length;
+            length = 0;
+            return new Token(type, input.substring(start, index), start);
+        }
+
+    }
+
+}
@@ -1,11 +1,23 @@
 package plc.compiler;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 /**
@@ -104,6 +116,192 @@ final class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testStream(String input) {
+        List<Token> tokens = new ArrayList<>();
+        Lexer.stream(new StringReader(input)).forEachRemaining(tokens::add);
+        Assertions.assertEquals(Lexer.lex(input), tokens);
+    }
+
+    private static Stream<Arguments> testStream() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            program.append("LET x").append(i).append(" : DECIMAL = ").append(i).append(".5 != y;\n");
+        }
+        StringBuilder string = new StringBuilder("\"");
+        for (int i = 0; i < 20000; i++) {
+            string.append((char) ('a' + i % 26));
+        }
+        return Stream.of(
+                Arguments.of(""),
+                Arguments.of("  \n\t"),
+                Arguments.of("PRINT(\"Hello, World!\");"),
+                Arguments.of(program.toString()),
+                Arguments.of("x = " + string + "\";")
+        );
+    }
+
+    @Test
+    void testBuffer() {
+        TokenBuffer buffer = Lexer.buffer("LET x = 1.5 != \"a b\";");
+        Assertions.assertEquals(7, buffer.size());
+        Assertions.assertEquals(Token.Type.DECIMAL, buffer.getType(3));
+        Assertions.assertEquals(8, buffer.getStart(3));
+        Assertions.assertEquals(3, buffer.getLength(3));
+        Assertions.assertTrue(buffer.matches(4, "!="));
+        Assertions.assertFalse(buffer.matches(4, "!"));
+        Assertions.assertEquals(new Token(Token.Type.STRING, "\"a b\"", 15), buffer.get(5));
+        Assertions.assertEquals(Lexer.lex("LET x = 1.5 != \"a b\";"), buffer.asList());
+    }
+
+    @Test
+    void testLexMutable() {
+        List<Token> tokens = Lexer.lex("x = 1;");
+        tokens.set(2, new Token(Token.Type.INTEGER, "2", 4));
+        tokens.remove(3);
+        tokens.add(new Token(Token.Type.OPERATOR, ";", 5));
+        Assertions.assertEquals(Lexer.lex("x = 2;"), tokens);
+    }
+
+    @Test
+    void testInterning() {
+        TokenBuffer buffer = Lexer.buffer("IF value THEN value = other; END");
+        Assertions.assertEquals(Symbols.IF, buffer.getSymbol(0));
+        Assertions.assertEquals(Symbols.THEN, buffer.getSymbol(2));
+        Assertions.assertEquals(buffer.getSymbol(1), buffer.getSymbol(3));
+        Assertions.assertNotEquals(buffer.getSymbol(1), buffer.getSymbol(5));
+        Assertions.assertEquals(-1, buffer.getSymbol(4));
+        Assertions.assertSame(buffer.getLiteral(1), buffer.getLiteral(3));
+        Iterator<Token> stream = Lexer.stream(new StringReader("value value"));
+        Assertions.assertSame(stream.next().getLiteral(), stream.next().getLiteral());
+    }
+
+    @Test
+    void testInterningCompilation() {
+        TokenBuffer buffer = Lexer.buffer("LET interningCompilation = 1;");
+        Assertions.assertEquals(-1, Symbols.shared().lookup("interningCompilation"));
+        Assertions.assertEquals(buffer.getSymbol(1), buffer.getSymbols().lookup("interningCompilation"));
+        Assertions.assertEquals(-1, Symbols.compilation().lookup("interningCompilation"));
+        Assertions.assertEquals(Symbols.LET, Symbols.compilation().lookup("LET"));
+    }
+
+    @Test
+    void testKeyword() {
+        for (String keyword : Arrays.asList("IF", "THEN", "ELSE", "END", "WHILE", "DO", "LET", "TRUE", "FALSE")) {
+            Assertions.assertEquals(Symbols.shared().lookup(keyword), Symbols.keyword(keyword));
+        }
+        Assertions.assertEquals(-1, Symbols.keyword("PRINT"));
+        Assertions.assertEquals(-1, Symbols.keyword("let"));
+    }
+
+    @Test
+    void testParallel() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            program.append("x").append(i).append(" = \"a string with spaces ").append(i).append("\" + 1.5;\n");
+        }
+        String input = program.toString();
+        int[] boundaries = Lexer.split(input, 8);
+        Assertions.assertEquals(9, boundaries.length);
+        for (int boundary : Arrays.copyOfRange(boundaries, 1, boundaries.length - 1)) {
+            Assertions.assertTrue(Character.isWhitespace(input.charAt(boundary)));
+            Assertions.assertEquals(0, input.substring(0, boundary).chars().filter(c -> c == '"').count() % 2);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assertions.assertEquals(Lexer.lex(input), Lexer.buffer(input, pool).asList());
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> Lexer.buffer(input + "\"unterminated", pool));
+            Assertions.assertEquals(input.length() + 13, exception.getIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String input, int offset, int removed, String inserted) {
+        TokenBuffer tokens = Lexer.buffer(input);
+        String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        Assertions.assertEquals(Lexer.lex(edited), Lexer.relex(tokens, offset, removed, inserted).asList());
+    }
+
+    private static Stream<Arguments> testRelex() {
+        String input = "LET x : INTEGER = 1;\nWHILE x != 10 DO\n    x = x + 1.5;\nEND\nPRINT(\"x\" + \"y\");\n";
+        return Stream.of(
+                Arguments.of(input, 5, 0, "yz"),
+                Arguments.of(input, 10, 0, " "),
+                Arguments.of(input, 17, 0, "="),
+                Arguments.of(input, 19, 0, ".5"),
+                Arguments.of(input, 21, 17, ""),
+                Arguments.of(input, 38, 0, "IF x THEN\n"),
+                Arguments.of(input, 67, 5, " + "),
+                Arguments.of(input, 38, 0, "PRINT(\"a\");\n"),
+                Arguments.of(input, input.length(), 0, "x = 1;"),
+                Arguments.of(input, 0, input.length(), "y = 2;")
+        );
+    }
+
+    @Test
+    void testRelexRepeated() {
+        String[] insertions = {"x", " ", "1", ".5", "\"s\"", "IF", "\n", "= ", "PRINT(y);"};
+        String edited = "LET x : INTEGER = 1;\nWHILE x != 10 DO\n    x = x + 1.5;\nEND\nPRINT(\"x\" + \"y\");\n";
+        TokenBuffer tokens = Lexer.buffer(edited);
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            int offset = random.nextInt(edited.length() + 1);
+            int removed = random.nextInt(Math.min(4, edited.length() - offset) + 1);
+            String inserted = insertions[random.nextInt(insertions.length)];
+            String next = edited.substring(0, offset) + inserted + edited.substring(offset + removed);
+            if (next.chars().filter(c -> c == '"').count() % 2 != 0) {
+                continue;
+            }
+            tokens = Lexer.relex(tokens, offset, removed, inserted);
+            edited = next;
+            Assertions.assertEquals(edited, tokens.getSource().toString());
+            Assertions.assertEquals(Lexer.lex(edited), tokens.asList());
+        }
+        tokens.add(Token.Type.OPERATOR, edited.length() - 1, 1);
+        Assertions.assertEquals(Lexer.lex(edited).size() + 1, tokens.size());
+    }
+
+    @Test
+    void testRelexUnterminatedString() {
+        TokenBuffer tokens = Lexer.buffer("x = 1; y = 2;");
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> Lexer.relex(tokens, 4, 1, "\"a"));
+        Assertions.assertEquals(14, exception.getIndex());
+    }
+
+    @Test
+    void testStreamFile() throws IOException {
+        String input = "LET x : DECIMAL = 1.5;\nWHILE x != 10 DO\n    x = x + 1;\nEND\nPRINT(\"d\u00f6ne \u2713\");\nPRINT(x);\n";
+        Path file = Files.createTempFile("lexer", ".plc");
+        try {
+            Files.write(file, input.getBytes(StandardCharsets.UTF_8));
+            List<Token> mapped = new ArrayList<>();
+            Lexer.stream(file).forEachRemaining(mapped::add);
+            Assertions.assertEquals(Lexer.lex(input), mapped);
+            List<Token> read = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(file)) {
+                Lexer.stream(channel).forEachRemaining(read::add);
+            }
+            Assertions.assertEquals(mapped, read);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testStreamUnterminatedString() {
+        Iterator<Token> tokens = Lexer.stream(new StringReader("x = \"unterminated"));
+        tokens.next();
+        tokens.next();
+        ParseException exception = Assertions.assertThrows(ParseException.class, tokens::next);
+        Assertions.assertEquals(17, exception.getIndex());
+    }
+
     /**
      * Tests that the input lexes to the (single) expected token if successful,
      * else throws a {@link ParseException} otherwise.
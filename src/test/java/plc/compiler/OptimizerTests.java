@@ -0,0 +1,268 @@
+package plc.compiler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public final class OptimizerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testFold(String test, Ast.Expression ast, Ast.Expression expected) {
+        Assertions.assertEquals(expected, new Optimizer().visit(ast));
+    }
+
+    public static Stream<Arguments> testFold() {
+        return Stream.of(
+                Arguments.of("Integer Product",
+                        binary(Stdlib.Type.INTEGER, "*", binary(Stdlib.Type.INTEGER, "*", literal(60), literal(60)), literal(24)),
+                        literal(86400)
+                ),
+                Arguments.of("Integer Overflow",
+                        binary(Stdlib.Type.INTEGER, "+", literal(Integer.MAX_VALUE), literal(1)),
+                        literal(Integer.MIN_VALUE)
+                ),
+                Arguments.of("Integer Division",
+                        binary(Stdlib.Type.INTEGER, "/", literal(7), literal(2)),
+                        literal(3)
+                ),
+                Arguments.of("Division By Zero",
+                        binary(Stdlib.Type.INTEGER, "/", literal(1), literal(0)),
+                        binary(Stdlib.Type.INTEGER, "/", literal(1), literal(0))
+                ),
+                Arguments.of("Decimal Widening",
+                        binary(Stdlib.Type.DECIMAL, "+", literal(1), literal(2.5)),
+                        literal(3.5)
+                ),
+                Arguments.of("Decimal Infinity",
+                        binary(Stdlib.Type.DECIMAL, "/", literal(1.5), literal(0)),
+                        binary(Stdlib.Type.DECIMAL, "/", literal(1.5), literal(0))
+                ),
+                Arguments.of("String Concatenation",
+                        binary(Stdlib.Type.STRING, "+", binary(Stdlib.Type.STRING, "+", literal("a"), literal(1)), literal(2.0)),
+                        literal("a12.0")
+                ),
+                Arguments.of("Numeric Equality",
+                        binary(Stdlib.Type.BOOLEAN, "!=", literal(1), literal(1.0)),
+                        literal(false)
+                ),
+                Arguments.of("String Equality",
+                        binary(Stdlib.Type.BOOLEAN, "==", literal("a"), literal("a")),
+                        binary(Stdlib.Type.BOOLEAN, "==", literal("a"), literal("a"))
+                ),
+                Arguments.of("Group",
+                        binary(Stdlib.Type.INTEGER, "*", new Ast.Expression.Group(binary(Stdlib.Type.INTEGER, "+", literal(1), literal(2))), literal(3)),
+                        literal(9)
+                ),
+                Arguments.of("Variable Operand",
+                        binary(Stdlib.Type.INTEGER, "+", binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), literal(1)), literal(2)),
+                        binary(Stdlib.Type.INTEGER, "+", binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), literal(1)), literal(2))
+                )
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testPropagate(String test, Ast.Source ast, Ast.Source expected) {
+        Assertions.assertEquals(expected, new Optimizer().visit(ast));
+    }
+
+    public static Stream<Arguments> testPropagate() {
+        return Stream.of(
+                Arguments.of("Until Assignment",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", binary(Stdlib.Type.INTEGER, "*", literal(60), literal(60))),
+                                print(variable(Stdlib.Type.INTEGER, "x")),
+                                new Ast.Statement.Assignment("x", literal(1)),
+                                print(variable(Stdlib.Type.INTEGER, "x"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(3600)),
+                                print(literal(3600)),
+                                new Ast.Statement.Assignment("x", literal(1)),
+                                print(variable(Stdlib.Type.INTEGER, "x"))
+                        ))
+                ),
+                Arguments.of("Widened",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.DECIMAL, "x", literal(1)),
+                                print(binary(Stdlib.Type.DECIMAL, "/", variable(Stdlib.Type.DECIMAL, "x"), literal(2)))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.DECIMAL, "x", literal(1)),
+                                print(literal(0.5))
+                        ))
+                ),
+                Arguments.of("Assigned In Loop",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(0)),
+                                declaration(Stdlib.Type.INTEGER, "y", literal(1)),
+                                new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", variable(Stdlib.Type.INTEGER, "x"), variable(Stdlib.Type.INTEGER, "y")), Arrays.asList(
+                                        print(variable(Stdlib.Type.INTEGER, "y")),
+                                        new Ast.Statement.If(literal(true), Arrays.asList(
+                                                new Ast.Statement.Assignment("x", variable(Stdlib.Type.INTEGER, "y"))
+                                        ), Collections.emptyList())
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(0)),
+                                declaration(Stdlib.Type.INTEGER, "y", literal(1)),
+                                new Ast.Statement.While(binary(Stdlib.Type.BOOLEAN, "!=", variable(Stdlib.Type.INTEGER, "x"), literal(1)), Arrays.asList(
+                                        print(literal(1)),
+                                        new Ast.Statement.Assignment("x", literal(1))
+                                ))
+                        ))
+                ),
+                Arguments.of("Branches",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(0)),
+                                declaration(Stdlib.Type.INTEGER, "y", literal(0)),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "b"), Arrays.asList(
+                                        new Ast.Statement.Assignment("x", literal(1)),
+                                        declaration(Stdlib.Type.INTEGER, "y", literal(2))
+                                ), Collections.emptyList()),
+                                print(binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), variable(Stdlib.Type.INTEGER, "y")))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(0)),
+                                declaration(Stdlib.Type.INTEGER, "y", literal(0)),
+                                new Ast.Statement.If(variable(Stdlib.Type.BOOLEAN, "b"), Arrays.asList(
+                                        new Ast.Statement.Assignment("x", literal(1)),
+                                        declaration(Stdlib.Type.INTEGER, "y", literal(2))
+                                ), Collections.emptyList()),
+                                print(binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), variable(Stdlib.Type.INTEGER, "y")))
+                        ))
+                )
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testEliminate(String test, Ast.Source ast, Ast.Source expected) {
+        Assertions.assertEquals(expected, new Optimizer().visit(ast));
+    }
+
+    public static Stream<Arguments> testEliminate() {
+        return Stream.of(
+                Arguments.of("If False",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.If(literal(false), Arrays.asList(
+                                        print(literal("debug"))
+                                ), Collections.emptyList()),
+                                print(literal("release"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                print(literal("release"))
+                        ))
+                ),
+                Arguments.of("Else Taken",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(0)),
+                                new Ast.Statement.If(binary(Stdlib.Type.BOOLEAN, "==", variable(Stdlib.Type.INTEGER, "x"), literal(1)), Arrays.asList(
+                                        new Ast.Statement.Assignment("x", literal(1))
+                                ), Arrays.asList(
+                                        print(variable(Stdlib.Type.INTEGER, "x"))
+                                )),
+                                print(variable(Stdlib.Type.INTEGER, "x"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.INTEGER, "x", literal(0)),
+                                print(literal(0)),
+                                print(literal(0))
+                        ))
+                ),
+                Arguments.of("Taken Branch Declares",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.If(literal(true), Arrays.asList(
+                                        declaration(Stdlib.Type.INTEGER, "x", literal(1)),
+                                        print(variable(Stdlib.Type.INTEGER, "x"))
+                                ), Arrays.asList(
+                                        print(literal("never"))
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.If(literal(true), Arrays.asList(
+                                        declaration(Stdlib.Type.INTEGER, "x", literal(1)),
+                                        print(literal(1))
+                                ), Collections.emptyList())
+                        ))
+                ),
+                Arguments.of("While False",
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.BOOLEAN, "run", literal(false)),
+                                new Ast.Statement.While(variable(Stdlib.Type.BOOLEAN, "run"), Arrays.asList(
+                                        new Ast.Statement.Assignment("run", literal(true))
+                                )),
+                                print(variable(Stdlib.Type.BOOLEAN, "run"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                declaration(Stdlib.Type.BOOLEAN, "run", literal(false)),
+                                print(literal(false))
+                        ))
+                ),
+                Arguments.of("While True",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(literal(true), Arrays.asList(
+                                        print(literal("forever"))
+                                ))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.While(literal(true), Arrays.asList(
+                                        print(literal("forever"))
+                                ))
+                        ))
+                )
+        );
+    }
+
+    @Test
+    public void testUnchanged() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                declaration(Stdlib.Type.INTEGER, "x", variable(Stdlib.Type.INTEGER, "y")),
+                print(binary(Stdlib.Type.INTEGER, "+", variable(Stdlib.Type.INTEGER, "x"), literal(1)))
+        ));
+        Assertions.assertSame(ast, new Optimizer().visit(ast));
+    }
+
+    @Test
+    public void testUntyped() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                new Ast.Statement.Declaration("x", Stdlib.Type.INTEGER.getJvmName(), Optional.of(new Ast.Expression.Literal(1))),
+                print(new Ast.Expression.Variable("x"))
+        ));
+        Assertions.assertSame(ast, new Optimizer().visit(ast));
+    }
+
+    private static Ast.Expression.Literal literal(Object value) {
+        Stdlib.Type type = value instanceof Boolean ? Stdlib.Type.BOOLEAN
+                : value instanceof Integer ? Stdlib.Type.INTEGER
+                : value instanceof Double ? Stdlib.Type.DECIMAL
+                : Stdlib.Type.STRING;
+        return new Ast.Expression.Literal(type, value);
+    }
+
+    private static Ast.Expression.Binary binary(Stdlib.Type type, String operator, Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(type, operator, left, right);
+    }
+
+    private static Ast.Expression.Variable variable(Stdlib.Type type, String name) {
+        return new Ast.Expression.Variable(type, name);
+    }
+
+    private static Ast.Statement.Declaration declaration(Stdlib.Type type, String name, Ast.Expression value) {
+        return new Ast.Statement.Declaration(name, type.getJvmName(), Optional.of(value));
+    }
+
+    private static Ast.Statement.Expression print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function(Stdlib.Type.VOID,
+                Stdlib.Function.PRINT.getJvmName(), Arrays.asList(argument)));
+    }
+
+}
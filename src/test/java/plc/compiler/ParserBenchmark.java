@@ -0,0 +1,126 @@
+package plc.compiler;
+
+/**
+ * Benchmark for parsing long operator chains. As with {@link LexerBenchmark}
+ * this is a main class, run it with {@code plc.compiler.ParserBenchmark
+ * [operands]}.
+ *
+ * Each chain is parsed with both {@link Parser} and {@link LevelParser}, a
+ * copy of the original one-method-per-precedence-level expression rules, and
+ * the trees are checked to be equal before anything is timed. Comparing the
+ * trees is recursive, so the benchmark runs on a thread with a large stack.
+ */
+final class ParserBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int operands = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Thread thread = new Thread(null, () -> {
+            run("additive", chain(operands, "+", "-"));
+            run("mixed", chain(operands, "*", "+", "/", "==", "-"));
+        }, "benchmark", 1L << 28);
+        thread.start();
+        thread.join();
+    }
+
+    static void run(String name, String input) {
+        TokenBuffer tokens = Lexer.buffer(input);
+        if (!new LevelParser(tokens).parseExpression().equals(new Parser(tokens).parseExpression())) {
+            throw new AssertionError("Parser output differs from the level parser.");
+        }
+        System.out.println(name + ": " + tokens.size() + " tokens");
+        report("levels", LexerBenchmark.time(() -> new LevelParser(tokens).parseExpression()), tokens.size());
+        report("climbing", LexerBenchmark.time(() -> new Parser(tokens).parseExpression()), tokens.size());
+    }
+
+    /**
+     * Generates a chain of the given number of operands, cycling through the
+     * given operators.
+     */
+    static String chain(int operands, String... operators) {
+        StringBuilder builder = new StringBuilder("x0");
+        for (int i = 1; i < operands; i++) {
+            builder.append(' ').append(operators[i % operators.length]).append(' ').append(i % 2 == 0 ? "x" + i % 100 : i);
+        }
+        return builder.toString();
+    }
+
+    static void report(String name, long nanos, int tokens) {
+        System.out.printf("%-8s %8.2f ms %8.1f ns/token%n", name, nanos / 1e6, (double) nanos / tokens);
+    }
+
+    /**
+     * The original expression rules, with one method per precedence level
+     * each matching its operators through {@code peek(Object...)}. Primary
+     * expressions are limited to what the benchmark generates, and integers
+     * are parsed to the same {@link Long} values as the parser.
+     */
+    private static final class LevelParser {
+
+        private final TokenBuffer tokens;
+        private int index = 0;
+
+        private LevelParser(TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        Ast.Expression parseExpression() {
+            return parseEqualityExpression();
+        }
+
+        Ast.Expression parseEqualityExpression() {
+            Ast.Expression expression = parseAdditiveExpression();
+            while (peek(Token.Type.OPERATOR) && (peek("==") || peek("!="))) {
+                String operator = tokens.getLiteral(index++);
+                Ast.Expression right = parseAdditiveExpression();
+                expression = new Ast.Expression.Binary(operator, expression, right);
+            }
+            return expression;
+        }
+
+        Ast.Expression parseAdditiveExpression() {
+            Ast.Expression expression = parseMultiplicativeExpression();
+            while (peek(Token.Type.OPERATOR) && (peek("+") || peek("-"))) {
+                String operator = tokens.getLiteral(index++);
+                Ast.Expression right = parseMultiplicativeExpression();
+                expression = new Ast.Expression.Binary(operator, expression, right);
+            }
+            return expression;
+        }
+
+        Ast.Expression parseMultiplicativeExpression() {
+            Ast.Expression expression = parsePrimaryExpression();
+            while (peek(Token.Type.OPERATOR) && (peek("*") || peek("/"))) {
+                String operator = tokens.getLiteral(index++);
+                Ast.Expression right = parsePrimaryExpression();
+                expression = new Ast.Expression.Binary(operator, expression, right);
+            }
+            return expression;
+        }
+
+        Ast.Expression parsePrimaryExpression() {
+            if (peek(Token.Type.INTEGER)) {
+                return new Ast.Expression.Literal(Long.parseLong(tokens.getLiteral(index++)));
+            } else if (peek(Token.Type.IDENTIFIER)) {
+                return new Ast.Expression.Variable(tokens.getLiteral(index++));
+            }
+            throw new ParseException("unexpected token", index);
+        }
+
+        private boolean peek(Object... patterns) {
+            for (int i = 0; i < patterns.length; i++) {
+                if (index + i >= tokens.size()) {
+                    return false;
+                } else if (patterns[i] instanceof Token.Type) {
+                    if (patterns[i] != tokens.getType(index + i)) {
+                        return false;
+                    }
+                } else if (!tokens.matches(index + i, (String) patterns[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -6,9 +6,12 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
@@ -240,11 +243,23 @@ final class ParserTests {
                 ),
                 Arguments.of("Integer Literal",
                         Arrays.asList(new Token(Token.Type.INTEGER, "1", -1)),
-                        new Ast.Expression.Literal(new BigInteger("1"))
+                        new Ast.Expression.Literal(1L)
                 ),
                 Arguments.of("Decimal Literal",
                         Arrays.asList(new Token(Token.Type.DECIMAL, "2.0", -1)),
-                        new Ast.Expression.Literal(new BigDecimal("2.0"))
+                        new Ast.Expression.Literal(2.0)
+                ),
+                Arguments.of("Integer Overflow Literal",
+                        Arrays.asList(new Token(Token.Type.INTEGER, "9223372036854775808", -1)),
+                        new Ast.Expression.Literal(new BigInteger("9223372036854775808"))
+                ),
+                Arguments.of("Decimal Precision Literal",
+                        Arrays.asList(new Token(Token.Type.DECIMAL, "0.30000000000000000000001", -1)),
+                        new Ast.Expression.Literal(0.3)
+                ),
+                Arguments.of("Decimal Overflow Literal",
+                        Arrays.asList(new Token(Token.Type.DECIMAL, "1" + String.join("", Collections.nCopies(400, "0")) + ".5", -1)),
+                        new Ast.Expression.Literal(new BigDecimal("1" + String.join("", Collections.nCopies(400, "0")) + ".5"))
                 ),
                 Arguments.of("String Literal",
                         Arrays.asList(new Token(Token.Type.STRING, "\"string\"", -1)),
@@ -325,6 +340,32 @@ final class ParserTests {
                                 new Ast.Expression.Variable("expr1"),
                                 new Ast.Expression.Variable("expr2")
                         )
+                ),
+                Arguments.of("Binary Precedence",
+                        Arrays.asList(
+                                new Token(Token.Type.IDENTIFIER, "expr1", -1),
+                                new Token(Token.Type.OPERATOR, "-", -1),
+                                new Token(Token.Type.IDENTIFIER, "expr2", -1),
+                                new Token(Token.Type.OPERATOR, "*", -1),
+                                new Token(Token.Type.IDENTIFIER, "expr3", -1),
+                                new Token(Token.Type.OPERATOR, "-", -1),
+                                new Token(Token.Type.IDENTIFIER, "expr4", -1),
+                                new Token(Token.Type.OPERATOR, "==", -1),
+                                new Token(Token.Type.IDENTIFIER, "expr5", -1)
+                        ),
+                        new Ast.Expression.Binary("==",
+                                new Ast.Expression.Binary("-",
+                                        new Ast.Expression.Binary("-",
+                                                new Ast.Expression.Variable("expr1"),
+                                                new Ast.Expression.Binary("*",
+                                                        new Ast.Expression.Variable("expr2"),
+                                                        new Ast.Expression.Variable("expr3")
+                                                )
+                                        ),
+                                        new Ast.Expression.Variable("expr4")
+                                ),
+                                new Ast.Expression.Variable("expr5")
+                        )
                 )
         );
     }
@@ -437,11 +478,11 @@ final class ParserTests {
         );
         Ast.Source expected = new Ast.Source(Arrays.asList(
                 new Ast.Statement.Declaration("first", "INTEGER",
-                        Optional.of(new Ast.Expression.Literal(BigInteger.valueOf(1)))),
+                        Optional.of(new Ast.Expression.Literal(1L))),
                 new Ast.Statement.While(
                         new Ast.Expression.Binary("!=",
                                 new Ast.Expression.Variable("first"),
-                                new Ast.Expression.Literal(BigInteger.valueOf(10))
+                                new Ast.Expression.Literal(10L)
                         ),
                         Arrays.asList(
                                 new Ast.Statement.Expression(
@@ -452,7 +493,7 @@ final class ParserTests {
                                 new Ast.Statement.Assignment("first",
                                         new Ast.Expression.Binary("+",
                                                 new Ast.Expression.Variable("first"),
-                                                new Ast.Expression.Literal(BigInteger.valueOf(1))
+                                                new Ast.Expression.Literal(1L)
                                         )
                                 )
                         )
@@ -461,6 +502,162 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testTokenSource() {
+        String input = "LET x : INTEGER = 1;\nx = (x + 2) * 3;\nIF x == 1 THEN\n    x = x - 1;\nEND\n";
+        Assertions.assertEquals(Parser.parse(Lexer.lex(input)), Parser.parse(Lexer.stream(new StringReader(input))));
+    }
+
+    @Test
+    void testTokenBuffer() {
+        String input = "WHILE i != 0 DO\n    IF i == 5 THEN\n        i = i - 2;\n    END\n    i = i - 1;\nEND\n";
+        List<Token> tokens = Lexer.buffer(input).asList();
+        Assertions.assertEquals(Parser.parse(new ArrayList<>(tokens)), Parser.parse(tokens));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testIterative(String input) {
+        List<Token> tokens = Lexer.lex(input);
+        Assertions.assertEquals(Parser.parse(tokens), Parser.parseIteratively(tokens));
+    }
+
+    private static Stream<Arguments> testIterative() {
+        return Stream.of(
+                Arguments.of("x = ((1 + 2) * (3 - y)) == z / 4;"),
+                Arguments.of("LET x : DECIMAL = 1.5 * (2.5 + x);\nPRINT(x, y * (2 - 1));\n"),
+                Arguments.of("IF x == 1 THEN\n    WHILE x != 10 DO\n        x = x + 1;\n    END\nELSE\n    IF y THEN\n        y = FALSE;\n    END\nEND\n"),
+                Arguments.of("WHILE TRUE DO\n    IF x THEN\n        x = \"done\";\n    END\n    WHILE y DO\n    END\nEND\n")
+        );
+    }
+
+    @Test
+    void testMissingOperand() {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> Parser.parse(Lexer.lex("x = (1 + );")));
+        Assertions.assertEquals(5, exception.getIndex());
+    }
+
+    @Test
+    void testIterativeMissingOperand() {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> Parser.parseIteratively(Lexer.lex("x = (1 + );")));
+        Assertions.assertEquals(5, exception.getIndex());
+    }
+
+    @Test
+    void testIterativeDeepNesting() {
+        int depth = 100000;
+        StringBuilder input = new StringBuilder("x = ");
+        for (int i = 0; i < depth; i++) {
+            input.append("(1 + ");
+        }
+        input.append('x');
+        for (int i = 0; i < depth; i++) {
+            input.append(')');
+        }
+        input.append(";\n");
+        for (int i = 0; i < depth; i++) {
+            input.append("WHILE x DO\n");
+        }
+        for (int i = 0; i < depth; i++) {
+            input.append("END\n");
+        }
+        Ast.Source source = (Ast.Source) Parser.parseIteratively(Lexer.lex(input.toString()));
+        Ast.Expression expression = ((Ast.Statement.Assignment) source.getStatements().get(0)).getExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expression.Binary) ((Ast.Expression.Group) expression).getExpression()).getRight();
+        }
+        Assertions.assertEquals(new Ast.Expression.Variable("x"), expression);
+        Ast.Statement statement = source.getStatements().get(1);
+        for (int i = 1; i < depth; i++) {
+            statement = ((Ast.Statement.While) statement).getStatements().get(0);
+        }
+        Assertions.assertTrue(((Ast.Statement.While) statement).getStatements().isEmpty());
+    }
+
+    @Test
+    void testFlatAst() {
+        String input = "LET x : DECIMAL = 1.5;\nIF x == 1 THEN\n    x = (x + 2) * 3;\nELSE\n    WHILE x != \"s\" DO\n        PRINT(x, 1.5);\n    END\nEND\n";
+        Ast ast = Parser.parse(Lexer.lex(input));
+        FlatAst flat = FlatAst.encode(ast);
+        Assertions.assertEquals(ast, flat.get(flat.getRoot()));
+        Assertions.assertEquals(FlatAst.Kind.SOURCE, flat.getKind(flat.getRoot()));
+        int statement = flat.getChild(flat.getRoot(), 1);
+        Assertions.assertEquals(FlatAst.Kind.IF, flat.getKind(statement));
+        Assertions.assertEquals(1, flat.getThenCount(statement));
+        Assertions.assertEquals("==", flat.getOperator(flat.getChild(statement, 0)));
+    }
+
+    @Test
+    void testFlatAstBuilder() {
+        String input = "LET x : DECIMAL = 1.5;\nLET y : INTEGER;\nIF x == 1 THEN\n    x = (x + 2) * 3;\nELSE\n    WHILE x != \"s\" DO\n        PRINT(x, 1.5);\n    END\nEND\n";
+        List<Token> tokens = Lexer.lex(input);
+        FlatAst flat = FlatAst.parse(tokens);
+        FlatAst encoded = FlatAst.encode(Parser.parse(tokens));
+        Assertions.assertEquals(encoded.size(), flat.size());
+        Assertions.assertEquals(Parser.parse(tokens), flat.get(flat.getRoot()));
+    }
+
+    @Test
+    void testFlatAstDeepNesting() {
+        int depth = 100000;
+        StringBuilder input = new StringBuilder("x = ");
+        for (int i = 0; i < depth; i++) {
+            input.append("(1 + ");
+        }
+        input.append('x');
+        for (int i = 0; i < depth; i++) {
+            input.append(')');
+        }
+        input.append(";\n");
+        List<Token> tokens = Lexer.lex(input.toString());
+        FlatAst flat = FlatAst.parse(tokens);
+        FlatAst encoded = FlatAst.encode(Parser.parseIteratively(tokens));
+        Assertions.assertEquals(3 * depth + 3, flat.size());
+        Assertions.assertEquals(encoded.size(), flat.size());
+        int node = flat.getChild(flat.getChild(flat.getRoot(), 0), 0);
+        int other = encoded.getChild(encoded.getChild(encoded.getRoot(), 0), 0);
+        for (int i = 0; i < depth; i++) {
+            Assertions.assertEquals(FlatAst.Kind.GROUP, flat.getKind(node));
+            Assertions.assertEquals(encoded.getKind(other), flat.getKind(node));
+            node = flat.getChild(flat.getChild(node, 0), 1);
+            other = encoded.getChild(encoded.getChild(other, 0), 1);
+        }
+        Assertions.assertEquals("x", flat.getName(node));
+        Ast.Expression expression = ((Ast.Statement.Assignment) ((Ast.Source) flat.get(flat.getRoot())).getStatements().get(0)).getExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expression.Binary) ((Ast.Expression.Group) expression).getExpression()).getRight();
+        }
+        Assertions.assertEquals(new Ast.Expression.Variable("x"), expression);
+    }
+
+    @Test
+    void testHashConsing() {
+        List<Token> tokens = Lexer.lex("x = x * x + x * x;\ny = (x * x) - 1;\n");
+        Ast.Source expected = (Ast.Source) Parser.parse(tokens);
+        Ast.Source source = new Parser(tokens, AstFactory.hashConsing()).parseSource();
+        Assertions.assertEquals(expected, source);
+        Assertions.assertEquals(expected.hashCode(), source.hashCode());
+        Ast.Expression.Binary sum = (Ast.Expression.Binary) ((Ast.Statement.Assignment) source.getStatements().get(0)).getExpression();
+        Ast.Expression.Binary difference = (Ast.Expression.Binary) ((Ast.Statement.Assignment) source.getStatements().get(1)).getExpression();
+        Assertions.assertSame(sum.getLeft(), sum.getRight());
+        Assertions.assertSame(sum.getLeft(), ((Ast.Expression.Group) difference.getLeft()).getExpression());
+    }
+
+    @Test
+    void testHashConsingStatements() {
+        Ast.Source source = new Parser(Lexer.lex("x = 1;\nWHILE x DO\n    x = 1;\nEND\nx = 1;\n"), AstFactory.hashConsing()).parseSource();
+        Ast.Statement.Assignment first = (Ast.Statement.Assignment) source.getStatements().get(0);
+        Ast.Statement.Assignment nested = (Ast.Statement.Assignment) ((Ast.Statement.While) source.getStatements().get(1)).getStatements().get(0);
+        Ast.Statement.Assignment last = (Ast.Statement.Assignment) source.getStatements().get(2);
+        Assertions.assertEquals(first, last);
+        Assertions.assertNotSame(first, last);
+        Assertions.assertNotSame(first, nested);
+        Assertions.assertSame(first.getExpression(), last.getExpression());
+        Assertions.assertSame(first.getExpression(), nested.getExpression());
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).
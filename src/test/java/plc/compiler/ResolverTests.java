@@ -0,0 +1,139 @@
+package plc.compiler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public final class ResolverTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testSource(String test, Ast.Source ast, Ast.Source expected) {
+        if (expected != null) {
+            Assertions.assertEquals(expected, new Resolver().visit(ast));
+        } else {
+            Assertions.assertThrows(AnalysisException.class, () -> new Resolver().visit(ast));
+        }
+    }
+
+    public static Stream<Arguments> testSource() {
+        return Stream.of(
+                Arguments.of("Declarations",
+                        new Ast.Source(Arrays.asList(
+                                declaration("x", new Ast.Expression.Literal(1L)),
+                                declaration("y", new Ast.Expression.Variable("x")),
+                                new Ast.Statement.Assignment("x", new Ast.Expression.Variable("y"))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.Declaration("x", "INTEGER", Optional.of(new Ast.Expression.Literal(1L)), 0, 0),
+                                new Ast.Statement.Declaration("y", "INTEGER", Optional.of(new Ast.Expression.Variable(null, "x", 0, 0)), 0, 1),
+                                new Ast.Statement.Assignment("x", new Ast.Expression.Variable(null, "y", 0, 1), 0, 0)
+                        ))
+                ),
+                Arguments.of("Nested Blocks",
+                        new Ast.Source(Arrays.asList(
+                                declaration("x", null),
+                                new Ast.Statement.While(new Ast.Expression.Variable("x"), Arrays.asList(
+                                        declaration("y", new Ast.Expression.Variable("x")),
+                                        declaration("x", new Ast.Expression.Variable("y")),
+                                        new Ast.Statement.Assignment("x", new Ast.Expression.Variable("y"))
+                                )),
+                                new Ast.Statement.Assignment("x", new Ast.Expression.Literal(1L))
+                        )),
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.Declaration("x", "INTEGER", Optional.empty(), 0, 0),
+                                new Ast.Statement.While(new Ast.Expression.Variable(null, "x", 0, 0), Arrays.asList(
+                                        new Ast.Statement.Declaration("y", "INTEGER", Optional.of(new Ast.Expression.Variable(null, "x", 0, 0)), 1, 0),
+                                        new Ast.Statement.Declaration("x", "INTEGER", Optional.of(new Ast.Expression.Variable(null, "y", 1, 0)), 1, 1),
+                                        new Ast.Statement.Assignment("x", new Ast.Expression.Variable(null, "y", 1, 0), 1, 1)
+                                )),
+                                new Ast.Statement.Assignment("x", new Ast.Expression.Literal(1L), 0, 0)
+                        ))
+                ),
+                Arguments.of("Undefined",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.Assignment("undefined", new Ast.Expression.Literal(1L))
+                        )),
+                        null
+                ),
+                Arguments.of("Out Of Scope",
+                        new Ast.Source(Arrays.asList(
+                                new Ast.Statement.If(new Ast.Expression.Literal(true),
+                                        Arrays.asList(declaration("x", null)),
+                                        Collections.emptyList()),
+                                new Ast.Statement.Assignment("x", new Ast.Expression.Literal(1L))
+                        )),
+                        null
+                ),
+                Arguments.of("Redefined",
+                        new Ast.Source(Arrays.asList(
+                                declaration("x", null),
+                                declaration("x", null)
+                        )),
+                        null
+                ),
+                Arguments.of("Self Reference",
+                        new Ast.Source(Arrays.asList(
+                                declaration("self", new Ast.Expression.Variable("self"))
+                        )),
+                        null
+                )
+        );
+    }
+
+    @Test
+    public void testFrameSizes() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                declaration("x", null),
+                new Ast.Statement.If(new Ast.Expression.Variable("x"),
+                        Arrays.asList(new Ast.Statement.While(new Ast.Expression.Variable("x"),
+                                Arrays.asList(declaration("y", null)))),
+                        Arrays.asList(declaration("y", null), declaration("z", null)))
+        ));
+        Resolver resolver = new Resolver();
+        resolver.visit(ast);
+        Assertions.assertArrayEquals(new int[] {1, 2, 1}, resolver.getFrameSizes());
+    }
+
+    @Test
+    public void testUnchanged() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                new Ast.Statement.Expression(new Ast.Expression.Function("PRINT", Arrays.asList(
+                        new Ast.Expression.Binary("+", new Ast.Expression.Literal(1L), new Ast.Expression.Literal("one"))
+                )))
+        ));
+        Assertions.assertSame(ast, new Resolver().visit(ast));
+    }
+
+    @Test
+    public void testAnalyzed() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(
+                declaration("x", new Ast.Expression.Literal(1L)),
+                new Ast.Statement.Expression(new Ast.Expression.Function("PRINT", Arrays.asList(
+                        new Ast.Expression.Variable("x")
+                )))
+        ));
+        Ast.Source resolved = new Resolver().visit(ast);
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) analyzer.visit(resolved.getStatements().get(0));
+        Ast.Statement.Expression statement = (Ast.Statement.Expression) analyzer.visit(resolved.getStatements().get(1));
+        Ast.Expression.Variable variable = (Ast.Expression.Variable)
+                ((Ast.Expression.Function) statement.getExpression()).getArguments().get(0);
+        Assertions.assertEquals(0, declaration.getSlot());
+        Assertions.assertEquals(Stdlib.Type.INTEGER, variable.getType());
+        Assertions.assertEquals(0, variable.getDepth());
+        Assertions.assertEquals(0, variable.getSlot());
+    }
+
+    private static Ast.Statement.Declaration declaration(String name, Ast.Expression value) {
+        return new Ast.Statement.Declaration(name, "INTEGER", Optional.ofNullable(value));
+    }
+
+}
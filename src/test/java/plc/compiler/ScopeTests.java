@@ -0,0 +1,64 @@
+package plc.compiler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public final class ScopeTests {
+
+    @Test
+    public void testDefine() {
+        Scope scope = new Scope(null);
+        scope.define("x", Stdlib.Type.INTEGER);
+        scope.define("y", Stdlib.Type.STRING);
+        Assertions.assertEquals(Stdlib.Type.INTEGER, scope.lookup("x"));
+        Assertions.assertEquals(Stdlib.Type.STRING, scope.lookup("y"));
+        Assertions.assertThrows(AnalysisException.class, () -> scope.define("x", Stdlib.Type.DECIMAL));
+        Assertions.assertThrows(AnalysisException.class, () -> scope.lookup("undefined"));
+    }
+
+    @Test
+    public void testParent() {
+        Scope parent = new Scope(null);
+        parent.define("x", Stdlib.Type.INTEGER);
+        Scope scope = new Scope(parent);
+        scope.define("x", Stdlib.Type.DECIMAL);
+        scope.define("y", Stdlib.Type.STRING);
+        Assertions.assertEquals(Stdlib.Type.DECIMAL, scope.lookup("x"));
+        Assertions.assertEquals(Stdlib.Type.INTEGER, parent.lookup("x"));
+        Assertions.assertThrows(AnalysisException.class, () -> parent.lookup("y"));
+    }
+
+    /**
+     * Enough variables that the trie branches over several levels.
+     */
+    @Test
+    public void testManyVariables() {
+        Scope scope = new Scope(null);
+        for (int i = 0; i < 5000; i++) {
+            scope.define("variable" + i, i % 2 == 0 ? Stdlib.Type.INTEGER : Stdlib.Type.DECIMAL);
+        }
+        for (int i = 0; i < 5000; i++) {
+            Assertions.assertEquals(i % 2 == 0 ? Stdlib.Type.INTEGER : Stdlib.Type.DECIMAL, scope.lookup("variable" + i));
+        }
+        Assertions.assertThrows(AnalysisException.class, () -> scope.define("variable4999", Stdlib.Type.INTEGER));
+    }
+
+    @Test
+    public void testFork() {
+        Scope parent = new Scope(null);
+        parent.define("x", Stdlib.Type.INTEGER);
+        Scope scope = new Scope(parent);
+        scope.define("y", Stdlib.Type.STRING);
+        Scope fork = scope.fork();
+        fork.define("z", Stdlib.Type.BOOLEAN);
+        fork.getParent().define("w", Stdlib.Type.DECIMAL);
+        scope.define("z", Stdlib.Type.STRING);
+        Assertions.assertEquals(Stdlib.Type.INTEGER, fork.lookup("x"));
+        Assertions.assertEquals(Stdlib.Type.STRING, fork.lookup("y"));
+        Assertions.assertEquals(Stdlib.Type.BOOLEAN, fork.lookup("z"));
+        Assertions.assertEquals(Stdlib.Type.DECIMAL, fork.lookup("w"));
+        Assertions.assertEquals(Stdlib.Type.STRING, scope.lookup("z"));
+        Assertions.assertThrows(AnalysisException.class, () -> scope.lookup("w"));
+    }
+
+}